@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.benchmark;
+
+import com.intellij.lang.Language;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import org.intellij.grammar.parser.GeneratedParserUtilBase.ExtendsMatrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one <code>typeExtends</code> check: the extends matrix against the extends sets scan it replaces.
+ * Types are drawn from the grammar's own types, half of them in some set.
+ * <p/>
+ * Run with <code>gradle jmh</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtendsBenchmarks {
+  private static final int PAIRS = 1024;
+
+  @Param({"4", "16", "64", "100"})
+  public int sets;
+
+  private TokenSet[] myExtendsSets;
+  private ExtendsMatrix myMatrix;
+  private IElementType[] myChildren;
+  private IElementType[] myParents;
+  private int myPair;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(sets);
+    IElementType[] types = new IElementType[sets * 8];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = new IElementType("T" + i, Language.ANY);
+    }
+    myExtendsSets = new TokenSet[sets];
+    for (int i = 0; i < sets; i++) {
+      IElementType[] set = new IElementType[2 + random.nextInt(6)];
+      for (int j = 0; j < set.length; j++) {
+        set[j] = types[random.nextInt(types.length / 2)];
+      }
+      myExtendsSets[i] = TokenSet.create(set);
+    }
+    myMatrix = ExtendsMatrix.get(myExtendsSets);
+    myChildren = new IElementType[PAIRS];
+    myParents = new IElementType[PAIRS];
+    for (int i = 0; i < PAIRS; i++) {
+      myChildren[i] = types[random.nextInt(types.length)];
+      myParents[i] = types[random.nextInt(types.length)];
+    }
+  }
+
+  @Benchmark
+  public boolean matrix() {
+    int i = myPair++ & (PAIRS - 1);
+    return myMatrix.typeExtends(myChildren[i], myParents[i]);
+  }
+
+  @Benchmark
+  public boolean tokenSets() {
+    int i = myPair++ & (PAIRS - 1);
+    IElementType child = myChildren[i];
+    IElementType parent = myParents[i];
+    for (TokenSet set : myExtendsSets) {
+      if (set.contains(child) && set.contains(parent)) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.benchmark;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.BnfParserDefinition;
+import org.intellij.grammar.LightPsi;
+import org.intellij.grammar.analysis.BnfFirstNextAnalyzer;
+import org.intellij.grammar.generator.*;
+import org.intellij.grammar.psi.BnfFile;
+import org.intellij.grammar.psi.BnfRule;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser generator and grammar analysis timings on the bundled and <code>testData/generator</code> grammars.
+ * Generated code goes to a discarding sink so that disk I/O does not distort the numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmarks {
+
+  @Param({
+    "grammars/Grammar.bnf",
+    "grammars/JFlex.bnf",
+    "testData/generator/AutoRecovery.bnf",
+    "testData/generator/Autopin.bnf",
+    "testData/generator/BindersAndHooks.bnf",
+    "testData/generator/ExprParser.bnf",
+    "testData/generator/ExternalRules.bnf",
+    "testData/generator/FactorChoices.bnf",
+    "testData/generator/Fixes.bnf",
+    "testData/generator/InlinePrivate.bnf",
+    "testData/generator/LeftAssociative.bnf",
+    "testData/generator/PsiAccessors.bnf",
+    "testData/generator/PsiChildIndex.bnf",
+    "testData/generator/PsiGen.bnf",
+    "testData/generator/PsiStart.bnf",
+    "testData/generator/SkipUnreachable.bnf",
+    "testData/generator/Small.bnf",
+    "testData/generator/Stub.bnf",
+    "testData/generator/TokenSequence.bnf",
+    "testData/generator/UpperRules.bnf",
+  })
+  public String grammar;
+
+  private String myText;
+  private BnfFile myFile;
+  private RuleGraphHelper myGraphHelper;
+  private ExpressionHelper myExpressionHelper;
+  private List<BnfRule> myPsiRules;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    checkAllGrammarsListed();
+    myText = FileUtil.loadFile(new File(grammar));
+    myFile = parse(myText);
+    myGraphHelper = new RuleGraphHelper(myFile);
+    myExpressionHelper = new ExpressionHelper(myFile, myGraphHelper, false);
+    myPsiRules = ContainerUtil.filter(myFile.getRules(), RuleGraphHelper::hasPsiClass);
+  }
+
+  /**
+   * A freshly parsed file for every generation, so that analysis results cached on the PSI are not reused.
+   */
+  @State(Scope.Thread)
+  public static class FreshFile {
+    BnfFile file;
+
+    @Setup(Level.Invocation)
+    public void setUp(GeneratorBenchmarks benchmarks) {
+      file = parse(benchmarks.myText);
+    }
+  }
+
+  @Benchmark
+  public long generate(FreshFile fresh) throws IOException {
+    CountingWriter sink = new CountingWriter();
+    new ParserGenerator(fresh.file, "", "benchmark") {
+      @Override
+      protected PrintWriter openOutputInner(File file) {
+        return new PrintWriter(sink);
+      }
+    }.generate();
+    return sink.count;
+  }
+
+  @Benchmark
+  public RuleGraphHelper ruleGraphHelper() {
+    return new RuleGraphHelper(myFile);
+  }
+
+  @Benchmark
+  public ExpressionHelper expressionHelper() {
+    return new ExpressionHelper(myFile, myGraphHelper, false);
+  }
+
+  @Benchmark
+  public void calcFirst(Blackhole blackhole) {
+    BnfFirstNextAnalyzer analyzer = new BnfFirstNextAnalyzer();
+    for (BnfRule rule : myFile.getRules()) {
+      blackhole.consume(analyzer.calcFirst(rule));
+    }
+  }
+
+  @Benchmark
+  public void calcNext(Blackhole blackhole) {
+    BnfFirstNextAnalyzer analyzer = new BnfFirstNextAnalyzer();
+    for (BnfRule rule : myFile.getRules()) {
+      blackhole.consume(analyzer.calcNext(rule));
+    }
+  }
+
+  @Benchmark
+  public RuleMethodsHelper ruleMethodsHelper() {
+    RuleMethodsHelper helper = new RuleMethodsHelper(myGraphHelper, myExpressionHelper,
+                                                     RuleGraphHelper.getTokenTextToNameMap(myFile), new GenOptions(myFile));
+    helper.buildMaps(myPsiRules);
+    return helper;
+  }
+
+  /**
+   * Fails the run if a <code>testData/generator</code> grammar is missing from the {@link #grammar} values.
+   */
+  private static void checkAllGrammarsListed() throws NoSuchFieldException {
+    List<String> listed = Arrays.asList(GeneratorBenchmarks.class.getField("grammar").getAnnotation(Param.class).value());
+    File[] files = new File("testData/generator").listFiles((dir, name) -> name.endsWith(".bnf"));
+    if (files == null) throw new IllegalStateException("testData/generator not found in " + new File("").getAbsolutePath());
+    List<String> missing = ContainerUtil.newArrayList();
+    for (File file : files) {
+      String path = "testData/generator/" + file.getName();
+      if (!listed.contains(path)) missing.add(path);
+    }
+    if (!missing.isEmpty()) throw new IllegalStateException("grammars missing from @Param: " + missing);
+  }
+
+  private static BnfFile parse(String text) {
+    PsiFile file = LightPsi.parseFile("benchmark.bnf", text, new BnfParserDefinition());
+    if (!(file instanceof BnfFile)) throw new AssertionError("not a grammar: " + file);
+    return (BnfFile)file;
+  }
+
+  private static class CountingWriter extends Writer {
+    long count;
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      count += len;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.benchmark;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.LighterASTNode;
+import com.intellij.lang.ParserDefinition;
+import com.intellij.psi.SyntaxTraverser;
+import org.intellij.grammar.BnfParserDefinition;
+import org.intellij.grammar.LightPsi;
+import org.intellij.grammar.expression.ExpressionParserDefinition;
+import org.intellij.jflex.parser.JFlexParserDefinition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of generated parsers (expression sample, self-hosted BNF and JFlex grammars)
+ * on synthetic inputs of increasing size and error density, in AST and light-tree modes.
+ * <p/>
+ * Run with <code>gradle jmh</code>, allocation is reported by the <code>gc</code> profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmarks {
+
+  public enum Language { EXPRESSION, BNF, JFLEX }
+
+  @Param({"EXPRESSION", "BNF", "JFLEX"})
+  public Language language;
+
+  @Param({"100", "1000", "10000"})
+  public int size;
+
+  @Param({"0", "0.01", "0.1"})
+  public double errorDensity;
+
+  private ParserDefinition myDefinition;
+  private String myText;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(size * 31 + (long)(errorDensity * 1000));
+    switch (language) {
+      case EXPRESSION:
+        myDefinition = new ExpressionParserDefinition();
+        myText = SyntheticInputs.expressions(random, size, errorDensity);
+        break;
+      case BNF:
+        myDefinition = new BnfParserDefinition();
+        myText = SyntheticInputs.bnfGrammar(random, size, errorDensity);
+        break;
+      case JFLEX:
+        myDefinition = new JFlexParserDefinition();
+        myText = SyntheticInputs.flexSpec(random, size, errorDensity);
+        break;
+    }
+  }
+
+  @Benchmark
+  public ASTNode ast() {
+    return LightPsi.parseText(myText, myDefinition);
+  }
+
+  @Benchmark
+  public int lightTree() {
+    SyntaxTraverser<LighterASTNode> traverser = LightPsi.parseLight(myText, myDefinition);
+    return traverser.getRoot().getEndOffset();
+  }
+}
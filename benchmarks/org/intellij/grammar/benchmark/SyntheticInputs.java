@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.benchmark;
+
+import org.intellij.grammar.SyntheticGrammars;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic sources for parser benchmarks.
+ * <code>size</code> is the number of top-level items, <code>errorDensity</code> the probability
+ * of a syntax error being injected after a token.
+ */
+public class SyntheticInputs {
+
+  private static final String[] EXPR_OPERATORS = {" + ", " - ", " * ", " / ", " ^ ", " == ", " < "};
+  private static final String[] EXPR_JUNK = {" ) ", " ** ", " ,", " ( ", " = = "};
+  private static final String[] BNF_JUNK = {" ::= ", " | |", " ]", " {", " ("};
+  private static final String[] FLEX_JUNK = {" ]", " |", " {", " <", " ("};
+
+  private SyntheticInputs() {
+  }
+
+  public static String expressions(Random random, int size, double errorDensity) {
+    StringBuilder sb = new StringBuilder(size * 32);
+    for (int i = 0; i < size; i++) {
+      appendExpression(sb, random, 3, errorDensity);
+      sb.append(";\n");
+    }
+    return sb.toString();
+  }
+
+  private static void appendExpression(StringBuilder sb, Random random, int depth, double errorDensity) {
+    int operands = 1 + random.nextInt(3);
+    for (int i = 0; i < operands; i++) {
+      if (i > 0) sb.append(EXPR_OPERATORS[random.nextInt(EXPR_OPERATORS.length)]);
+      int kind = depth == 0 ? random.nextInt(2) : random.nextInt(4);
+      if (kind == 0) sb.append(random.nextInt(1000));
+      else if (kind == 1) sb.append("id").append(random.nextInt(50));
+      else if (kind == 2) {
+        sb.append("(");
+        appendExpression(sb, random, depth - 1, errorDensity);
+        sb.append(")");
+      }
+      else {
+        sb.append("f").append(random.nextInt(10)).append("(");
+        appendExpression(sb, random, depth - 1, errorDensity);
+        sb.append(", ");
+        appendExpression(sb, random, depth - 1, errorDensity);
+        sb.append(")");
+      }
+      injectError(sb, random, errorDensity, EXPR_JUNK);
+    }
+  }
+
+  /**
+   * A {@link SyntheticGrammars} grammar with <code>size</code> rules, junk is injected between the items of rule bodies.
+   */
+  public static String bnfGrammar(Random random, int size, double errorDensity) {
+    SyntheticGrammars.GrammarSpec spec = new SyntheticGrammars.GrammarSpec();
+    spec.rules = size;
+    spec.tokens = 10;
+    String grammar = SyntheticGrammars.generateGrammar(random, spec);
+    if (errorDensity <= 0) return grammar;
+    int body = grammar.indexOf("\n}\n") + 3;
+    StringBuilder sb = new StringBuilder(grammar.length() * 2).append(grammar, 0, body);
+    for (int i = body; i < grammar.length(); i++) {
+      char c = grammar.charAt(i);
+      if (c == ' ') injectError(sb, random, errorDensity, BNF_JUNK);
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  public static String flexSpec(Random random, int size, double errorDensity) {
+    StringBuilder sb = new StringBuilder(size * 48);
+    sb.append("package sample;\n%%\n%class _SampleLexer\n%unicode\n%state S1, S2\n\n");
+    for (int i = 0; i < size / 2 + 1; i++) {
+      sb.append("MACRO").append(i).append(" = [a-z").append(random.nextInt(10)).append("]+ | \"m")
+        .append(i).append("\"");
+      injectError(sb, random, errorDensity, FLEX_JUNK);
+      sb.append("\n");
+    }
+    sb.append("%%\n<YYINITIAL, S1> {\n");
+    for (int i = 0; i < size; i++) {
+      sb.append("  {MACRO").append(random.nextInt(size / 2 + 1)).append("} \"k").append(i).append("\"");
+      injectError(sb, random, errorDensity, FLEX_JUNK);
+      sb.append(" { return T").append(i % 10).append("; }\n");
+    }
+    sb.append("}\n[^] { return BAD_CHARACTER; }\n");
+    return sb.toString();
+  }
+
+  private static void injectError(StringBuilder sb, Random random, double errorDensity, String[] junk) {
+    if (errorDensity > 0 && random.nextDouble() < errorDensity) {
+      sb.append(junk[random.nextInt(junk.length)]);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.java.JavaHelper;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-lived parser generator process that keeps the JVM and {@link LightPsi} warm
+ * between <code>Main</code>-style generate requests, plus a thin client for it.
+ * Class lookups are cached across requests and dropped once a class path entry is added, removed or modified,
+ * the signature index checks class file timestamps on every lookup.
+ * <p/>
+ * A request is a single line with tab-separated <code>&lt;output-dir&gt; &lt;grammars or patterns&gt;</code>
+ * arguments. The response is the generator output followed by a <code>#done ok|failed &lt;millis&gt;ms</code> line.
+ * A <code>#shutdown</code> line stops the daemon.
+ * <p/>
+ * In <code>serve</code> mode a connection must start with the random token the daemon writes
+ * to <code>~/.grammar-kit/daemon-&lt;port&gt;.token</code>, readable by the current user only.
+ *
+ * @noinspection UseOfSystemOutOrSystemErr
+ */
+public class GeneratorDaemon {
+  static final String DONE = "#done";
+  static final String SHUTDOWN = "#shutdown";
+
+  private static long ourClassPathStamp;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length >= 1 && "serve".equals(args[0])) {
+      serve(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+      System.exit(0);
+    }
+    else if (args.length >= 1 && "stdin".equals(args[0])) {
+      Main.initSignatureIndex(System.out);
+      handle(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), System.out);
+      System.exit(0);
+    }
+    else if (args.length >= 4 && "client".equals(args[0])) {
+      System.exit(runClient(Integer.parseInt(args[1]), ArrayUtil.remove(ArrayUtil.remove(args, 0), 0)) ? 0 : 1);
+    }
+    else if (args.length == 2 && "stop".equals(args[0])) {
+      int port = Integer.parseInt(args[1]);
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+        socket.getOutputStream().write((readToken(port) + "\n" + SHUTDOWN + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    else {
+      System.out.println("Usage: GeneratorDaemon serve [port]");
+      System.out.println("       GeneratorDaemon stdin");
+      System.out.println("       GeneratorDaemon client <port> <output-dir> <grammars or patterns>");
+      System.out.println("       GeneratorDaemon stop <port>");
+    }
+  }
+
+  private static void serve(int port) throws IOException {
+    Main.initSignatureIndex(System.out);
+    ExecutorService executor = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "GeneratorDaemon request");
+      thread.setDaemon(true);
+      return thread;
+    });
+    ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    File tokenFile = getTokenFile(serverSocket.getLocalPort());
+    String token;
+    try {
+      token = writeToken(tokenFile);
+    }
+    catch (IOException e) {
+      serverSocket.close();
+      throw e;
+    }
+    System.out.println("Listening on port " + serverSocket.getLocalPort() + ", token in " + tokenFile);
+    try {
+      while (true) {
+        Socket socket;
+        try {
+          socket = serverSocket.accept();
+        }
+        catch (SocketException e) {
+          if (serverSocket.isClosed()) break;
+          throw e;
+        }
+        executor.execute(() -> handleConnection(socket, token, serverSocket));
+      }
+    }
+    finally {
+      serverSocket.close();
+      executor.shutdownNow();
+      FileUtil.delete(tokenFile);
+    }
+  }
+
+  /**
+   * Serves the requests of a connection that starts with the token, closes the server socket on shutdown request.
+   */
+  static void handleConnection(Socket socket, String token, ServerSocket serverSocket) {
+    try (Socket s = socket) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+      s.setSoTimeout(10000);
+      if (!isValidToken(token, in.readLine())) return;
+      s.setSoTimeout(0);
+      PrintStream out = new PrintStream(s.getOutputStream(), true, "UTF-8");
+      if (!handle(in, out)) serverSocket.close();
+    }
+    catch (IOException e) {
+      System.err.println("Request failed: " + e);
+    }
+  }
+
+  private static File getTokenFile(int port) {
+    return new File(SystemProperties.getUserHome(), ".grammar-kit/daemon-" + port + ".token");
+  }
+
+  /**
+   * Creates the file readable and writable by the current user only, then writes a new random token to it.
+   */
+  private static String writeToken(File tokenFile) throws IOException {
+    byte[] bytes = new byte[32];
+    new SecureRandom().nextBytes(bytes);
+    String token = StringUtil.toHexString(bytes);
+    File dir = tokenFile.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+    Path path = tokenFile.toPath();
+    Files.deleteIfExists(path);
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      Files.createFile(path, PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+    }
+    else {
+      // no POSIX permissions on Windows, the user profile directory is private there
+      Files.createFile(path);
+    }
+    Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+    return token;
+  }
+
+  private static String readToken(int port) throws IOException {
+    File tokenFile = getTokenFile(port);
+    if (!tokenFile.isFile()) throw new IOException("No daemon token found, is the daemon running on port " + port + "? " + tokenFile);
+    return FileUtil.loadFile(tokenFile, StandardCharsets.UTF_8).trim();
+  }
+
+  private static boolean isValidToken(String token, String line) {
+    return line != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), line.trim().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return false if shutdown was requested
+   */
+  static boolean handle(BufferedReader in, PrintStream out) throws IOException {
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (StringUtil.isEmptyOrSpaces(line)) continue;
+      if (SHUTDOWN.equals(line.trim())) return false;
+      String[] args = ArrayUtil.toStringArray(StringUtil.split(line, "\t"));
+      long start = System.currentTimeMillis();
+      boolean success;
+      try {
+        if (args.length < 2) {
+          out.println("Usage: <output-dir>\\t<grammars or patterns>");
+          success = false;
+        }
+        else {
+          checkClassPath();
+          success = Main.generate(args, out) == Main.EXIT_OK;
+        }
+      }
+      catch (Throwable e) {
+        e.printStackTrace(out);
+        success = false;
+      }
+      out.println(DONE + " " + (success ? "ok" : "failed") + " " + (System.currentTimeMillis() - start) + "ms");
+      out.flush();
+    }
+    return true;
+  }
+
+  /**
+   * Drops the cached class lookups if a class path entry changed since the previous request.
+   */
+  private static synchronized void checkClassPath() {
+    long stamp = getClassPathStamp(System.getProperty("java.class.path"));
+    if (stamp != ourClassPathStamp) {
+      JavaHelper.clearCaches();
+      ourClassPathStamp = stamp;
+    }
+  }
+
+  /**
+   * Combines the latest modification time of each entry, jar files and whole class directories,
+   * so compiled, replaced and deleted classes as well as added or removed entries change the stamp.
+   */
+  static long getClassPathStamp(String classPath) {
+    long stamp = classPath.hashCode();
+    for (String path : StringUtil.split(classPath, File.pathSeparator)) {
+      stamp = stamp * 31 + getLastModified(new File(path));
+    }
+    return stamp;
+  }
+
+  private static long getLastModified(File file) {
+    long result = file.lastModified();
+    File[] children = file.isDirectory() ? file.listFiles() : null;
+    if (children != null) {
+      for (File child : children) {
+        result = Math.max(result, getLastModified(child));
+      }
+    }
+    return result;
+  }
+
+  private static boolean runClient(int port, String[] args) throws IOException {
+    List<String> request = ContainerUtil.newArrayList();
+    for (String arg : args) {
+      request.add(new File(arg).getAbsolutePath());
+    }
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+      writer.write(readToken(port) + "\n");
+      writer.write(StringUtil.join(request, "\t") + "\n");
+      writer.flush();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      String line;
+      while ((line = in.readLine()) != null) {
+        System.out.println(line);
+        if (line.startsWith(DONE + " ")) return line.startsWith(DONE + " ok");
+      }
+    }
+    System.out.println("Connection closed before the request completed");
+    return false;
+  }
+}
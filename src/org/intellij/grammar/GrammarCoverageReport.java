@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.livePreview.GrammarCoverage;
+import org.intellij.grammar.livePreview.LivePreviewLanguage;
+import org.intellij.grammar.psi.BnfFile;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Command-line grammar coverage over a corpus of files.
+ * <p/>
+ * Parses every matching file under the corpus directory with the grammar interpreted the same way
+ * the live preview does, prints calls, success ratio and average consumed tokens per rule and per choice alternative,
+ * and optionally exports them in the {@link GrammarCoverage#write(Writer)} format.
+ *
+ * @noinspection UseOfSystemOutOrSystemErr
+ */
+public class GrammarCoverageReport {
+
+  private static final String USAGE = "Usage: GrammarCoverageReport <grammar.bnf> <corpus-dir> [file-pattern] [-o report.tsv]";
+
+  public static void main(String[] args) throws Exception {
+    List<String> positional = ContainerUtil.newArrayList();
+    File output = null;
+    for (int i = 0; i < args.length; i++) {
+      if ("-o".equals(args[i]) && i + 1 < args.length) output = new File(args[++i]);
+      else positional.add(args[i]);
+    }
+    if (positional.size() < 2) {
+      System.out.println(USAGE);
+      System.exit(Main.EXIT_INVALID_ARGS);
+    }
+    File grammarFile = new File(positional.get(0));
+    File corpusDir = new File(positional.get(1));
+    if (!corpusDir.isDirectory()) {
+      System.out.println("Corpus directory not found: " + corpusDir.getAbsolutePath());
+      System.exit(Main.EXIT_INVALID_ARGS);
+    }
+    int exitCode = Main.EXIT_FAILED;
+    try {
+      PsiFile psiFile = LightPsi.parseFile(grammarFile, new BnfParserDefinition());
+      if (!(psiFile instanceof BnfFile)) {
+        System.out.println("Not a grammar: " + grammarFile.getAbsolutePath());
+        System.exit(Main.EXIT_INVALID_ARGS);
+      }
+      Pattern pattern = Pattern.compile(Main.convertToJavaPattern(positional.size() > 2 ? positional.get(2) : "*"));
+      List<File> files = ContainerUtil.newArrayList();
+      collectFiles(corpusDir, pattern, files);
+      if (files.isEmpty()) {
+        System.out.println("No files found in " + corpusDir.getAbsolutePath());
+        System.exit(Main.EXIT_INVALID_ARGS);
+      }
+      GrammarCoverage coverage = new GrammarCoverage((BnfFile)psiFile, LivePreviewLanguage.newInstance(psiFile));
+      for (File file : files) {
+        coverage.collect(FileUtil.loadFile(file));
+      }
+      System.out.print(coverage.getReport());
+      if (output != null) {
+        try (Writer writer = new FileWriter(output)) {
+          coverage.write(writer);
+        }
+        System.out.println("Coverage saved to " + output.getAbsolutePath());
+      }
+      exitCode = Main.EXIT_OK;
+    }
+    catch (Throwable e) {
+      e.printStackTrace();
+    }
+    finally {
+      System.exit(exitCode);
+    }
+  }
+
+  private static void collectFiles(File dir, Pattern pattern, List<File> result) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    Arrays.sort(files);
+    for (File file : files) {
+      if (file.isDirectory()) collectFiles(file, pattern, result);
+      else if (pattern.matcher(file.getName()).matches()) result.add(file);
+    }
+  }
+}
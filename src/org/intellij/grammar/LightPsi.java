@@ -46,6 +46,7 @@ import com.intellij.openapi.project.DumbServiceImpl;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.startup.StartupManager;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Factory;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.encoding.EncodingManager;
@@ -64,8 +65,10 @@ import com.intellij.psi.search.PsiSearchHelper;
 import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.CachedValuesManagerImpl;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.messages.MessageBus;
 import com.intellij.util.messages.MessageBusFactory;
+import org.intellij.grammar.config.Options;
 import org.intellij.grammar.java.JavaHelper;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -74,6 +77,7 @@ import org.picocontainer.defaults.AbstractComponentAdapter;
 
 import java.io.*;
 import java.lang.reflect.Modifier;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.regex.Matcher;
@@ -179,17 +183,30 @@ public class LightPsi {
   private static class MyParsing implements Disposable {
 
     private final MockProject myProject;
+    private final Map<Language, ParserDefinition> myDefinitions = ContainerUtil.newHashMap();
+
+    private volatile boolean myFirstParseDone;
 
     MyParsing() throws Exception {
+      long start = System.nanoTime();
       myProject = Init.initPsiFileFactory(this);
+      Init.logTiming("application and PSI services", start);
+      start = System.nanoTime();
       Init.initExtensions(getProject());
+      Init.logTiming("extensions", start);
     }
 
     @Nullable
     protected PsiFile createFile(@NotNull String name, @NotNull String text, @NotNull ParserDefinition definition) {
+      long start = System.nanoTime();
       Language language = definition.getFileNodeType().getLanguage();
-      Init.addExplicitExtension(getProject(), LanguageParserDefinitions.INSTANCE, language, definition);
-      return ((PsiFileFactoryImpl)PsiFileFactory.getInstance(myProject)).trySetupPsiForFile(new LightVirtualFile(name, language, text), language, true, false);
+      registerParserDefinition(language, definition);
+      PsiFile file = ((PsiFileFactoryImpl)PsiFileFactory.getInstance(myProject)).trySetupPsiForFile(new LightVirtualFile(name, language, text), language, true, false);
+      if (!myFirstParseDone) {
+        myFirstParseDone = true;
+        Init.logTiming("first file " + name, start);
+      }
+      return file;
     }
 
     @NotNull
@@ -213,13 +230,81 @@ public class LightPsi {
       return myProject;
     }
 
+    /**
+     * Registers the definition once per language, so that long-lived processes
+     * do not accumulate explicit extensions with every parsed file.
+     * Synchronized as files are parsed concurrently by the command-line generator.
+     */
+    private synchronized void registerParserDefinition(Language language, ParserDefinition definition) {
+      ParserDefinition prev = myDefinitions.get(language);
+      if (prev != null && prev.getClass() == definition.getClass()) return;
+      myDefinitions.put(language, definition);
+      if (prev != null) LanguageParserDefinitions.INSTANCE.removeExplicitExtension(language, prev);
+      Init.addExplicitExtension(getProject(), LanguageParserDefinitions.INSTANCE, language, definition);
+    }
+
     @Override
     public void dispose() {
     }
   }
 
+  /**
+   * Services and components that are not needed by every run are registered lazily
+   * and only instantiated on first lookup. Set <code>grammar.kit.lightpsi.verbose</code>
+   * to print the startup timing breakdown.
+   * <p/>
+   * Bootstrap uses only plain class path classes, so the class list collected for
+   * <code>light-psi-all.jar</code> (<code>-verbose:class</code> log) can also be used to dump a
+   * class-data sharing archive (<code>-Xshare:dump -XX:SharedClassListFile=...</code>).
+   */
   public static class Init {
 
+    static void logTiming(String phase, long startNanos) {
+      if (!Options.LIGHT_PSI_VERBOSE.get()) return;
+      System.out.println("LightPsi " + phase + ": " + (System.nanoTime() - startNanos) / 1000000 + " ms");
+    }
+
+    /**
+     * Registers a component that is created on first lookup.
+     */
+    public static <T> void registerLazyComponent(MutablePicoContainer container, Class<T> key, Factory<T> factory) {
+      registerLazy(container, key, key, factory);
+    }
+
+    /**
+     * Registers a service that is created on first lookup, services are looked up by class name.
+     */
+    public static <T> void registerLazyService(MockProject project, Class<T> key, Factory<T> factory) {
+      registerLazy((MutablePicoContainer)project.getPicoContainer(), key.getName(), key, factory);
+    }
+
+    private static <T> void registerLazy(MutablePicoContainer container, Object componentKey, Class<T> key, Factory<T> factory) {
+      container.unregisterComponent(componentKey);
+      container.registerComponent(new AbstractComponentAdapter(componentKey, Object.class) {
+        private volatile T myInstance;
+
+        @Override
+        public Object getComponentInstance(PicoContainer container) throws PicoInitializationException, PicoIntrospectionException {
+          T instance = myInstance;
+          if (instance == null) {
+            synchronized (this) {
+              instance = myInstance;
+              if (instance == null) {
+                long start = System.nanoTime();
+                myInstance = instance = factory.create();
+                logTiming("lazy " + key.getSimpleName(), start);
+              }
+            }
+          }
+          return instance;
+        }
+
+        @Override
+        public void verify(PicoContainer container) throws PicoIntrospectionException {
+        }
+      });
+    }
+
     public static void initExtensions(@NotNull MockProject project) {
       Extensions.getRootArea().registerExtensionPoint("com.intellij.referencesSearch", "com.intellij.util.QueryExecutor");
       Extensions.getRootArea().registerExtensionPoint("com.intellij.useScopeEnlarger", "com.intellij.psi.search.UseScopeEnlarger");
@@ -236,16 +321,20 @@ public class LightPsi {
       project.registerService(DumbService.class, DumbServiceImpl.class);
       project.registerService(ResolveCache.class, ResolveCache.class);
       project.registerService(PsiFileFactory.class, PsiFileFactoryImpl.class);
+      registerLazyService(project, JavaHelper.class, Init::createJavaHelper);
+
+      project.registerService(InjectedLanguageManager.class, InjectedLanguageManagerImpl.class);
+      ProgressManager.getInstance();
+    }
+
+    private static JavaHelper createJavaHelper() {
       try {
-        project.registerService(JavaHelper.class, new JavaHelper.AsmHelper());
+        return new JavaHelper.AsmHelper();
       }
       catch (LinkageError e) {
         System.out.println("ASM not available, using reflection helper: " + e);
-        project.registerService(JavaHelper.class, new JavaHelper.ReflectionHelper());
+        return new JavaHelper.ReflectionHelper();
       }
-
-      project.registerService(InjectedLanguageManager.class, InjectedLanguageManagerImpl.class);
-      ProgressManager.getInstance();
     }
 
     private static <T, S extends T> void registerApplicationService(Project project, Class<T> intfClass, Class<S> implClass) {
@@ -272,15 +361,16 @@ public class LightPsi {
       Extensions.registerAreaClass("IDEA_PROJECT", null);
       MockProjectEx project = new MockProjectEx(rootDisposable);
       MutablePicoContainer appContainer = application.getPicoContainer();
-      registerComponentInstance(appContainer, MessageBus.class, MessageBusFactory.newMessageBus(application));
-      final MockEditorFactory editorFactory = new MockEditorFactory();
-      registerComponentInstance(appContainer, EditorFactory.class, editorFactory);
-      registerComponentInstance(
+      registerLazyComponent(appContainer, MessageBus.class, () -> MessageBusFactory.newMessageBus(application));
+      registerLazyComponent(appContainer, EditorFactory.class, MockEditorFactory::new);
+      registerLazyComponent(
         appContainer, FileDocumentManager.class,
-        new MockFileDocumentManagerImpl(editorFactory::createDocument, FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY)
+        () -> new MockFileDocumentManagerImpl(text -> EditorFactory.getInstance().createDocument(text),
+                                              FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY)
       );
-      registerComponentInstance(appContainer, PsiDocumentManager.class, new MockPsiDocumentManager());
-      registerComponentInstance(appContainer, FileTypeManager.class, new MockFileTypeManager(new MockLanguageFileType(PlainTextLanguage.INSTANCE, "txt")));
+      registerLazyComponent(appContainer, PsiDocumentManager.class, MockPsiDocumentManager::new);
+      registerLazyComponent(appContainer, FileTypeManager.class,
+                            () -> new MockFileTypeManager(new MockLanguageFileType(PlainTextLanguage.INSTANCE, "txt")));
       registerApplicationService(project, PsiBuilderFactory.class, PsiBuilderFactoryImpl.class);
       registerApplicationService(project, DefaultASTFactory.class, DefaultASTFactoryImpl.class);
       registerApplicationService(project, ReferenceProvidersRegistry.class, ReferenceProvidersRegistryImpl.class);
@@ -293,6 +383,16 @@ public class LightPsi {
     }
 
     public static MockApplicationEx initApplication(Disposable rootDisposable) {
+      long start = System.nanoTime();
+      try {
+        return initApplicationInner(rootDisposable);
+      }
+      finally {
+        logTiming("application", start);
+      }
+    }
+
+    private static MockApplicationEx initApplicationInner(Disposable rootDisposable) {
       MockApplicationEx instance = new MockApplicationEx(rootDisposable);
       ApplicationManager.setApplication(instance, FileTypeManager::getInstance, rootDisposable);
       instance.registerService(EncodingManager.class, EncodingManagerImpl.class);
@@ -16,82 +16,222 @@
 
 package org.intellij.grammar;
 
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.config.Options;
 import org.intellij.grammar.generator.ParserGenerator;
+import org.intellij.grammar.java.ClassSignatureIndex;
+import org.intellij.grammar.java.JavaHelper;
 import org.intellij.grammar.psi.BnfFile;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
  * Command-line interface to parser generator.
  * Required community jars on classpath:
  * jdom.jar, trove4j.jar, extensions.jar, picocontainer.jar, junit.jar, idea.jar, openapi.jar, util.jar.
+ * Set <code>-Dgrammar.kit.gen.signature.index=&lt;file&gt;</code> to keep signatures of the classes grammars refer to
+ * in a persistent index instead of reading class files on every run.
  * @author gregsh
  */
 public class Main {
+  public static final int EXIT_OK = 0;
+  public static final int EXIT_FAILED = 1;
+  public static final int EXIT_INVALID_ARGS = 2;
+
   public static void main(String[] args) throws Exception {
     if (args.length < 2) {
       System.out.println("Usage: Main <output-dir> <grammars or patterns>");
-      return;
+      System.exit(EXIT_INVALID_ARGS);
+    }
+    int exitCode = EXIT_FAILED;
+    try {
+      initSignatureIndex(System.out);
+      JavaHelper.clearCaches();
+      exitCode = generate(args, System.out);
+    }
+    catch (Throwable throwable) {
+      throwable.printStackTrace();
     }
+    finally {
+      System.exit(exitCode);
+    }
+  }
+
+  static void initSignatureIndex(PrintStream out) throws IOException {
+    String indexPath = Options.GEN_SIGNATURE_INDEX.get();
+    if (StringUtil.isEmpty(indexPath)) return;
+    ClassSignatureIndex index = ClassSignatureIndex.load(new File(indexPath));
+    JavaHelper.AsmHelper.setSignatureIndex(index);
+    out.println(index.getClassCount() + " classes in signature index " + indexPath);
+  }
+
+  /**
+   * Generates parsers for <code>&lt;output-dir&gt; &lt;grammars or patterns&gt;</code> arguments.
+   * Matched grammars are processed on <code>grammar.kit.gen.threads</code> worker threads (all processors by default),
+   * their output is printed in the order of arguments and files followed by a summary.
+   * @return one of the <code>EXIT_*</code> codes, <code>EXIT_INVALID_ARGS</code> if no grammar matched
+   */
+  static int generate(String[] args, PrintStream out) throws Exception {
     File output = new File(args[0]);
     if (!output.exists() && !output.mkdirs() || output.isFile()) {
-      System.out.println("Output directory not found: " + output.getAbsolutePath());
-      return;
+      out.println("Output directory not found: " + output.getAbsolutePath());
+      return EXIT_INVALID_ARGS;
     }
 
-    try {
-      BnfParserDefinition parserDefinition = new BnfParserDefinition();
+    List<Pair<File, File>> grammars = ContainerUtil.newArrayList();
+    for (int i = 1; i < args.length; i++) {
+      String grammar = args[i];
+      int idx = grammar.lastIndexOf(File.separator);
+      File grammarDir = new File(idx >= 0 ? grammar.substring(0, idx) : ".");
+      String wildCard = idx >= 0 ? grammar.substring(idx + 1) : grammar;
+      Pattern grammarPattern = Pattern.compile(convertToJavaPattern(wildCard));
+      if (!grammarDir.exists() || !grammarDir.isDirectory()) {
+        out.println("Grammar directory not found: " + grammarDir.getAbsolutePath());
+        return EXIT_INVALID_ARGS;
+      }
 
-      for (int i = 1; i < args.length; i++) {
-        String grammar = args[i];
-        int idx = grammar.lastIndexOf(File.separator);
-        File grammarDir = new File(idx >= 0 ? grammar.substring(0, idx) : ".");
-        String wildCard = idx >= 0 ? grammar.substring(idx + 1) : grammar;
-        Pattern grammarPattern = Pattern.compile(convertToJavaPattern(wildCard));
-        if (!grammarDir.exists() || !grammarDir.isDirectory()) {
-          System.out.println("Grammar directory not found: " + grammarDir.getAbsolutePath());
-          return;
+      File[] files = grammarDir.listFiles();
+      int count = 0;
+      if (files != null) {
+        Arrays.sort(files);
+        for (File file : files) {
+          if (file.isDirectory() || !grammarPattern.matcher(file.getName()).matches()) continue;
+          grammars.add(Pair.create(grammarDir, file));
+          count ++;
         }
+      }
+      if (count == 0) {
+        out.println("No grammars matching '"+wildCard+"' found in: "+ grammarDir);
+      }
+    }
+    if (grammars.isEmpty()) return EXIT_INVALID_ARGS;
 
-        File[] files = grammarDir.listFiles();
-        int count = 0;
-        if (files != null) {
-          for (File file : files) {
-            if (file.isDirectory() || !grammarPattern.matcher(file.getName()).matches()) continue;
-            PsiFile bnfFile = LightPsi.parseFile(file, parserDefinition);
-            if (!(bnfFile instanceof BnfFile)) continue;
-
-            // for light-psi-all building:
-            if (args[0].contains("lightpsi")) {
-              Class.forName("org.jetbrains.annotations.NotNull");
-              Class.forName("org.jetbrains.annotations.Nullable");
-              Class.forName("org.intellij.lang.annotations.Pattern");
-              Class.forName("org.intellij.lang.annotations.RegExp");
-              com.intellij.psi.impl.DebugUtil.psiToString(bnfFile, false);
-            }
-
-            count ++;
-            new ParserGenerator((BnfFile) bnfFile, grammarDir.getAbsolutePath(), output.getAbsolutePath()).generate();
-            System.out.println(file.getName() + " parser generated to " + output.getCanonicalPath());
-          }
+    int threads = Math.min(grammars.size(), Options.GEN_THREADS.get() > 0 ? Options.GEN_THREADS.get() : Runtime.getRuntime().availableProcessors());
+    long start = System.currentTimeMillis();
+    List<Future<GrammarResult>> futures = ContainerUtil.newArrayList();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      BnfParserDefinition parserDefinition = new BnfParserDefinition();
+      for (Pair<File, File> grammar : grammars) {
+        futures.add(executor.submit(() -> generateGrammar(grammar.first, grammar.second, output, parserDefinition, args[0].contains("lightpsi"))));
+      }
+      int generated = 0;
+      List<String> failed = ContainerUtil.newArrayList();
+      StringBuilder timings = new StringBuilder();
+      String cacheStatistics = null;
+      for (Future<GrammarResult> future : futures) {
+        GrammarResult result = future.get();
+        out.print(result.output);
+        if (result.skipped) continue;
+        if (result.cacheStatistics != null) cacheStatistics = result.cacheStatistics;
+        timings.append("  ").append(result.name).append(": ").append(result.millis).append(" ms");
+        if (result.error != null) {
+          failed.add(result.name);
+          timings.append(" FAILED: ").append(result.error);
         }
-        if (count == 0) {
-          System.out.println("No grammars matching '"+wildCard+"' found in: "+ grammarDir);
+        else {
+          generated++;
         }
+        timings.append("\n");
+      }
+      if (generated + failed.size() > 1) {
+        out.println(generated + " parsers generated" + (failed.isEmpty() ? "" : ", " + failed.size() + " failed") +
+                    " in " + (System.currentTimeMillis() - start) + " ms on " + threads + " threads:");
+        out.print(timings);
       }
+      else if (!failed.isEmpty()) {
+        out.print(timings);
+      }
+      if (StringUtil.isNotEmpty(cacheStatistics)) {
+        out.println("Java lookup caches: " + cacheStatistics);
+      }
+      if (generated + failed.size() == 0) {
+        out.println("No grammars found among " + grammars.size() + " matched files");
+        return EXIT_INVALID_ARGS;
+      }
+      return failed.isEmpty() ? EXIT_OK : EXIT_FAILED;
     }
-    catch (Throwable throwable) {
-      throwable.printStackTrace();
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class GrammarResult {
+    final String name;
+    String output;
+    long millis;
+    boolean skipped;
+    String error;
+    String cacheStatistics;
+
+    GrammarResult(String name) {
+      this.name = name;
+    }
+  }
+
+  private static GrammarResult generateGrammar(File grammarDir,
+                                               File file,
+                                               File output,
+                                               BnfParserDefinition parserDefinition,
+                                               boolean lightPsiBuild) {
+    GrammarResult result = new GrammarResult(file.getName());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true);
+    long start = System.currentTimeMillis();
+    try {
+      PsiFile bnfFile = LightPsi.parseFile(file, parserDefinition);
+      if (!(bnfFile instanceof BnfFile)) {
+        result.skipped = true;
+        return result;
+      }
+
+      // for light-psi-all building:
+      if (lightPsiBuild) {
+        Class.forName("org.jetbrains.annotations.NotNull");
+        Class.forName("org.jetbrains.annotations.Nullable");
+        Class.forName("org.intellij.lang.annotations.Pattern");
+        Class.forName("org.intellij.lang.annotations.RegExp");
+        com.intellij.psi.impl.DebugUtil.psiToString(bnfFile, false);
+      }
+
+      ParserGenerator generator = new ParserGenerator((BnfFile)bnfFile, grammarDir.getAbsolutePath(), output.getAbsolutePath());
+      try {
+        generator.generate();
+      }
+      finally {
+        result.cacheStatistics = JavaHelper.getJavaHelper(bnfFile).getCacheStatistics();
+      }
+      out.println(file.getName() + " parser generated to " + output.getCanonicalPath());
+      for (String s : generator.getOptimizationReport()) {
+        out.println("  " + s);
+      }
+    }
+    catch (Throwable e) {
+      out.println(file.getName() + " parser generation failed:");
+      e.printStackTrace(out);
+      result.error = e.getClass().getSimpleName() + (e.getMessage() == null ? "" : ": " + e.getMessage());
     }
     finally {
-      System.exit(0);
+      result.millis = System.currentTimeMillis() - start;
+      out.close();
+      result.output = bytes.toString();
     }
+    return result;
   }
 
-  private static String convertToJavaPattern(String wildcardPattern) {
+  static String convertToJavaPattern(String wildcardPattern) {
     wildcardPattern = StringUtil.replace(wildcardPattern, ".", "\\.");
     wildcardPattern = StringUtil.replace(wildcardPattern, "*?", ".+");
     wildcardPattern = StringUtil.replace(wildcardPattern, "?*", ".+");
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.LighterASTNode;
+import com.intellij.lang.ParserDefinition;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.SyntaxTraverser;
+import com.intellij.util.containers.ContainerUtil;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Command-line parser throughput benchmark over a corpus of files.
+ * <p/>
+ * Parses every matching file under the corpus directory with a compiled {@link ParserDefinition}
+ * through {@link LightPsi} on several threads and reports tokens/sec, bytes/sec, per-file latency
+ * percentiles, allocation per token and error counts. Results can be saved as a baseline
+ * and compared against one, the exit code is 1 if a regression is detected.
+ *
+ * @noinspection UseOfSystemOutOrSystemErr
+ */
+public class ParserBenchmark {
+
+  private static final String USAGE =
+    "Usage: ParserBenchmark <parser-definition-class> <corpus-dir> [file-pattern]\n" +
+    "         [-threads N] [-warmup N] [-light] [-baseline file] [-save-baseline file] [-tolerance percent]";
+
+  private static class FileResult {
+    final long bytes;
+    final int tokens;
+    final long nanos;
+    final long allocated;
+    final int errors;
+
+    FileResult(long bytes, int tokens, long nanos, long allocated, int errors) {
+      this.bytes = bytes;
+      this.tokens = tokens;
+      this.nanos = nanos;
+      this.allocated = allocated;
+      this.errors = errors;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<String> positional = ContainerUtil.newArrayList();
+    int threads = Runtime.getRuntime().availableProcessors();
+    int warmup = 1;
+    boolean light = false;
+    File baseline = null;
+    File saveBaseline = null;
+    double tolerance = 10;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      boolean hasValue = i + 1 < args.length;
+      if ("-threads".equals(arg) && hasValue) threads = Integer.parseInt(args[++i]);
+      else if ("-warmup".equals(arg) && hasValue) warmup = Integer.parseInt(args[++i]);
+      else if ("-light".equals(arg)) light = true;
+      else if ("-baseline".equals(arg) && hasValue) baseline = new File(args[++i]);
+      else if ("-save-baseline".equals(arg) && hasValue) saveBaseline = new File(args[++i]);
+      else if ("-tolerance".equals(arg) && hasValue) tolerance = Double.parseDouble(args[++i]);
+      else positional.add(arg);
+    }
+    if (positional.size() < 2) {
+      System.out.println(USAGE);
+      System.exit(Main.EXIT_INVALID_ARGS);
+    }
+    File corpusDir = new File(positional.get(1));
+    if (!corpusDir.isDirectory()) {
+      System.out.println("Corpus directory not found: " + corpusDir.getAbsolutePath());
+      System.exit(Main.EXIT_INVALID_ARGS);
+    }
+    int exitCode = Main.EXIT_FAILED;
+    try {
+      ParserDefinition definition = (ParserDefinition)Class.forName(positional.get(0)).newInstance();
+      Pattern pattern = Pattern.compile(Main.convertToJavaPattern(positional.size() > 2 ? positional.get(2) : "*"));
+      List<File> files = ContainerUtil.newArrayList();
+      collectFiles(corpusDir, pattern, files);
+      if (files.isEmpty()) {
+        System.out.println("No files found in " + corpusDir.getAbsolutePath());
+        System.exit(Main.EXIT_INVALID_ARGS);
+      }
+      List<String> texts = ContainerUtil.newArrayList();
+      for (File file : files) {
+        texts.add(FileUtil.loadFile(file));
+      }
+
+      for (int i = 0; i < warmup; i++) {
+        run(definition, texts, threads, light);
+      }
+      long start = System.nanoTime();
+      List<FileResult> results = run(definition, texts, threads, light);
+      long wallNanos = System.nanoTime() - start;
+
+      Properties stats = computeStats(results, wallNanos);
+      System.out.println(files.size() + " files parsed " + (light ? "(light tree)" : "(AST)") + " on " + threads + " threads:");
+      for (String key : new TreeSet<>(stats.stringPropertyNames())) {
+        System.out.println("  " + key + ": " + stats.getProperty(key));
+      }
+      exitCode = Main.EXIT_OK;
+      if (baseline != null) {
+        Properties base = new Properties();
+        try (InputStream is = new FileInputStream(baseline)) {
+          base.load(is);
+        }
+        List<String> regressions = findRegressions(base, stats, tolerance);
+        for (String s : regressions) {
+          System.out.println("REGRESSION " + s);
+        }
+        if (!regressions.isEmpty()) exitCode = Main.EXIT_FAILED;
+      }
+      if (saveBaseline != null) {
+        try (OutputStream os = new FileOutputStream(saveBaseline)) {
+          stats.store(os, "ParserBenchmark " + definition.getClass().getName() + " " + corpusDir.getName());
+        }
+        System.out.println("Baseline saved to " + saveBaseline.getAbsolutePath());
+      }
+    }
+    catch (Throwable e) {
+      e.printStackTrace();
+    }
+    finally {
+      System.exit(exitCode);
+    }
+  }
+
+  private static void collectFiles(File dir, Pattern pattern, List<File> result) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    Arrays.sort(files);
+    for (File file : files) {
+      if (file.isDirectory()) collectFiles(file, pattern, result);
+      else if (pattern.matcher(file.getName()).matches()) result.add(file);
+    }
+  }
+
+  private static List<FileResult> run(ParserDefinition definition, List<String> texts, int threads, boolean light) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      List<Future<FileResult>> futures = ContainerUtil.newArrayList();
+      for (String text : texts) {
+        futures.add(executor.submit(() -> parse(definition, text, light)));
+      }
+      List<FileResult> results = ContainerUtil.newArrayList();
+      for (Future<FileResult> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static FileResult parse(ParserDefinition definition, String text, boolean light) {
+    int tokens = countTokens(definition, text);
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long allocatedBefore = getAllocatedBytes(bean, threadId);
+    long start = System.nanoTime();
+    int errors;
+    if (light) {
+      SyntaxTraverser<LighterASTNode> traverser = LightPsi.parseLight(text, definition);
+      long nanos = System.nanoTime() - start;
+      long allocated = getAllocatedBytes(bean, threadId) - allocatedBefore;
+      errors = traverser.traverse().filter(o -> o.getTokenType() == TokenType.ERROR_ELEMENT).size();
+      return new FileResult(text.length(), tokens, nanos, allocated, errors);
+    }
+    else {
+      ASTNode root = LightPsi.parseText(text, definition);
+      long nanos = System.nanoTime() - start;
+      long allocated = getAllocatedBytes(bean, threadId) - allocatedBefore;
+      errors = SyntaxTraverser.astTraverser(root).traverse().filter(o -> o.getElementType() == TokenType.ERROR_ELEMENT).size();
+      return new FileResult(text.length(), tokens, nanos, allocated, errors);
+    }
+  }
+
+  private static int countTokens(ParserDefinition definition, String text) {
+    Lexer lexer = definition.createLexer(null);
+    lexer.start(text);
+    int count = 0;
+    while (lexer.getTokenType() != null) {
+      count++;
+      lexer.advance();
+    }
+    return count;
+  }
+
+  private static long getAllocatedBytes(ThreadMXBean bean, long threadId) {
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(threadId);
+    }
+    return 0;
+  }
+
+  private static Properties computeStats(List<FileResult> results, long wallNanos) {
+    long bytes = 0, tokens = 0, allocated = 0, errors = 0, filesWithErrors = 0;
+    long[] latencies = new long[results.size()];
+    for (int i = 0; i < results.size(); i++) {
+      FileResult r = results.get(i);
+      bytes += r.bytes;
+      tokens += r.tokens;
+      allocated += r.allocated;
+      errors += r.errors;
+      if (r.errors > 0) filesWithErrors++;
+      latencies[i] = r.nanos;
+    }
+    Arrays.sort(latencies);
+    double seconds = wallNanos / 1e9;
+    Properties stats = new Properties();
+    stats.setProperty("files", String.valueOf(results.size()));
+    stats.setProperty("tokens", String.valueOf(tokens));
+    stats.setProperty("tokens.per.sec", String.format(Locale.US, "%.0f", tokens / seconds));
+    stats.setProperty("bytes.per.sec", String.format(Locale.US, "%.0f", bytes / seconds));
+    stats.setProperty("latency.p50.ms", String.format(Locale.US, "%.3f", percentile(latencies, 50) / 1e6));
+    stats.setProperty("latency.p99.ms", String.format(Locale.US, "%.3f", percentile(latencies, 99) / 1e6));
+    stats.setProperty("alloc.per.token", String.format(Locale.US, "%.1f", tokens == 0 ? 0 : (double)allocated / tokens));
+    stats.setProperty("errors", String.valueOf(errors));
+    stats.setProperty("files.with.errors", String.valueOf(filesWithErrors));
+    return stats;
+  }
+
+  private static long percentile(long[] sorted, int percent) {
+    if (sorted.length == 0) return 0;
+    int idx = (int)Math.ceil(percent / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+  }
+
+  private static List<String> findRegressions(Properties base, Properties stats, double tolerance) {
+    List<String> result = ContainerUtil.newArrayList();
+    // higher is better
+    for (String key : Arrays.asList("tokens.per.sec", "bytes.per.sec")) {
+      double b = parse(base, key), s = parse(stats, key);
+      if (b > 0 && s < b * (1 - tolerance / 100)) result.add(key + ": " + s + " < " + b);
+    }
+    // lower is better
+    for (String key : Arrays.asList("latency.p50.ms", "latency.p99.ms", "alloc.per.token")) {
+      double b = parse(base, key), s = parse(stats, key);
+      if (b > 0 && s > b * (1 + tolerance / 100)) result.add(key + ": " + s + " > " + b);
+    }
+    // must not change
+    for (String key : Arrays.asList("errors", "tokens")) {
+      String b = base.getProperty(key);
+      if (b != null && !b.equals(stats.getProperty(key))) result.add(key + ": " + stats.getProperty(key) + " != " + b);
+    }
+    return result;
+  }
+
+  private static double parse(Properties properties, String key) {
+    try {
+      return Double.parseDouble(properties.getProperty(key, "0"));
+    }
+    catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
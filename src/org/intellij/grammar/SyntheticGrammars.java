@@ -0,0 +1,545 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.generator.ParserGeneratorUtil;
+import org.intellij.grammar.generator.RuleGraphHelper;
+import org.intellij.grammar.psi.*;
+import org.intellij.grammar.psi.impl.GrammarUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Random but valid grammars and random sentences of any grammar for scale testing
+ * of the generator, the analysis code and the parser runtime.
+ * <p/>
+ * Generated grammars are free of left recursion and empty loops: the first item of every alternative
+ * is a token or a reference to a rule declared later, references to arbitrary rules only appear after a token.
+ * Sentences follow the grammar structure, choices fall back to the shallowest alternative when
+ * the depth or token budget is exhausted. Predicates and external methods produce nothing,
+ * so sentences of grammars that rely on them are not guaranteed to parse cleanly.
+ * Sentences of {@link GrammarSpec#unambiguous} grammars without recovery predicates parse without errors.
+ *
+ * @noinspection UseOfSystemOutOrSystemErr
+ */
+public class SyntheticGrammars {
+
+  private static final String USAGE =
+    "Usage: SyntheticGrammars grammar <output.bnf> [-rules N] [-choice N] [-depth N] [-pin rate] [-recover rate] [-expr levels] [-seed N]\n" +
+    "       SyntheticGrammars sentences <grammar.bnf> <output-dir> <count> [-rule name] [-errors rate] [-max-depth N] [-max-tokens N] [-seed N]";
+
+  private static final String[] OPERATORS = {"+", "-", "*", "/", "%", "^", "&&", "||", "==", "!=", "<", ">", "<=", ">="};
+  private static final String[] REGEXP_SAMPLES = {
+    "a", "b", "id", "name", "x1", "foo_bar", "0", "1", "42", "3.14", "'s'", "\"s\"", "#", "@", "// c", "/* c */"};
+
+  public static void main(String[] args) throws IOException {
+    List<String> positional = ContainerUtil.newArrayList();
+    Map<String, String> flags = ContainerUtil.newHashMap();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].startsWith("-") && i + 1 < args.length) flags.put(args[i], args[++i]);
+      else positional.add(args[i]);
+    }
+    Random random = new Random(Long.parseLong(StringUtil.notNullize(flags.get("-seed"), "0")));
+    if (positional.size() == 2 && "grammar".equals(positional.get(0))) {
+      GrammarSpec spec = new GrammarSpec();
+      spec.rules = intFlag(flags, "-rules", spec.rules);
+      spec.choiceWidth = intFlag(flags, "-choice", spec.choiceWidth);
+      spec.depth = intFlag(flags, "-depth", spec.depth);
+      spec.pinRate = doubleFlag(flags, "-pin", spec.pinRate);
+      spec.recoverRate = doubleFlag(flags, "-recover", spec.recoverRate);
+      spec.expressionLevels = intFlag(flags, "-expr", spec.expressionLevels);
+      File output = new File(positional.get(1));
+      FileUtil.writeToFile(output, generateGrammar(random, spec));
+      System.out.println(spec.rules + " rules written to " + output.getAbsolutePath());
+    }
+    else if (positional.size() == 4 && "sentences".equals(positional.get(0))) {
+      File grammarFile = new File(positional.get(1));
+      PsiFile psiFile = LightPsi.parseFile(grammarFile, new BnfParserDefinition());
+      if (!(psiFile instanceof BnfFile)) {
+        System.out.println("Not a grammar: " + grammarFile.getAbsolutePath());
+        System.exit(Main.EXIT_INVALID_ARGS);
+      }
+      BnfFile file = (BnfFile)psiFile;
+      String ruleName = flags.get("-rule");
+      BnfRule rule = ruleName == null ? ContainerUtil.getFirstItem(file.getRules()) : file.getRule(ruleName);
+      if (rule == null) {
+        System.out.println("Rule not found: " + StringUtil.notNullize(ruleName, "<root>"));
+        System.exit(Main.EXIT_INVALID_ARGS);
+      }
+      SentenceGenerator generator = new SentenceGenerator(file, random);
+      generator.errorRate = doubleFlag(flags, "-errors", generator.errorRate);
+      generator.maxDepth = intFlag(flags, "-max-depth", generator.maxDepth);
+      generator.maxTokens = intFlag(flags, "-max-tokens", generator.maxTokens);
+      File outputDir = new File(positional.get(2));
+      int count = Integer.parseInt(positional.get(3));
+      String baseName = FileUtil.getNameWithoutExtension(grammarFile);
+      for (int i = 0; i < count; i++) {
+        FileUtil.writeToFile(new File(outputDir, baseName + "-" + i + ".txt"), generator.generate(rule));
+      }
+      System.out.println(count + " sentences written to " + outputDir.getAbsolutePath());
+    }
+    else {
+      System.out.println(USAGE);
+      System.exit(Main.EXIT_INVALID_ARGS);
+    }
+    System.exit(Main.EXIT_OK);
+  }
+
+  private static int intFlag(Map<String, String> flags, String name, int defValue) {
+    String value = flags.get(name);
+    return value == null ? defValue : Integer.parseInt(value);
+  }
+
+  private static double doubleFlag(Map<String, String> flags, String name, double defValue) {
+    String value = flags.get(name);
+    return value == null ? defValue : Double.parseDouble(value);
+  }
+
+  /**
+   * Shape of a generated grammar.
+   */
+  public static class GrammarSpec {
+    /** number of plain rules */
+    public int rules = 100;
+    /** maximum number of alternatives in a choice */
+    public int choiceWidth = 3;
+    /** maximum nesting of groups, optional and repeated sub-expressions */
+    public int depth = 2;
+    /** probability of a rule being pinned */
+    public double pinRate = 0.3;
+    /** probability of a rule having a recoverWhile predicate */
+    public double recoverRate = 0.1;
+    /** number of binary operator priority levels in the generated expression rules, 0 for none */
+    public int expressionLevels = 0;
+    /** number of keyword tokens */
+    public int tokens = 20;
+    /**
+     * start every choice alternative with a token of its own, so that optional, repeated and
+     * alternative sub-expressions are decided by the next token and all generated sentences parse cleanly
+     * unless <code>recoverWhile</code> predicates stop short of the tokens that follow their rules
+     */
+    public boolean unambiguous;
+  }
+
+  @NotNull
+  public static String generateGrammar(@NotNull Random random, @NotNull GrammarSpec spec) {
+    return new GrammarBuilder(random, spec).build();
+  }
+
+  private static String getOperator(int level) {
+    return level < OPERATORS.length ? OPERATORS[level] : "op" + level;
+  }
+
+  private static class GrammarBuilder {
+    final Random random;
+    final GrammarSpec spec;
+    final int ruleCount;
+    final int tokenCount;
+    int uniqueCount;
+
+    GrammarBuilder(Random random, GrammarSpec spec) {
+      this.random = random;
+      this.spec = spec;
+      ruleCount = Math.max(1, spec.rules);
+      tokenCount = Math.max(1, spec.tokens);
+    }
+
+    String build() {
+      int levels = Math.max(0, spec.expressionLevels);
+      StringBuilder rules = new StringBuilder(ruleCount * 80);
+      rules.append("root ::= root_item *\n");
+      rules.append("private root_item ::= rule_0").append(levels > 0 ? " | expr SEMI" : "").append("\n");
+      for (int i = 0; i < ruleCount; i++) {
+        rules.append("rule_").append(i).append(" ::= ");
+        appendChoice(rules, i, spec.depth, true);
+        boolean pin = random.nextDouble() < spec.pinRate;
+        boolean recover = random.nextDouble() < spec.recoverRate;
+        if (pin || recover) {
+          rules.append(" {");
+          if (pin) rules.append("pin=1");
+          if (pin && recover) rules.append(" ");
+          if (recover) rules.append("recoverWhile=rule_").append(i).append("_recover");
+          rules.append("}");
+        }
+        rules.append("\n");
+        if (recover) {
+          rules.append("private rule_").append(i).append("_recover ::= !(SEMI");
+          for (int j = 0, count = 1 + random.nextInt(3); j < count; j++) {
+            rules.append(" | T").append(random.nextInt(tokenCount));
+          }
+          rules.append(")\n");
+        }
+      }
+      if (levels > 0) {
+        rules.append("expr ::= ");
+        for (int i = 0; i < levels; i++) {
+          rules.append("op").append(i).append("_expr | ");
+        }
+        rules.append("paren_expr | primary_expr\n");
+        for (int i = 0; i < levels; i++) {
+          rules.append("op").append(i).append("_expr ::= expr OP").append(i).append(" expr\n");
+        }
+        rules.append("paren_expr ::= LP expr RP {pin=1}\n");
+        // rule_0 would make the root_item alternatives start alike
+        int primary = spec.unambiguous && ruleCount > 1 ? 1 + random.nextInt(ruleCount - 1) : random.nextInt(ruleCount);
+        rules.append("primary_expr ::= number | rule_").append(primary).append("\n");
+      }
+
+      StringBuilder sb = new StringBuilder(rules.length() + (tokenCount + uniqueCount) * 16 + 200);
+      sb.append("{\n  tokens=[\n");
+      for (int i = 0; i < tokenCount; i++) {
+        sb.append("    T").append(i).append("='t").append(i).append("'\n");
+      }
+      for (int i = 0; i < uniqueCount; i++) {
+        sb.append("    U").append(i).append("='u").append(i).append("'\n");
+      }
+      sb.append("    SEMI=';'\n");
+      if (levels > 0) {
+        sb.append("    LP='('\n    RP=')'\n");
+        for (int i = 0; i < levels; i++) {
+          sb.append("    OP").append(i).append("='").append(getOperator(i)).append("'\n");
+        }
+        sb.append("    number='regexp:\\d+'\n");
+      }
+      sb.append("    space='regexp:\\s+'\n");
+      sb.append("  ]\n");
+      if (levels > 0) {
+        sb.append("  extends(\".*_expr\")=expr\n");
+      }
+      sb.append("}\n");
+      return sb.append(rules).toString();
+    }
+
+    void appendChoice(StringBuilder sb, int ruleIndex, int depth, boolean top) {
+      int alternatives = 1 + random.nextInt(Math.max(1, top ? spec.choiceWidth : Math.min(2, spec.choiceWidth)));
+      for (int i = 0; i < alternatives; i++) {
+        if (i > 0) sb.append(" | ");
+        appendSequence(sb, ruleIndex, depth);
+      }
+    }
+
+    void appendSequence(StringBuilder sb, int ruleIndex, int depth) {
+      // guard: a token or a later rule, both never match empty input and never lead back to this rule
+      boolean guarded = spec.unambiguous || ruleIndex + 1 >= ruleCount || random.nextBoolean();
+      if (spec.unambiguous) sb.append("U").append(uniqueCount++);
+      else if (guarded) appendToken(sb);
+      else sb.append("rule_").append(ruleIndex + 1 + random.nextInt(ruleCount - ruleIndex - 1));
+      for (int i = 0, count = random.nextInt(4); i < count; i++) {
+        sb.append(" ");
+        int kind = random.nextInt(depth > 0 ? 4 : 2);
+        if (kind == 0) {
+          appendToken(sb);
+        }
+        else if (kind == 1) {
+          // after the guard any rule can be referenced, recursion is always preceded by a token
+          int target = guarded || ruleIndex + 1 >= ruleCount ? random.nextInt(ruleCount) :
+                       ruleIndex + 1 + random.nextInt(ruleCount - ruleIndex - 1);
+          sb.append("rule_").append(target);
+        }
+        else if (kind == 2) {
+          sb.append("[");
+          appendChoice(sb, ruleIndex, depth - 1, false);
+          sb.append("]");
+        }
+        else {
+          sb.append("(");
+          appendChoice(sb, ruleIndex, depth - 1, false);
+          sb.append(")").append(new String[]{"", "?", "*", "+"}[random.nextInt(4)]);
+        }
+      }
+    }
+
+    void appendToken(StringBuilder sb) {
+      int token = random.nextInt(tokenCount);
+      if (random.nextBoolean()) sb.append("T").append(token);
+      else sb.append("'t").append(token).append("'");
+    }
+  }
+
+  /**
+   * Random sentences of a grammar, tokens are separated by single spaces.
+   */
+  public static class SentenceGenerator {
+    private final BnfFile myFile;
+    private final Random myRandom;
+    private final Map<String, String> myTokenNameToText;
+    private final Map<BnfRule, Integer> myHeights = ContainerUtil.newHashMap();
+    private final Map<String, Pattern> myPatterns = ContainerUtil.newHashMap();
+
+    /** probability of a token being deleted, duplicated or swapped with the next one */
+    public double errorRate = 0;
+    /** rule nesting after which only the shallowest alternatives are taken */
+    public int maxDepth = 12;
+    /** token count after which only the shallowest alternatives are taken */
+    public int maxTokens = 10000;
+
+    private List<String> myTokens;
+
+    public SentenceGenerator(@NotNull BnfFile file, @NotNull Random random) {
+      myFile = file;
+      myRandom = random;
+      myTokenNameToText = RuleGraphHelper.getTokenNameToTextMap(file);
+      computeHeights();
+    }
+
+    @NotNull
+    public String generate(@NotNull BnfRule rule) {
+      return StringUtil.join(generateTokens(rule), " ");
+    }
+
+    @NotNull
+    public List<String> generateTokens(@NotNull BnfRule rule) {
+      myTokens = ContainerUtil.newArrayList();
+      generateRule(rule, Collections.emptyMap(), 0);
+      List<String> result = myTokens;
+      myTokens = null;
+      return errorRate > 0 ? injectErrors(result) : result;
+    }
+
+    private boolean isExhausted(int depth) {
+      return depth > maxDepth || myTokens.size() > maxTokens;
+    }
+
+    private void generateRule(BnfRule rule, Map<String, Binding> bindings, int depth) {
+      BnfExpression expression = rule.getExpression();
+      if (ParserGeneratorUtil.Rule.isExternal(rule)) {
+        // external rules are approximated by repeating their rule arguments
+        List<BnfExpression> list = GrammarUtil.getExternalRuleExpressions(rule);
+        for (int i = 0, count = quantity("*", depth); i < count; i++) {
+          for (BnfExpression arg : list.subList(1, list.size())) {
+            generate(arg, bindings, depth + 1);
+          }
+        }
+        return;
+      }
+      generate(expression, bindings, depth + 1);
+    }
+
+    private void generate(BnfExpression expression, Map<String, Binding> bindings, int depth) {
+      if (expression instanceof BnfChoice) {
+        List<BnfExpression> list = ((BnfChoice)expression).getExpressionList();
+        generate(isExhausted(depth) ? shallowest(list) : list.get(myRandom.nextInt(list.size())), bindings, depth);
+      }
+      else if (expression instanceof BnfSequence) {
+        for (BnfExpression child : ((BnfSequence)expression).getExpressionList()) {
+          generate(child, bindings, depth);
+        }
+      }
+      else if (expression instanceof BnfParenOptExpression) {
+        if (quantity("?", depth) > 0) generate(((BnfParenOptExpression)expression).getExpression(), bindings, depth);
+      }
+      else if (expression instanceof BnfParenthesized) {
+        generate(((BnfParenthesized)expression).getExpression(), bindings, depth);
+      }
+      else if (expression instanceof BnfQuantified) {
+        BnfQuantified quantified = (BnfQuantified)expression;
+        for (int i = 0, count = quantity(quantified.getQuantifier().getText(), depth); i < count; i++) {
+          generate(quantified.getExpression(), bindings, depth);
+        }
+      }
+      else if (expression instanceof BnfStringLiteralExpression) {
+        String text = GrammarUtil.unquote(expression.getText());
+        myTokens.add(ParserGeneratorUtil.isRegexpToken(text) ? sampleRegexp(text) : text);
+      }
+      else if (expression instanceof BnfReferenceOrToken) {
+        BnfRule rule = ((BnfReferenceOrToken)expression).resolveRule();
+        if (rule != null) generateRule(rule, bindings, depth);
+        else generateToken(expression.getText());
+      }
+      else if (expression instanceof BnfExternalExpression) {
+        generateExternal((BnfExternalExpression)expression, bindings, depth);
+      }
+      // predicates and literals consume nothing
+    }
+
+    private void generateExternal(BnfExternalExpression expression, Map<String, Binding> bindings, int depth) {
+      List<BnfExpression> list = expression.getExpressionList();
+      if (list.size() == 1) {
+        Binding binding = bindings.get("<<" + list.get(0).getText() + ">>");
+        if (binding != null) {
+          generate(binding.expression, binding.bindings, depth);
+          return;
+        }
+      }
+      BnfRule rule = list.get(0) instanceof BnfReferenceOrToken ? ((BnfReferenceOrToken)list.get(0)).resolveRule() : null;
+      if (rule == null) return;
+      if (!ParserGeneratorUtil.Rule.isMeta(rule)) {
+        generateRule(rule, bindings, depth);
+        return;
+      }
+      List<String> params = GrammarUtil.collectExtraArguments(rule, rule.getExpression());
+      Map<String, Binding> metaBindings = ContainerUtil.newHashMap();
+      for (int i = 0; i < params.size() && i + 1 < list.size(); i++) {
+        metaBindings.put(params.get(i), new Binding(list.get(i + 1), bindings));
+      }
+      generateRule(rule, metaBindings, depth);
+    }
+
+    private void generateToken(String name) {
+      String text = myTokenNameToText.get(name);
+      if (text == null) myTokens.add(name);
+      else if (ParserGeneratorUtil.isRegexpToken(text)) myTokens.add(sampleRegexp(text));
+      else myTokens.add(text);
+    }
+
+    private String sampleRegexp(String tokenText) {
+      String regexp = ParserGeneratorUtil.getRegexpTokenRegexp(tokenText);
+      Pattern pattern = myPatterns.computeIfAbsent(regexp, o -> {
+        try {
+          return Pattern.compile(o);
+        }
+        catch (PatternSyntaxException e) {
+          return null;
+        }
+      });
+      if (pattern != null) {
+        int offset = myRandom.nextInt(REGEXP_SAMPLES.length);
+        for (int i = 0; i < REGEXP_SAMPLES.length; i++) {
+          String sample = REGEXP_SAMPLES[(offset + i) % REGEXP_SAMPLES.length];
+          if (pattern.matcher(sample).matches()) return sample;
+        }
+      }
+      return regexp;
+    }
+
+    private int quantity(String quantifier, int depth) {
+      boolean exhausted = isExhausted(depth);
+      if ("?".equals(quantifier)) return exhausted ? 0 : myRandom.nextInt(2);
+      if ("+".equals(quantifier)) return exhausted ? 1 : 1 + myRandom.nextInt(3);
+      return exhausted ? 0 : myRandom.nextInt(3);
+    }
+
+    private BnfExpression shallowest(List<BnfExpression> list) {
+      BnfExpression result = list.get(0);
+      int min = Integer.MAX_VALUE;
+      for (BnfExpression expression : list) {
+        int height = height(expression);
+        if (height < min) {
+          min = height;
+          result = expression;
+        }
+      }
+      return result;
+    }
+
+    private void computeHeights() {
+      List<BnfRule> rules = myFile.getRules();
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (BnfRule rule : rules) {
+          int height = ParserGeneratorUtil.Rule.isExternal(rule) ? 1 : saturatedIncrement(height(rule.getExpression()));
+          Integer prev = myHeights.get(rule);
+          if (prev == null || height < prev) {
+            myHeights.put(rule, height);
+            changed = true;
+          }
+        }
+      }
+    }
+
+    /**
+     * Minimal rule nesting required to produce a sentence, {@link Integer#MAX_VALUE} if not known yet.
+     */
+    private int height(@Nullable BnfExpression expression) {
+      if (expression instanceof BnfChoice) {
+        int min = Integer.MAX_VALUE;
+        for (BnfExpression child : ((BnfChoice)expression).getExpressionList()) {
+          min = Math.min(min, height(child));
+        }
+        return min;
+      }
+      else if (expression instanceof BnfSequence) {
+        int max = 0;
+        for (BnfExpression child : ((BnfSequence)expression).getExpressionList()) {
+          max = Math.max(max, height(child));
+        }
+        return max;
+      }
+      else if (expression instanceof BnfParenOptExpression) {
+        return 0;
+      }
+      else if (expression instanceof BnfQuantified) {
+        return "+".equals(((BnfQuantified)expression).getQuantifier().getText()) ? height(((BnfQuantified)expression).getExpression()) : 0;
+      }
+      else if (expression instanceof BnfParenthesized) {
+        return height(((BnfParenthesized)expression).getExpression());
+      }
+      else if (expression instanceof BnfReferenceOrToken) {
+        BnfRule rule = ((BnfReferenceOrToken)expression).resolveRule();
+        Integer height = rule == null ? Integer.valueOf(0) : myHeights.get(rule);
+        return height == null ? Integer.MAX_VALUE : height;
+      }
+      else if (expression instanceof BnfExternalExpression) {
+        List<BnfExpression> list = ((BnfExternalExpression)expression).getExpressionList();
+        // meta rule call or a bound parameter
+        int max = list.size() > 1 ? height(list.get(0)) : 0;
+        for (BnfExpression child : list.subList(1, list.size())) {
+          max = Math.max(max, height(child));
+        }
+        return max;
+      }
+      return 0;
+    }
+
+    private static int saturatedIncrement(int value) {
+      return value == Integer.MAX_VALUE ? value : value + 1;
+    }
+
+    private List<String> injectErrors(List<String> tokens) {
+      List<String> result = ContainerUtil.newArrayListWithCapacity(tokens.size());
+      for (int i = 0; i < tokens.size(); i++) {
+        String token = tokens.get(i);
+        if (myRandom.nextDouble() >= errorRate) {
+          result.add(token);
+          continue;
+        }
+        int kind = myRandom.nextInt(3);
+        if (kind == 1) {
+          result.add(token);
+          result.add(tokens.get(myRandom.nextInt(tokens.size())));
+        }
+        else if (kind == 2 && i + 1 < tokens.size()) {
+          result.add(tokens.get(++i));
+          result.add(token);
+        }
+        // kind == 0: token is deleted
+      }
+      return result;
+    }
+  }
+
+  private static class Binding {
+    final BnfExpression expression;
+    final Map<String, Binding> bindings;
+
+    Binding(BnfExpression expression, Map<String, Binding> bindings) {
+      this.expression = expression;
+      this.bindings = bindings;
+    }
+  }
+}
@@ -46,6 +46,7 @@ import com.intellij.util.containers.ContainerUtil;
 import org.intellij.grammar.KnownAttribute;
 import org.intellij.grammar.generator.BnfConstants;
 import org.intellij.grammar.generator.ParserGenerator;
+import org.intellij.grammar.java.JavaHelper;
 import org.intellij.grammar.psi.BnfFile;
 import org.jetbrains.annotations.NotNull;
 
@@ -122,6 +123,8 @@ public class GenerateAction extends AnAction {
       public void run(@NotNull ProgressIndicator indicator) {
         long startTime = System.currentTimeMillis();
         indicator.setIndeterminate(true);
+        // classes compiled since the previous generation must be seen
+        JavaHelper.clearCaches();
         try {
           runInner();
         }
@@ -151,17 +154,19 @@ public class GenerateAction extends AnAction {
           try {
             long time = System.currentTimeMillis();
             int filesCount = files.size();
-            ApplicationManager.getApplication().runReadAction(new ThrowableComputable<Boolean, Exception>() {
+            List<String> optimizations = ApplicationManager.getApplication().runReadAction(new ThrowableComputable<List<String>, Exception>() {
               @Override
-              public Boolean compute() throws Exception {
-                new ParserGenerator(file, sourcePath, genDir.getPath()) {
+              public List<String> compute() throws Exception {
+                ParserGenerator generator = new ParserGenerator(file, sourcePath, genDir.getPath()) {
                   @Override
                   protected PrintWriter openOutputInner(File file) throws IOException {
+                    // called once the class text is complete, the file is in place when generate() returns
                     files.add(file);
                     return super.openOutputInner(file);
                   }
-                }.generate();
-                return true;
+                };
+                generator.generate();
+                return generator.getOptimizationReport();
               }
             });
             long millis = System.currentTimeMillis() - time;
@@ -174,7 +179,9 @@ public class GenerateAction extends AnAction {
             Notifications.Bus.notify(new Notification(
               BnfConstants.GENERATION_GROUP,
               String.format("%s generated (%s)", file.getName(), StringUtil.formatFileSize(written)),
-              "to " + genDir + (duration == null ? "" : " in " + duration), NotificationType.INFORMATION), project);
+              "to " + genDir + (duration == null ? "" : " in " + duration) +
+              (optimizations.isEmpty() ? "" : "<br>" + StringUtil.join(optimizations, "<br>")),
+              NotificationType.INFORMATION), project);
           }
           catch (ProcessCanceledException ignored) {
           }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.actions;
+
+import com.intellij.lang.Language;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.LangDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileChooser.FileChooser;
+import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.*;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.livePreview.GrammarCoverage;
+import org.intellij.grammar.livePreview.LivePreviewLanguage;
+import org.intellij.grammar.psi.BnfFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Runs a corpus directory through the live preview grammar and exports the rule and alternative coverage.
+ */
+public class LivePreviewCoverageAction extends DumbAwareAction {
+
+  @Nullable
+  private static BnfFile getGrammar(@NotNull AnActionEvent e) {
+    PsiFile psiFile = LangDataKeys.PSI_FILE.getData(e.getDataContext());
+    if (psiFile instanceof BnfFile) {
+      return LivePreviewLanguage.findInstance(psiFile) == null ? null : (BnfFile)psiFile;
+    }
+    Language language = psiFile == null ? null : psiFile.getLanguage();
+    return language instanceof LivePreviewLanguage ? ((LivePreviewLanguage)language).getGrammar(psiFile.getProject()) : null;
+  }
+
+  @Override
+  public void update(AnActionEvent e) {
+    e.getPresentation().setEnabledAndVisible(getGrammar(e) != null);
+  }
+
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    BnfFile grammar = getGrammar(e);
+    Project project = e.getProject();
+    LivePreviewLanguage language = grammar == null ? null : LivePreviewLanguage.findInstance(grammar);
+    if (language == null || project == null) return;
+    VirtualFile corpusDir = FileChooser.chooseFile(
+      FileChooserDescriptorFactory.createSingleFolderDescriptor().withTitle("Select Corpus Directory"), project, null);
+    if (corpusDir == null) return;
+
+    ProgressManager.getInstance().run(new Task.Backgroundable(project, "Collecting grammar coverage", true) {
+      GrammarCoverage coverage;
+
+      @Override
+      public void run(@NotNull ProgressIndicator indicator) {
+        List<VirtualFile> files = ContainerUtil.newArrayList();
+        VfsUtilCore.iterateChildrenRecursively(corpusDir, null, file -> {
+          if (!file.isDirectory()) files.add(file);
+          return true;
+        });
+        coverage = ApplicationManager.getApplication().runReadAction(
+          (Computable<GrammarCoverage>)() -> new GrammarCoverage(grammar, language));
+        indicator.setIndeterminate(false);
+        for (int i = 0; i < files.size(); i++) {
+          indicator.checkCanceled();
+          VirtualFile file = files.get(i);
+          indicator.setText2(file.getPresentableUrl());
+          indicator.setFraction((double)i / files.size());
+          CharSequence text;
+          try {
+            text = VfsUtilCore.loadText(file);
+          }
+          catch (IOException ignored) {
+            continue;
+          }
+          ApplicationManager.getApplication().runReadAction(() -> coverage.collect(text));
+        }
+      }
+
+      @Override
+      public void onSuccess() {
+        if (coverage != null) export(project, grammar, coverage);
+      }
+    });
+  }
+
+  private static void export(@NotNull Project project, @NotNull BnfFile grammar, @NotNull GrammarCoverage coverage) {
+    FileSaverDescriptor descriptor = new FileSaverDescriptor(
+      "Export Grammar Coverage", coverage.getFileCount() + " files processed, save the coverage report", "tsv");
+    VirtualFileWrapper wrapper = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project)
+      .save(grammar.getVirtualFile().getParent(), FileUtil.getNameWithoutExtension(grammar.getName()) + ".coverage.tsv");
+    VirtualFile result;
+    if (wrapper == null) {
+      result = new LightVirtualFile(grammar.getName() + " coverage", PlainTextFileType.INSTANCE, coverage.getReport());
+    }
+    else {
+      File file = wrapper.getFile();
+      try (Writer writer = new FileWriter(file)) {
+        coverage.write(writer);
+      }
+      catch (IOException ex) {
+        Messages.showErrorDialog(project, ex.getMessage(), "Export Grammar Coverage");
+        return;
+      }
+      result = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(file);
+    }
+    if (result != null) FileEditorManager.getInstance(project).openFile(result, true);
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.actions;
+
+import com.intellij.lang.Language;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.LangDataKeys;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiFile;
+import org.intellij.grammar.livePreview.LivePreviewLanguage;
+import org.intellij.grammar.livePreview.LivePreviewProfile;
+import org.intellij.grammar.psi.BnfFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Toggles per-rule profiling of the live preview parse.
+ */
+public class LivePreviewProfileAction extends DumbAwareAction {
+
+  @Nullable
+  private static BnfFile getGrammar(@NotNull AnActionEvent e) {
+    PsiFile psiFile = LangDataKeys.PSI_FILE.getData(e.getDataContext());
+    if (psiFile instanceof BnfFile) {
+      return LivePreviewLanguage.findInstance(psiFile) == null ? null : (BnfFile)psiFile;
+    }
+    Language language = psiFile == null ? null : psiFile.getLanguage();
+    return language instanceof LivePreviewLanguage ? ((LivePreviewLanguage)language).getGrammar(psiFile.getProject()) : null;
+  }
+
+  @Override
+  public void update(AnActionEvent e) {
+    BnfFile grammar = getGrammar(e);
+    boolean enabled = grammar != null;
+    String command = !enabled ? "" : LivePreviewProfile.isEnabled(grammar.getVirtualFile()) ? "Stop " : "Start ";
+    e.getPresentation().setText(command + getTemplatePresentation().getText());
+    e.getPresentation().setEnabledAndVisible(enabled);
+  }
+
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    BnfFile grammar = getGrammar(e);
+    Project project = e.getProject();
+    if (grammar == null || project == null) return;
+    LivePreviewProfile.setEnabled(project, grammar, !LivePreviewProfile.isEnabled(grammar.getVirtualFile()));
+  }
+}
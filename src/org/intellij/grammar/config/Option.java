@@ -47,6 +47,16 @@ abstract class Option<T> implements Getter<T> {
     };
   }
 
+  static Option<Boolean> boolOption(String id, boolean def) {
+    return new Option<Boolean>(id, def) {
+      @Override
+      public Boolean get() {
+        String value = innerValue();
+        return value == null ? defValue : Boolean.valueOf(value);
+      }
+    };
+  }
+
   static Option<String> strOption(String id, String def) {
     return new Option<String>(id, def) {
       @Override
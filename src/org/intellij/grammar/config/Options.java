@@ -25,6 +25,9 @@ public interface Options {
 
   Getter<String> GEN_DIR = Option.strOption("grammar.kit.gen.dir", "gen");
   Getter<String> GEN_JFLEX_ARGS = Option.strOption("grammar.kit.gen.jflex.args", "");
+  Getter<String> GEN_SIGNATURE_INDEX = Option.strOption("grammar.kit.gen.signature.index", "");
+  Getter<Integer> GEN_THREADS = Option.intOption("grammar.kit.gen.threads", 0);
+  Getter<Boolean> LIGHT_PSI_VERBOSE = Option.boolOption("grammar.kit.lightpsi.verbose", false);
 
   Getter<Integer> GPUB_MAX_LEVEL = Option.intOption("grammar.kit.gpub.max.level", 1000);
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.editor;
+
+import com.intellij.codeHighlighting.Pass;
+import com.intellij.codeInsight.daemon.LineMarkerInfo;
+import com.intellij.codeInsight.daemon.LineMarkerProvider;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.editor.markup.GutterIconRenderer;
+import com.intellij.psi.PsiElement;
+import com.intellij.util.FunctionUtil;
+import org.intellij.grammar.livePreview.LivePreviewProfile;
+import org.intellij.grammar.psi.BnfRule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Live preview profile of the rule: hot and backtracking rules are marked with a warning.
+ */
+public class BnfProfileLineMarkerProvider implements LineMarkerProvider {
+  @Nullable
+  @Override
+  public LineMarkerInfo getLineMarkerInfo(@NotNull PsiElement element) {
+    return null;
+  }
+
+  @Override
+  public void collectSlowLineMarkers(@NotNull List<PsiElement> elements, @NotNull Collection<LineMarkerInfo> result) {
+    if (elements.isEmpty()) return;
+    LivePreviewProfile profile = LivePreviewProfile.get(elements.get(0).getContainingFile().getVirtualFile());
+    if (profile == null) return;
+    for (PsiElement element : elements) {
+      if (!(element instanceof BnfRule)) continue;
+      BnfRule rule = (BnfRule)element;
+      LivePreviewProfile.RuleStat stat = profile.getStat(rule.getName());
+      if (stat == null || stat.invocations == 0) continue;
+      Icon icon = stat.isHot() || stat.isBacktracking() ? AllIcons.General.Warning : AllIcons.General.Information;
+      result.add(new MyMarkerInfo(rule, icon, profile.getTooltip(stat)));
+    }
+  }
+
+  private static class MyMarkerInfo extends LineMarkerInfo<BnfRule> {
+    private MyMarkerInfo(@NotNull BnfRule rule, @NotNull Icon icon, @NotNull String tooltip) {
+      super(rule,
+            rule.getTextRange(),
+            icon,
+            Pass.LINE_MARKERS,
+            FunctionUtil.constant(tooltip),
+            null,
+            GutterIconRenderer.Alignment.LEFT
+      );
+    }
+
+    @Override
+    public GutterIconRenderer createGutterRenderer() {
+      if (myIcon == null) return null;
+      return new LineMarkerGutterIconRenderer<BnfRule>(this) {
+        @Override
+        public AnAction getClickAction() {
+          return null;
+        }
+      };
+    }
+  }
+}
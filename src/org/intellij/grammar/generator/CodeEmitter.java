@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.generator;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.PrintWriter;
+
+/**
+ * Buffers generated source text and maintains brace-based indentation.
+ * Lines are either passed whole to {@link #out(CharSequence)} or built with the typed
+ * {@code append} methods and completed with {@link #newLine()}, the latter avoids
+ * {@link String#format} and intermediate strings on the hot paths.
+ */
+final class CodeEmitter {
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+  private static final String INDENT = "  ";
+
+  private final StringBuilder myBuilder = new StringBuilder(64 * 1024);
+  private final StringBuilder myLine = new StringBuilder(256);
+  private String[] myIndents = new String[16];
+  private int myOffset;
+
+  void reset() {
+    myBuilder.setLength(0);
+    myLine.setLength(0);
+    myOffset = 0;
+  }
+
+  void resetOffset() {
+    myOffset = 0;
+  }
+
+  void format(@NotNull String pattern, Object... args) {
+    out(String.format(pattern, args));
+  }
+
+  @NotNull
+  CodeEmitter append(@NotNull String s) {
+    myLine.append(s);
+    return this;
+  }
+
+  @NotNull
+  CodeEmitter append(int i) {
+    myLine.append(i);
+    return this;
+  }
+
+  /**
+   * Completes the line built by the {@code append} methods, an empty line if nothing was appended.
+   */
+  void newLine() {
+    out(myLine);
+    myLine.setLength(0);
+  }
+
+  void out(@NotNull CharSequence s) {
+    int length = s.length();
+    if (length == 0) {
+      myBuilder.append(LINE_SEPARATOR);
+      return;
+    }
+    boolean isComment = length > 1 && s.charAt(0) == '/' && s.charAt(1) == '/';
+    boolean newStatement = true;
+    for (int start = 0, end; start < length; start = end + 1) {
+      end = indexOf(s, '\n', start);
+      if (!isComment && end > start && s.charAt(start) == '}') myOffset--;
+      if (myOffset > 0) {
+        myBuilder.append(getIndent(newStatement ? myOffset : myOffset + 1));
+      }
+      char last = end > start ? s.charAt(end - 1) : 0;
+      if (!isComment && last == '{') myOffset++;
+      myBuilder.append(s, start, end).append(LINE_SEPARATOR);
+      newStatement = last == ';' || last == '{' || last == '}';
+    }
+  }
+
+  void writeTo(@NotNull PrintWriter writer) {
+    writer.append(myBuilder);
+  }
+
+  private static int indexOf(@NotNull CharSequence s, char c, int start) {
+    for (int i = start, length = s.length(); i < length; i++) {
+      if (s.charAt(i) == c) return i;
+    }
+    return s.length();
+  }
+
+  private String getIndent(int level) {
+    if (level >= myIndents.length) {
+      String[] indents = new String[Math.max(level + 1, myIndents.length * 2)];
+      System.arraycopy(myIndents, 0, indents, 0, myIndents.length);
+      myIndents = indents;
+    }
+    String indent = myIndents[level];
+    if (indent == null) {
+      StringBuilder sb = new StringBuilder(level * INDENT.length());
+      for (int i = 0; i < level; i++) sb.append(INDENT);
+      myIndents[level] = indent = sb.toString();
+    }
+    return indent;
+  }
+}
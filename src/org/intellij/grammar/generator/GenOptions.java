@@ -45,6 +45,11 @@ public class GenOptions {
   public final Case generateElementCase;
   public final boolean generateTokenAccessors;
   public final boolean generateTokenAccessorsSet;
+  public final boolean generatePsiChildIndex;
+  public final boolean generateInlinePrivate;
+  public final boolean generateFactorChoices;
+  public final boolean generateSkipUnreachable;
+  public final boolean generateSkipUnreachablePublic;
 
   public GenOptions(BnfFile myFile) {
     Map<String, String> genOptions = getRootAttribute(myFile, KnownAttribute.GENERATE).asMap();
@@ -57,6 +62,12 @@ public class GenOptions {
     generateExtendedPin = getGenerateOption(myFile, KnownAttribute.EXTENDED_PIN, genOptions.get("extendedPin"));
     generateTokenAccessors = getGenerateOption(myFile, KnownAttribute.GENERATE_TOKEN_ACCESSORS, genOptions.get("tokenAccessors"));
     generateTokenAccessorsSet = genOptions.containsKey("tokenAccessors");
+    generatePsiChildIndex = "yes".equals(genOptions.get("psi-child-index"));
+    generateInlinePrivate = "yes".equals(genOptions.get("inline-private"));
+    generateFactorChoices = "yes".equals(genOptions.get("factor-choices"));
+    String skipUnreachable = genOptions.get("skip-unreachable");
+    generateSkipUnreachable = "yes".equals(skipUnreachable) || "all".equals(skipUnreachable);
+    generateSkipUnreachablePublic = "all".equals(skipUnreachable);
     generateRootRules = PatternUtil.compileSafe(genOptions.get("root-rules"), null);
     generateVisitor = !"no".equals(genOptions.get("visitor"));
     visitorValue = "void".equals(genOptions.get("visitor-value")) ? null : StringUtil.nullize(genOptions.get("visitor-value"));
@@ -23,6 +23,7 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.CommonClassNames;
 import com.intellij.psi.NavigatablePsiElement;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiReference;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Function;
@@ -37,6 +38,7 @@ import org.intellij.grammar.KnownAttribute;
 import org.intellij.grammar.analysis.BnfFirstNextAnalyzer;
 import org.intellij.grammar.java.JavaHelper;
 import org.intellij.grammar.psi.*;
+import org.intellij.grammar.psi.impl.BnfElementFactory;
 import org.intellij.grammar.psi.impl.GrammarUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -45,6 +47,10 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 import static java.lang.String.format;
@@ -64,6 +70,12 @@ public class ParserGenerator {
 
   private static final String TYPE_TEXT_SEPARATORS = "<>,[]";
 
+  private static final String CHILD_INDEX_CLASS = "$ChildIndex";
+  private static final String CHILD_INDEX_FIELD = "$childIndex";
+  private static final String CHILD_INDEX_GETTER = "$getChildIndex";
+  private static final int MAX_REPORTED_RULES = 10;
+  private static final int INLINE_MAX_ITEMS = 4;
+
   private final Map<String, String> myRuleParserClasses = ContainerUtil.newTreeMap();
   private final Map<String, String> myParserLambdas = ContainerUtil.newTreeMap();
   private final Set<String> myPackageClasses = ContainerUtil.newTreeSet();
@@ -72,6 +84,10 @@ public class ParserGenerator {
   private final Set<String> myFakeRulesWithType = ContainerUtil.newHashSet();
   private final Set<String> myAbstractRules = ContainerUtil.newHashSet();
   private final Map<String, String> myRulesStubNames = ContainerUtil.newHashMap();
+  private final Map<BnfRule, Boolean> myInlinableRules = ContainerUtil.newHashMap();
+  private int myInlinedCallCount;
+  private int myFactoredItemCount;
+  private final Set<String> myUnreachableRules = ContainerUtil.newTreeSet();
 
   private final BnfFile myFile;
   private final String mySourcePath;
@@ -88,8 +104,8 @@ public class ParserGenerator {
   private final String visitorClassName;
 
 
-  private int myOffset;
-  private PrintWriter myOut;
+  private final CodeEmitter myEmitter = new CodeEmitter();
+  private File myOutputFile;
   private Function<String, String> myShortener;
 
   private final RuleGraphHelper myGraphHelper;
@@ -133,6 +149,7 @@ public class ParserGenerator {
     calcFakeRulesWithType();
     calcRulesStubNames();
     calcAbstractRules();
+    if (G.generateSkipUnreachable) calcUnreachableRules();
   }
 
   private void calcAbstractRules() {
@@ -202,51 +219,91 @@ public class ParserGenerator {
     return realSuperClasses;
   }
 
-  private void openOutput(String className) throws IOException {
-    File file = new File(myOutputPath, className.replace('.', File.separatorChar) + ".java");
-    myOut = openOutputInner(file);
+  private void openOutput(String className) {
+    myOutputFile = new File(myOutputPath, className.replace('.', File.separatorChar) + ".java");
+    myEmitter.reset();
   }
 
+  /**
+   * Called once per generated class when its text is complete, the whole text is written
+   * to the returned writer which is closed right away. Nothing is opened for a class that failed to generate.
+   * <p/>
+   * The default implementation writes to a temporary file that replaces the target file on close,
+   * a failed replacement is reported as {@link UncheckedIOException} from <code>close()</code>.
+   */
   protected PrintWriter openOutputInner(File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
     //noinspection ResultOfMethodCallIgnored
-    file.getParentFile().mkdirs();
-    return new PrintWriter(new FileOutputStream(file));
+    parent.mkdirs();
+    File tempFile = File.createTempFile(file.getName(), ".tmp", parent);
+    return new PrintWriter(new FileOutputStream(tempFile)) {
+      @Override
+      public void close() {
+        super.close();
+        try {
+          if (checkError()) throw new IOException("Failed to write " + tempFile);
+          try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          }
+          catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+          }
+        }
+        catch (IOException e) {
+          FileUtil.delete(tempFile);
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
   }
 
-  private void closeOutput() {
-    myOut.close();
+  /**
+   * Generated text is buffered until the whole class is complete,
+   * so a failed generation never leaves a half-written file behind.
+   */
+  private void closeOutput() throws IOException {
+    try (PrintWriter out = openOutputInner(myOutputFile)) {
+      myEmitter.writeTo(out);
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    finally {
+      myEmitter.reset();
+      myOutputFile = null;
+    }
   }
 
   public void out(String s, Object... args) {
-    out(format(s, args));
+    myEmitter.format(s, args);
   }
 
   public void out(String s) {
-    int length = s.length();
-    if (length == 0) {
-      myOut.println();
-      return;
-    }
-    boolean isComment = s.startsWith("//");
-    boolean newStatement = true;
-    for (int start = 0, end; start < length; start = end + 1) {
-      end = StringUtil.indexOf(s, '\n', start, length);
-      if (end == -1) end = length;
-      String substring = s.substring(start, end);
-      if (!isComment && substring.startsWith("}")) myOffset--;
-      if (myOffset > 0) {
-        myOut.print(StringUtil.repeat("  ", newStatement ? myOffset : myOffset + 1));
-      }
-      if (!isComment && substring.endsWith("{")) myOffset++;
-      myOut.println(substring);
-      newStatement = substring.endsWith(";") || substring.endsWith("{") || substring.endsWith("}");
-    }
+    myEmitter.out(s);
   }
 
   public void newLine() {
     out("");
   }
 
+  /**
+   * @return summary of generation-time optimizations applied so far, empty if none
+   */
+  @NotNull
+  public List<String> getOptimizationReport() {
+    List<String> result = ContainerUtil.newArrayList();
+    if (myInlinedCallCount > 0) {
+      result.add(myInlinedCallCount + " private rule call frames removed by inlining");
+    }
+    if (myFactoredItemCount > 0) {
+      result.add(myFactoredItemCount + " backtracking re-parses of common choice prefixes removed by left-factoring");
+    }
+    if (!myUnreachableRules.isEmpty()) {
+      result.add(myUnreachableRules.size() + " unreachable rules skipped: " + joinRuleNames(myUnreachableRules));
+    }
+    return result;
+  }
+
   public void generate() throws IOException {
     {
       generateParser();
@@ -267,12 +324,8 @@ public class ParserGenerator {
     if (myGrammarRoot != null && (G.generateTokenTypes || G.generateElementTypes || G.generatePsi && G.generatePsiFactory)) {
       String className = getRootAttribute(myFile, KnownAttribute.ELEMENT_TYPE_HOLDER_CLASS);
       openOutput(className);
-      try {
-        generateElementTypesHolder(className, sortedCompositeTypes);
-      }
-      finally {
-        closeOutput();
-      }
+      generateElementTypesHolder(className, sortedCompositeTypes);
+      closeOutput();
     }
     if (G.generatePsi) {
       checkClassAvailability(myFile, myPsiImplUtilClass, "PSI method signatures will not be detected");
@@ -291,34 +344,22 @@ public class ParserGenerator {
 
         infClasses.put(ruleName, psiClass);
         openOutput(psiClass);
-        try {
-          generatePsiIntf(rule, psiClass, getSuperInterfaceNames(myFile, rule, psiPackage, myPsiClassFormat));
-        }
-        finally {
-          closeOutput();
-        }
+        generatePsiIntf(rule, psiClass, getSuperInterfaceNames(myFile, rule, psiPackage, myPsiClassFormat));
+        closeOutput();
       }
       Map<String, String> realSuperClasses = calcRealSuperClasses(sortedPsiRules, psiImplPackage);
       for (String ruleName : sortedPsiRules.keySet()) {
         BnfRule rule = ObjectUtils.assertNotNull(myFile.getRule(ruleName));
         String psiImplClass = psiImplPackage + "." + getRulePsiClassName(rule, myPsiImplClassFormat);
         openOutput(psiImplClass);
-        try {
-          generatePsiImpl(rule, psiImplClass, infClasses.get(ruleName), realSuperClasses);
-        }
-        finally {
-          closeOutput();
-        }
+        generatePsiImpl(rule, psiImplClass, infClasses.get(ruleName), realSuperClasses);
+        closeOutput();
       }
       if (visitorClassName != null && myGrammarRoot != null) {
         String psiClass = psiPackage + "." + visitorClassName;
         openOutput(psiClass);
-        try {
-          generateVisitor(psiClass, sortedPsiRules);
-        }
-        finally {
-          closeOutput();
-        }
+        generateVisitor(psiClass, sortedPsiRules);
+        closeOutput();
       }
     }
   }
@@ -413,12 +454,8 @@ public class ParserGenerator {
         }
       }
       openOutput(className);
-      try {
-        generateParser(className, map.keySet());
-      }
-      finally {
-        closeOutput();
-      }
+      generateParser(className, map.keySet());
+      closeOutput();
     }
   }
 
@@ -456,6 +493,7 @@ public class ParserGenerator {
       BnfRule rule = ObjectUtils.assertNotNull(myFile.getRule(ruleName));
       if (Rule.isExternal(rule) || Rule.isFake(rule)) continue;
       if (myExpressionHelper.getExpressionInfo(rule) != null) continue;
+      if (myUnreachableRules.contains(ruleName)) continue;
       out("/* ********************************************************** */");
       generateNode(rule, rule.getExpression(), getFuncName(rule), new THashSet<>());
       newLine();
@@ -490,6 +528,81 @@ public class ParserGenerator {
     return format("new Parser() {\npublic boolean parse(PsiBuilder %s, int %s) {\nreturn %s;\n}\n}", N.builder, N.level, nodeCall);
   }
 
+  private boolean isParseRootRule(BnfRule rule) {
+    if (getAttribute(rule, KnownAttribute.ELEMENT_TYPE) != null) return false;
+    if (!RuleGraphHelper.hasElementType(rule)) return false;
+    if (Rule.isFake(rule) || Rule.isMeta(rule)) return false;
+    if (G.generateRootRules != null && !G.generateRootRules.matcher(rule.getName()).matches()) return false;
+    ExpressionHelper.ExpressionInfo info = myExpressionHelper.getExpressionInfo(rule);
+    return info == null || info.rootRule == rule;
+  }
+
+  /**
+   * Rules not reachable from the grammar root, the <code>parseLight</code> dispatch,
+   * expression parsers and their <code>recoverWhile</code> predicates are never called
+   * by the generated code, so their methods (and lambdas) are not generated.
+   * Rules named in external rules and <code>&lt;&lt;...&gt;&gt;</code> expressions may be called
+   * by hand-written code, so they count as roots. Public rules are only skipped with <code>skip-unreachable="all"</code>.
+   */
+  private void calcUnreachableRules() {
+    if (myGrammarRoot == null) return;
+    Set<BnfRule> reachable = ContainerUtil.newTroveSet();
+    LinkedList<BnfRule> queue = new LinkedList<>();
+    List<BnfRule> roots = ContainerUtil.newArrayList();
+    for (BnfRule rule : myFile.getRules()) {
+      boolean root = rule.getName().equals(myGrammarRoot) ||
+                     myExpressionHelper.getExpressionInfo(rule) != null ||
+                     myGrammarRootParser.equals(myRuleParserClasses.get(rule.getName())) && isParseRootRule(rule);
+      if (root) roots.add(rule);
+      if (Rule.isExternal(rule)) {
+        collectRuleReferences(rule.getExpression(), roots);
+      }
+      else {
+        for (BnfExternalExpression o : GrammarUtil.bnfTraverserNoAttrs(rule.getExpression()).filter(BnfExternalExpression.class)) {
+          collectRuleReferences(o, roots);
+        }
+      }
+    }
+    for (BnfRule rule : roots) {
+      if (reachable.add(rule)) queue.add(rule);
+    }
+    while (!queue.isEmpty()) {
+      BnfRule rule = queue.removeFirst();
+      List<BnfRule> targets = ContainerUtil.newArrayList();
+      collectRuleReferences(rule.getExpression(), targets);
+      String recoverWhile = getAttribute(rule, KnownAttribute.RECOVER_WHILE);
+      ContainerUtil.addIfNotNull(targets, recoverWhile == null ? null : myFile.getRule(recoverWhile));
+      for (BnfRule target : targets) {
+        if (reachable.add(target)) queue.add(target);
+      }
+    }
+    for (BnfRule rule : myFile.getRules()) {
+      if (reachable.contains(rule) || Rule.isExternal(rule) || Rule.isFake(rule)) continue;
+      if (!Rule.isPrivate(rule) && !G.generateSkipUnreachablePublic) continue;
+      myUnreachableRules.add(rule.getName());
+    }
+    if (!myUnreachableRules.isEmpty()) {
+      addWarning(myFile.getProject(), myUnreachableRules.size() + " unreachable rules are not generated: " + joinRuleNames(myUnreachableRules));
+    }
+  }
+
+  private static void collectRuleReferences(@NotNull BnfExpression expression, @NotNull List<BnfRule> result) {
+    for (PsiElement o : GrammarUtil.bnfTraverserNoAttrs(expression)) {
+      if (o instanceof BnfReferenceOrToken || o instanceof BnfStringLiteralExpression) {
+        PsiReference reference = o.getReference();
+        PsiElement target = reference != null ? reference.resolve() : null;
+        if (target instanceof BnfRule) result.add((BnfRule)target);
+      }
+    }
+  }
+
+  @NotNull
+  private static String joinRuleNames(@NotNull Collection<String> names) {
+    if (names.size() <= MAX_REPORTED_RULES) return StringUtil.join(names, ", ");
+    List<String> first = ContainerUtil.newArrayList(names).subList(0, MAX_REPORTED_RULES);
+    return StringUtil.join(first, ", ") + " and " + (names.size() - MAX_REPORTED_RULES) + " more";
+  }
+
   private void generateRootParserContent(Set<String> ownRuleNames) {
     List<Set<String>> extendsSet = buildExtendsSet(myGraphHelper.getRuleExtendsMap());
     boolean generateExtendsSets = !extendsSet.isEmpty();
@@ -505,12 +618,7 @@ public class ParserGenerator {
     boolean first = true;
     for (String ruleName : ownRuleNames) {
       BnfRule rule = ObjectUtils.assertNotNull(myFile.getRule(ruleName));
-      if (getAttribute(rule, KnownAttribute.ELEMENT_TYPE) != null) continue;
-      if (!RuleGraphHelper.hasElementType(rule)) continue;
-      if (Rule.isFake(rule) || Rule.isMeta(rule)) continue;
-      if (G.generateRootRules != null && !G.generateRootRules.matcher(ruleName).matches()) continue;
-      ExpressionHelper.ExpressionInfo info = myExpressionHelper.getExpressionInfo(rule);
-      if (info != null && info.rootRule != rule) continue;
+      if (!isParseRootRule(rule)) continue;
       String elementType = getElementType(rule);
       out("%sif (%s == %s) {", first ? "" : "else ", N.root, elementType);
       String nodeCall = generateNodeCall(rule, null, getFuncName(rule));
@@ -662,7 +770,7 @@ public class ParserGenerator {
     if (StringUtil.isNotEmpty(text)) {
       out(text);
     }
-    myOffset = 0;
+    myEmitter.resetOffset();
   }
 
   private String getStringOrFile(String classHeader) {
@@ -702,7 +810,8 @@ public class ParserGenerator {
 
     final List<BnfExpression> children;
     String extraArguments = collectExtraArguments(rule, node, true);
-    out("%sstatic boolean %s(PsiBuilder %s, int %s%s) {", !isRule ? "private " : isPrivate ? "" : "public ", funcName, N.builder, N.level, extraArguments);
+    myEmitter.append(!isRule ? "private " : isPrivate ? "" : "public ").append("static boolean ").append(funcName)
+      .append("(PsiBuilder ").append(N.builder).append(", int ").append(N.level).append(extraArguments).append(") {").newLine();
     if (node instanceof BnfReferenceOrToken || node instanceof BnfLiteralExpression || node instanceof BnfExternalExpression) {
       children = Collections.singletonList(node);
       if (isPrivate && !isLeftInner && recoverWhile == null) {
@@ -719,7 +828,10 @@ public class ParserGenerator {
       }
     }
     else {
-      children = getChildExpressions(node);
+      List<BnfExpression> expressions = G.generateInlinePrivate && (type == BNF_CHOICE || type == BNF_SEQUENCE) ?
+                                        inlinePrivateRules(rule, funcName, type, getChildExpressions(node)) :
+                                        getChildExpressions(node);
+      children = type == BNF_CHOICE && G.generateFactorChoices ? factorChoiceAlternatives(rule, funcName, expressions) : expressions;
       //if (children.isEmpty() && recoverWhile == null) {
       //  if (!isPrivate && !StringUtil.isEmpty(elementType)) {
       //    if (isLeft || isLeftInner) {
@@ -737,7 +849,8 @@ public class ParserGenerator {
       //}
     }
     if (!children.isEmpty()) {
-      out("if (!recursion_guard_(%s, %s, \"%s\")) return false;", N.builder, N.level, funcName);
+      myEmitter.append("if (!recursion_guard_(").append(N.builder).append(", ").append(N.level)
+        .append(", \"").append(funcName).append("\")) return false;").newLine();
     }
 
     String frameName = !children.isEmpty() && firstNonTrivial && !Rule.isMeta(rule)? quote(getRuleDisplayName(rule, !isPrivate)) : null;
@@ -768,7 +881,7 @@ public class ParserGenerator {
     boolean sectionRequiredSimple = sectionRequired && modifierList.isEmpty() && recoverWhile == null && frameName == null;
     String modifiers = modifierList.isEmpty()? "_NONE_" : StringUtil.join(modifierList, " | ");
     if (sectionRequiredSimple) {
-      out("Marker %s = enter_section_(%s);", N.marker, N.builder);
+      myEmitter.append("Marker ").append(N.marker).append(" = enter_section_(").append(N.builder).append(");").newLine();
     }
     else if (sectionRequired) {
       boolean shortVersion = frameName == null && elementTypeRef == null;
@@ -787,7 +900,8 @@ public class ParserGenerator {
 
       String nodeCall = generateNodeCall(rule, child, getNextName(funcName, i));
       if (type == BNF_CHOICE) {
-        out("%s%s = %s;", i > 0 ? format("if (!%s) ", N.result) : "", N.result, nodeCall);
+        if (i > 0) myEmitter.append("if (!").append(N.result).append(") ");
+        myEmitter.append(N.result).append(" = ").append(nodeCall).append(";").newLine();
       }
       else if (type == BNF_SEQUENCE) {
         predicateEncountered |= pinApplied && getEffectiveExpression(myFile, child) instanceof BnfPredicate;
@@ -795,7 +909,7 @@ public class ParserGenerator {
           ConsumeType consumeType = getEffectiveConsumeType(rule, node, null);
           nodeCall = generateTokenSequenceCall(children, i, pinMatcher, pinApplied, skip, nodeCall, false, consumeType);
           if (i == 0) {
-            out("%s = %s;", N.result, nodeCall);
+            myEmitter.append(N.result).append(" = ").append(nodeCall).append(";").newLine();
           }
           else {
             if (pinApplied && G.generateExtendedPin && !predicateEncountered) {
@@ -816,7 +930,7 @@ public class ParserGenerator {
               }
             }
             else {
-              out("%s = %s && %s;", N.result, N.result, nodeCall);
+              myEmitter.append(N.result).append(" = ").append(N.result).append(" && ").append(nodeCall).append(";").newLine();
             }
           }
         }
@@ -864,7 +978,8 @@ public class ParserGenerator {
         }
       }
       if (sectionRequiredSimple) {
-        out("exit_section_(%s, %s, %s, %s);", N.builder, N.marker, elementTypeRef, resultRef);
+        myEmitter.append("exit_section_(").append(N.builder).append(", ").append(N.marker).append(", ")
+          .append(String.valueOf(elementTypeRef)).append(", ").append(resultRef).append(");").newLine();
       }
       else {
         String pinnedRef = pinned ? N.pinned : "false";
@@ -888,11 +1003,162 @@ public class ParserGenerator {
       }
     }
 
-    out("return %s;", alwaysTrue ? "true" : N.result + (pinned ? format(" || %s", N.pinned) : ""));
+    myEmitter.append("return ").append(alwaysTrue ? "true" : N.result);
+    if (!alwaysTrue && pinned) myEmitter.append(" || ").append(N.pinned);
+    myEmitter.append(";").newLine();
     out("}");
     generateNodeChildren(rule, funcName, children, visited);
   }
 
+  /**
+   * Left-factors adjacent alternatives starting with the same tokens or rule references,
+   * e.g. {@code A B C | A B D | A E} is generated as {@code A (B (C | D) | E)}.
+   * Only private sub-expressions are restructured, so the resulting PSI tree is the same.
+   */
+  @NotNull
+  private List<BnfExpression> factorChoiceAlternatives(@NotNull BnfRule rule, @NotNull String funcName, @NotNull List<BnfExpression> alternatives) {
+    if (Rule.isMeta(rule) || myExpressionHelper.getExpressionInfo(rule) != null) return alternatives;
+    if (ConsumeType.forRule(rule) != ConsumeType.DEFAULT) return alternatives;
+    List<List<BnfExpression>> items = ContainerUtil.newArrayList();
+    for (BnfExpression alternative : alternatives) {
+      items.add(getSequenceItems(alternative));
+    }
+    int[] factored = {0};
+    List<BnfExpression> result = ContainerUtil.newArrayList();
+    for (int i = 0, size = items.size(); i < size; ) {
+      int[] prefix = {0};
+      int end = findCommonPrefixRun(items, i, prefix);
+      if (end - i < 2) {
+        result.add(alternatives.get(i++));
+        continue;
+      }
+      String text = buildFactoredText(items.subList(i, end), prefix[0], factored);
+      result.add(BnfElementFactory.createExpressionFromText(myFile.getProject(), text));
+      i = end;
+    }
+    if (factored[0] == 0) return alternatives;
+    // sub-expression method names change, so give up if any of them may be pinned
+    for (int i = 0; i < alternatives.size(); i++) {
+      if (hasPinnedSubExpressions(rule, alternatives.get(i), getNextName(funcName, i))) return alternatives;
+    }
+    for (int i = 0; i < result.size(); i++) {
+      if (hasPinnedSubExpressions(rule, result.get(i), getNextName(funcName, i))) return alternatives;
+    }
+    myFactoredItemCount += factored[0];
+    return result;
+  }
+
+  private String buildFactoredText(@NotNull List<List<BnfExpression>> run, int prefix, @NotNull int[] factored) {
+    factored[0] += (run.size() - 1) * prefix;
+    StringBuilder sb = new StringBuilder();
+    appendItemsText(sb, run.get(0).subList(0, prefix));
+    List<List<BnfExpression>> suffixes = ContainerUtil.newArrayList();
+    for (List<BnfExpression> items : run) {
+      suffixes.add(items.subList(prefix, items.size()));
+    }
+    sb.append(" (");
+    for (int i = 0, size = suffixes.size(); i < size; ) {
+      if (i > 0) sb.append(" | ");
+      int[] nestedPrefix = {0};
+      int end = findCommonPrefixRun(suffixes, i, nestedPrefix);
+      if (end - i < 2) {
+        appendItemsText(sb, suffixes.get(i++));
+      }
+      else {
+        sb.append(buildFactoredText(suffixes.subList(i, end), nestedPrefix[0], factored));
+        i = end;
+      }
+    }
+    return sb.append(")").toString();
+  }
+
+  private static void appendItemsText(@NotNull StringBuilder sb, @NotNull List<BnfExpression> items) {
+    for (int i = 0; i < items.size(); i++) {
+      if (i > 0) sb.append(" ");
+      sb.append(items.get(i).getText());
+    }
+  }
+
+  /**
+   * Returns the end of the run of alternatives starting at {@code start} that share a prefix,
+   * the prefix length is stored in {@code prefix[0]}. Each alternative keeps a non-empty suffix
+   * that does not start with a left or upper rule.
+   */
+  private int findCommonPrefixRun(@NotNull List<List<BnfExpression>> items, int start, @NotNull int[] prefix) {
+    List<BnfExpression> first = items.get(start);
+    prefix[0] = first.size() - 1;
+    int end = start + 1;
+    for (int size = items.size(); end < size; end++) {
+      List<BnfExpression> next = items.get(end);
+      int common = 0;
+      for (int max = Math.min(prefix[0], next.size() - 1); common < max; common++) {
+        BnfExpression e = first.get(common);
+        if (!isFactorableItem(e) || !GrammarUtil.equalsElement(e, next.get(common))) break;
+      }
+      if (common == 0 || !canFactorSuffixes(items.subList(start, end + 1), common)) break;
+      prefix[0] = common;
+    }
+    return end;
+  }
+
+  /**
+   * Left and upper rules take over the marker done before them, once the suffixes are grouped
+   * that marker is outside the group section and the markers would cross.
+   */
+  private boolean canFactorSuffixes(@NotNull List<List<BnfExpression>> run, int prefix) {
+    for (List<BnfExpression> items : run) {
+      if (startsWithLeftRule(items.subList(prefix, items.size()), ContainerUtil.newTroveSet())) return false;
+    }
+    return true;
+  }
+
+  private boolean startsWithLeftRule(@NotNull List<BnfExpression> items, @NotNull Set<BnfRule> visited) {
+    for (BnfExpression item : items) {
+      if (startsWithLeftRule(item, visited)) return true;
+      IElementType type = getEffectiveType(item);
+      if (type != BNF_OP_OPT && type != BNF_OP_ZEROMORE && type != BNF_OP_AND && type != BNF_OP_NOT) break;
+    }
+    return false;
+  }
+
+  private boolean startsWithLeftRule(@NotNull BnfExpression expression, @NotNull Set<BnfRule> visited) {
+    BnfExpression node = getNonTrivialNode(expression);
+    IElementType type = getEffectiveType(node);
+    if (type == BNF_REFERENCE_OR_TOKEN) {
+      BnfRule r = myFile.getRule(node.getText());
+      if (r == null || !visited.add(r)) return false;
+      if (Rule.isLeft(r) || Rule.isUpper(r)) return true;
+      return Rule.isPrivate(r) && startsWithLeftRule(r.getExpression(), visited);
+    }
+    if (type == BNF_SEQUENCE) return startsWithLeftRule(getChildExpressions(node), visited);
+    for (BnfExpression child : getChildExpressions(node)) {
+      if (startsWithLeftRule(child, visited)) return true;
+    }
+    return false;
+  }
+
+  private boolean isFactorableItem(@NotNull BnfExpression e) {
+    if (!GrammarUtil.isOneTokenExpression(e)) return false;
+    BnfRule r = e instanceof BnfReferenceOrToken ? myFile.getRule(e.getText()) : null;
+    return r == null || !Rule.isExternal(r) && !Rule.isMeta(r);
+  }
+
+  @NotNull
+  private static List<BnfExpression> getSequenceItems(@NotNull BnfExpression alternative) {
+    BnfExpression node = getNonTrivialNode(alternative);
+    return node instanceof BnfSequence ? getChildExpressions(node) : Collections.singletonList(node);
+  }
+
+  private static boolean hasPinnedSubExpressions(@NotNull BnfRule rule, @NotNull BnfExpression expression, @NotNull String funcName) {
+    BnfExpression node = getNonTrivialNode(expression);
+    if (new PinMatcher(rule, getEffectiveType(node), funcName).active()) return true;
+    List<BnfExpression> children = getChildExpressions(node);
+    for (int i = 0; i < children.size(); i++) {
+      if (hasPinnedSubExpressions(rule, children.get(i), getNextName(funcName, i))) return true;
+    }
+    return false;
+  }
+
   /** @noinspection StringEquality*/
   private String generateAutoRecoverCall(BnfRule rule) {
     BnfFirstNextAnalyzer analyzer = new BnfFirstNextAnalyzer().setPredicateLookAhead(true);
@@ -1095,6 +1361,8 @@ public class ParserGenerator {
         }
         else {
           ExpressionHelper.ExpressionInfo info = ExpressionGeneratorHelper.getInfoForExpressionParsing(myExpressionHelper, subRule);
+          String inlinedCall = info == null && G.generateInlinePrivate ? generateInlinedCall(rule, subRule) : null;
+          if (inlinedCall != null) return inlinedCall;
           BnfRule rr = info != null ? info.rootRule : subRule;
           method = getFuncName(rr);
           String parserClass = myRuleParserClasses.get(rr.getName());
@@ -1145,6 +1413,101 @@ public class ParserGenerator {
     }
   }
 
+  /**
+   * Returns the call the method of a single-item private rule would return,
+   * so the caller can skip that method frame. The rule method itself is still generated.
+   */
+  @Nullable
+  private String generateInlinedCall(@NotNull BnfRule caller, @NotNull BnfRule rule) {
+    if (!isInlinable(rule)) return null;
+    if (!myRuleParserClasses.get(rule.getName()).equals(myRuleParserClasses.get(caller.getName()))) return null;
+    BnfExpression node = getNonTrivialNode(rule.getExpression());
+    if (!(node instanceof BnfReferenceOrToken || node instanceof BnfLiteralExpression)) return null;
+    myInlinedCallCount++;
+    return generateNodeCall(rule, node, getNextName(getFuncName(rule), 0));
+  }
+
+  /**
+   * Splices the bodies of small private rules into the choice or sequence referencing them,
+   * e.g. {@code A | B} with {@code private B ::= C | D} is generated as {@code A | C | D}.
+   * Sequences are spliced into sequences without pins only, so error reporting and recovery stay the same.
+   */
+  @NotNull
+  private List<BnfExpression> inlinePrivateRules(@NotNull BnfRule rule,
+                                                 @NotNull String funcName,
+                                                 @NotNull IElementType type,
+                                                 @NotNull List<BnfExpression> children) {
+    if (Rule.isMeta(rule) || myExpressionHelper.getExpressionInfo(rule) != null) return children;
+    if (new PinMatcher(rule, type, funcName).active()) return children;
+    List<BnfExpression> result = null;
+    int inlined = 0;
+    for (int i = 0; i < children.size(); i++) {
+      BnfExpression child = children.get(i);
+      List<BnfExpression> body = getInlinedBody(rule, child, type);
+      if (body != null && result == null) result = ContainerUtil.newArrayList(children.subList(0, i));
+      if (result == null) continue;
+      if (body == null) {
+        result.add(child);
+      }
+      else {
+        result.addAll(body);
+        inlined++;
+      }
+    }
+    if (result == null) return children;
+    // sub-expression method names change, so give up if any of them may be pinned
+    for (int i = 0; i < children.size(); i++) {
+      if (hasPinnedSubExpressions(rule, children.get(i), getNextName(funcName, i))) return children;
+    }
+    for (int i = 0; i < result.size(); i++) {
+      if (hasPinnedSubExpressions(rule, result.get(i), getNextName(funcName, i))) return children;
+    }
+    myInlinedCallCount += inlined;
+    return result;
+  }
+
+  @Nullable
+  private List<BnfExpression> getInlinedBody(@NotNull BnfRule caller, @NotNull BnfExpression child, @NotNull IElementType type) {
+    BnfExpression node = getNonTrivialNode(child);
+    BnfRule rule = node instanceof BnfReferenceOrToken ? myFile.getRule(node.getText()) : null;
+    if (rule == null || !isInlinable(rule) || ConsumeType.forRule(rule) != ConsumeType.forRule(caller)) return null;
+    BnfExpression body = getNonTrivialNode(rule.getExpression());
+    if (getEffectiveType(body) != type) return null;
+    List<BnfExpression> items = getChildExpressions(body);
+    return items.size() <= INLINE_MAX_ITEMS ? items : null;
+  }
+
+  private boolean isInlinable(@NotNull BnfRule rule) {
+    Boolean result = myInlinableRules.get(rule);
+    if (result == null) {
+      myInlinableRules.put(rule, result = calcInlinable(rule));
+    }
+    return result;
+  }
+
+  private boolean calcInlinable(@NotNull BnfRule rule) {
+    // the rule section does nothing but rollback: no pin, recovery, hooks or frame name
+    if (!Rule.isPrivate(rule) || Rule.isExternal(rule) || Rule.isMeta(rule) || Rule.isFake(rule) || Rule.isLeft(rule)) return false;
+    if (getAttribute(rule, KnownAttribute.RECOVER_WHILE) != null || getAttribute(rule, KnownAttribute.NAME) != null) return false;
+    if (!getAttribute(rule, KnownAttribute.HOOKS).isEmpty()) return false;
+    BnfExpression node = getNonTrivialNode(rule.getExpression());
+    if (!GrammarUtil.collectExtraArguments(rule, node).isEmpty()) return false;
+    if (hasPinnedSubExpressions(rule, node, getFuncName(rule))) return false;
+    if (startsWithLeftRule(node, ContainerUtil.newTroveSet())) return false;
+    return !isRecursive(rule);
+  }
+
+  private boolean isRecursive(@NotNull BnfRule rule) {
+    Set<BnfRule> visited = ContainerUtil.newTroveSet();
+    LinkedList<BnfRule> queue = new LinkedList<>(myGraphHelper.getSubRules(rule));
+    while (!queue.isEmpty()) {
+      BnfRule r = queue.removeFirst();
+      if (r == rule) return true;
+      if (visited.add(r)) queue.addAll(myGraphHelper.getSubRules(r));
+    }
+    return false;
+  }
+
   @NotNull
   private ConsumeType getEffectiveConsumeType(@NotNull BnfRule rule, @Nullable BnfExpression node, @Nullable ConsumeType forcedConsumeType) {
     if (forcedConsumeType == ConsumeType.DEFAULT) return ConsumeType.DEFAULT;
@@ -1426,6 +1789,11 @@ public class ParserGenerator {
     }
     if (stubName != null && constructors.isEmpty()) imports.add(ISTUBELEMENTTYPE_CLASS);
     if (stubName != null) imports.add(stubName);
+    List<RuleMethodsHelper.MethodInfo> indexedAccessors = getChildIndexAccessors(rule);
+    if (ContainerUtil.exists(indexedAccessors, o -> o.cardinality.many())) {
+      imports.add(CommonClassNames.JAVA_UTIL_COLLECTIONS);
+      imports.add(SMART_LIST_CLASS);
+    }
 
     if (!G.generateTokenTypes) {
       // add parser static imports hoping external token constants are there
@@ -1442,6 +1810,10 @@ public class ParserGenerator {
     Java javaType = myAbstractRules.contains(rule.getName()) ? Java.ABSTRACT_CLASS : Java.CLASS;
     generateClassHeader(psiClass, imports, "", javaType, implSuper, superInterface);
     String shortName = StringUtil.getShortName(psiClass);
+    if (!indexedAccessors.isEmpty()) {
+      out("private volatile " + CHILD_INDEX_CLASS + " " + CHILD_INDEX_FIELD + ";");
+      newLine();
+    }
     if (constructors.isEmpty()) {
       out("public " + shortName + "(" + myShortener.fun(AST_NODE_CLASS) + " node) {");
       out("super(node);");
@@ -1478,7 +1850,105 @@ public class ParserGenerator {
       newLine();
     }
     generatePsiClassMethods(rule, false);
+    if (!indexedAccessors.isEmpty()) {
+      generateChildIndex(indexedAccessors);
+    }
+    out("}");
+  }
+
+  @NotNull
+  private List<RuleMethodsHelper.MethodInfo> getChildIndexAccessors(@NotNull BnfRule rule) {
+    if (!G.generatePsiChildIndex) return Collections.emptyList();
+    List<RuleMethodsHelper.MethodInfo> result = ContainerUtil.newArrayList();
+    for (RuleMethodsHelper.MethodInfo info : myRulesMethodsHelper.getFor(rule)) {
+      if (StringUtil.isEmpty(info.name)) continue;
+      if (info.type != RuleMethodsHelper.MethodType.RULE && info.type != RuleMethodsHelper.MethodType.TOKEN) continue;
+      if (isStubbedAccessor(rule, info)) continue; // stub accessors must not load AST
+      result.add(info);
+    }
+    return result;
+  }
+
+  /**
+   * Field names inside the index class, these cannot clash with the fields of a mixin.
+   */
+  private static String getChildIndexFieldName(@NotNull RuleMethodsHelper.MethodInfo info) {
+    return "my" + StringUtil.trimStart(info.generateGetterName(), "get");
+  }
+
+  /**
+   * The index is an immutable holder built in one pass over the children and published through a volatile field,
+   * <code>subtreeChanged()</code> drops it. Generated members start with <code>$</code> to stay clear of mixin members.
+   */
+  private void generateChildIndex(@NotNull List<RuleMethodsHelper.MethodInfo> accessors) {
+    out("@Override");
+    out("public void subtreeChanged() {");
+    out("super.subtreeChanged();");
+    out(CHILD_INDEX_FIELD + " = null;");
+    out("}");
+    newLine();
+    out("private " + CHILD_INDEX_CLASS + " " + CHILD_INDEX_GETTER + "() {");
+    out(CHILD_INDEX_CLASS + " index = " + CHILD_INDEX_FIELD + ";");
+    out("if (index == null) " + CHILD_INDEX_FIELD + " = index = new " + CHILD_INDEX_CLASS + "(this);");
+    out("return index;");
+    out("}");
+    newLine();
+    String psiElement = myShortener.fun(PSI_ELEMENT_CLASS);
+    out("private static final class " + CHILD_INDEX_CLASS + " {");
+    for (RuleMethodsHelper.MethodInfo info : accessors) {
+      out("final " + getPsiAccessorType(info) + getChildIndexFieldName(info) + ";");
+    }
+    newLine();
+    out(CHILD_INDEX_CLASS + "(" + psiElement + " element) {");
+    for (RuleMethodsHelper.MethodInfo info : accessors) {
+      out(getPsiAccessorType(info) + getChildIndexFieldName(info) + " = null;");
+    }
+    out("for (" + psiElement + " child = element.getFirstChild(); child != null; child = child.getNextSibling()) {");
+    for (RuleMethodsHelper.MethodInfo info : accessors) {
+      String field = getChildIndexFieldName(info);
+      if (info.rule == null) {
+        out("if (" + field + " == null && child.getNode().getElementType() == " + getElementType(info.path) + ") " + field + " = child;");
+      }
+      else if (info.cardinality.many()) {
+        String className = myShortener.fun(getAccessorType(info.rule));
+        out("if (child instanceof " + className + ") {");
+        out("if (" + field + " == null) " + field + " = new " + myShortener.fun(SMART_LIST_CLASS) + "<" + className + ">();");
+        out(field + ".add((" + className + ")child);");
+        out("}");
+      }
+      else {
+        String className = myShortener.fun(getAccessorType(info.rule));
+        out("if (" + field + " == null && child instanceof " + className + ") " + field + " = (" + className + ")child;");
+      }
+    }
+    out("}");
+    for (RuleMethodsHelper.MethodInfo info : accessors) {
+      String field = getChildIndexFieldName(info);
+      if (info.cardinality.many()) {
+        String collections = myShortener.fun(CommonClassNames.JAVA_UTIL_COLLECTIONS);
+        String className = myShortener.fun(getAccessorType(info.rule));
+        out("this." + field + " = " + field + " == null ? " + collections + ".<" + className + ">emptyList() : " +
+            collections + ".unmodifiableList(" + field + ");");
+      }
+      else {
+        out("this." + field + " = " + field + ";");
+      }
+    }
+    out("}");
     out("}");
+    newLine();
+  }
+
+  private String getPsiAccessorType(@NotNull RuleMethodsHelper.MethodInfo info) {
+    boolean many = info.cardinality.many();
+    String className = myShortener.fun(info.rule == null ? PSI_ELEMENT_CLASS : getAccessorType(info.rule));
+    return (many ? myShortener.fun(CommonClassNames.JAVA_UTIL_LIST) + "<" : "") + className + (many ? "> " : " ");
+  }
+
+  private boolean isStubbedAccessor(@NotNull BnfRule rule, @NotNull RuleMethodsHelper.MethodInfo methodInfo) {
+    return methodInfo.rule != null &&
+           myRulesStubNames.get(rule.getName()) != null &&
+           myRulesStubNames.get(methodInfo.rule.getName()) != null;
   }
 
   private void generatePsiClassMethods(BnfRule rule, boolean intf) {
@@ -1571,7 +2041,12 @@ public class ParserGenerator {
     String className = myShortener.fun(isToken ? PSI_ELEMENT_CLASS : getAccessorType(methodInfo.rule));
     String tail = intf ? "();" : "() {";
     out((intf ? "" : "public ") + (many ? myShortener.fun(CommonClassNames.JAVA_UTIL_LIST) + "<" : "") + className + (many ? "> " : " ") + getterName + tail);
-    if (!intf) {
+    if (!intf && G.generatePsiChildIndex && !isStubbedAccessor(rule, methodInfo)) {
+      String field = CHILD_INDEX_GETTER + "()." + getChildIndexFieldName(methodInfo);
+      out("return " + (type == REQUIRED && !many ? "notNullChild(" + field + ")" : field) + ";");
+      out("}");
+    }
+    else if (!intf) {
       out("return " + generatePsiAccessorImplCall(rule, methodInfo) + ";");
       out("}");
     }
@@ -1584,9 +2059,7 @@ public class ParserGenerator {
     RuleGraphHelper.Cardinality type = methodInfo.cardinality;
     boolean many = type.many();
     boolean required = type == REQUIRED && !many;
-    boolean stubbed = !isToken &&
-                      myRulesStubNames.get(rule.getName()) != null &&
-                      myRulesStubNames.get(methodInfo.rule.getName()) != null;
+    boolean stubbed = isStubbedAccessor(rule, methodInfo);
     // todo REMOVEME. Keep old generation logic for a while.
     if (myRulesStubNames.isEmpty()) {
       if (isToken) {
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.java;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.java.JavaHelper.ClassInfo;
+import org.intellij.grammar.java.JavaHelper.MethodInfo;
+import org.intellij.grammar.java.JavaHelper.MethodType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk index of class signatures (super class, interfaces, methods, parameter types and annotations)
+ * consulted by {@link JavaHelper.AsmHelper} instead of reading and parsing class files.
+ * <p/>
+ * The file is memory-mapped on load and a record is decoded on the first lookup of its class.
+ * Only the classes the generator looks up are indexed, class path roots are not scanned up front:
+ * a grammar resolves a few dozen classes while a typical compile class path holds tens of thousands.
+ * A record is keyed by the class file URL and is valid while the timestamp of the class file,
+ * or of the jar it comes from, stays the same.
+ * New and changed records are appended to the file, superseded ones are dropped when the file is loaded.
+ * <p/>
+ * Layout: header, then <code>url, timestamp, length, signature</code> records.
+ */
+public class ClassSignatureIndex {
+  private static final int MAGIC = 0x424e4649;
+  private static final int VERSION = 2;
+
+  private final File myFile;
+  private final Map<String, Record> myRecords = ContainerUtil.newLinkedHashMap();
+  private boolean myWriteFailed;
+
+  private static class Record {
+    final long timestamp;
+    /** a slice of the mapped file or of a new record */
+    final ByteBuffer data;
+
+    Record(long timestamp, ByteBuffer data) {
+      this.timestamp = timestamp;
+      this.data = data;
+    }
+  }
+
+  private ClassSignatureIndex(@NotNull File file) {
+    myFile = file;
+  }
+
+  /**
+   * Loads the index and rewrites it without superseded or damaged records if there are many.
+   */
+  @NotNull
+  public static ClassSignatureIndex load(@NotNull File indexFile) throws IOException {
+    ClassSignatureIndex index = new ClassSignatureIndex(indexFile);
+    int recordCount = -1;
+    if (indexFile.isFile()) {
+      try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+        recordCount = index.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+      catch (IOException | RuntimeException e) {
+        //noinspection UseOfSystemOutOrSystemErr
+        System.err.println("Signature index is corrupted and will be rebuilt: " + e);
+        index.myRecords.clear();
+      }
+    }
+    if (recordCount < 0 || recordCount > 2 * index.myRecords.size() + 100) {
+      index.compact();
+    }
+    return index;
+  }
+
+  /**
+   * @return the signature of the class file, read and indexed if not yet indexed or changed,
+   * or null if the class cannot be indexed
+   */
+  @Nullable
+  synchronized ClassInfo findClass(@NotNull String className, @NotNull URL classFile) {
+    long timestamp = getTimestamp(classFile);
+    if (timestamp <= 0) return null;
+    String key = classFile.toExternalForm();
+    Record record = myRecords.get(key);
+    try {
+      if (record == null || record.timestamp != timestamp) {
+        byte[] bytes;
+        try (InputStream is = classFile.openStream()) {
+          bytes = FileUtil.loadBytes(is);
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream(1024);
+        writeClassInfo(new DataOutputStream(data), JavaHelper.AsmHelper.getClassInfo(className, bytes));
+        record = new Record(timestamp, ByteBuffer.wrap(data.toByteArray()));
+        myRecords.put(key, record);
+        append(key, record);
+      }
+      return readClassInfo(className, new DataInputStream(new BufferInputStream(record.data.duplicate())));
+    }
+    catch (IOException | RuntimeException e) {
+      //noinspection UseOfSystemOutOrSystemErr
+      System.err.println(e.getClass().getSimpleName() + " while indexing " + className + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  public synchronized int getClassCount() {
+    return myRecords.size();
+  }
+
+  /**
+   * @return the timestamp of the class file or of the jar containing it, 0 if unknown
+   */
+  private static long getTimestamp(URL url) {
+    try {
+      if ("jar".equals(url.getProtocol())) {
+        String path = url.getPath();
+        int idx = path.indexOf("!/");
+        if (idx < 0) return 0;
+        url = new URL(path.substring(0, idx));
+      }
+      return "file".equals(url.getProtocol()) ? new File(url.toURI()).lastModified() : 0;
+    }
+    catch (IOException | URISyntaxException | IllegalArgumentException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * @return the number of records in the file, superseded ones included
+   */
+  private int read(ByteBuffer buffer) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferInputStream(buffer));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("unsupported format");
+    int count = 0;
+    while (buffer.hasRemaining()) {
+      try {
+        String key = in.readUTF();
+        long timestamp = in.readLong();
+        int length = in.readInt();
+        if (length < 0 || length > buffer.remaining()) break;
+        ByteBuffer data = buffer.slice();
+        data.limit(length);
+        myRecords.put(key, new Record(timestamp, data));
+        buffer.position(buffer.position() + length);
+        count++;
+      }
+      catch (EOFException e) {
+        return -1;
+      }
+    }
+    // a damaged tail is dropped by compaction
+    return buffer.hasRemaining() ? -1 : count;
+  }
+
+  private void append(String key, Record record) {
+    if (myWriteFailed) return;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile, true)))) {
+      writeRecord(out, key, record);
+    }
+    catch (IOException e) {
+      myWriteFailed = true;
+      //noinspection UseOfSystemOutOrSystemErr
+      System.err.println("Failed to save signature index: " + e);
+    }
+  }
+
+  private void compact() throws IOException {
+    File parent = myFile.getAbsoluteFile().getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+    File tempFile = File.createTempFile(myFile.getName(), ".tmp", parent);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (Map.Entry<String, Record> e : myRecords.entrySet()) {
+        writeRecord(out, e.getKey(), e.getValue());
+      }
+    }
+    try {
+      Files.move(tempFile.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (IOException e) {
+      // it is a cache anyway, new records are not saved this run
+      FileUtil.delete(tempFile);
+      myWriteFailed = true;
+      //noinspection UseOfSystemOutOrSystemErr
+      System.err.println("Failed to save signature index: " + e);
+    }
+  }
+
+  private static void writeRecord(DataOutputStream out, String key, Record record) throws IOException {
+    ByteBuffer data = record.data.duplicate();
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    out.writeUTF(key);
+    out.writeLong(record.timestamp);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static ClassInfo readClassInfo(String className, DataInputStream in) throws IOException {
+    ClassInfo info = new ClassInfo();
+    info.name = className;
+    info.superClass = readString(in);
+    info.modifiers = in.readInt();
+    readStrings(in, info.typeParameters);
+    readStrings(in, info.interfaces);
+    readStrings(in, info.annotations);
+    for (int i = 0, count = in.readInt(); i < count; i++) {
+      MethodInfo method = new MethodInfo();
+      method.declaringClass = className;
+      method.methodType = MethodType.values()[in.readByte()];
+      method.name = readString(in);
+      method.modifiers = in.readInt();
+      readStrings(in, method.annotations);
+      readStrings(in, method.types);
+      info.methods.add(method);
+    }
+    return info;
+  }
+
+  private static void writeClassInfo(DataOutputStream out, ClassInfo info) throws IOException {
+    writeString(out, info.superClass);
+    out.writeInt(info.modifiers);
+    writeStrings(out, info.typeParameters);
+    writeStrings(out, info.interfaces);
+    writeStrings(out, info.annotations);
+    out.writeInt(info.methods.size());
+    for (MethodInfo method : info.methods) {
+      out.writeByte(method.methodType.ordinal());
+      writeString(out, method.name);
+      out.writeInt(method.modifiers);
+      writeStrings(out, method.annotations);
+      writeStrings(out, method.types);
+    }
+    out.flush();
+  }
+
+  @Nullable
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeString(DataOutputStream out, @Nullable String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) out.writeUTF(s);
+  }
+
+  private static void readStrings(DataInputStream in, List<String> result) throws IOException {
+    for (int i = 0, count = in.readInt(); i < count; i++) {
+      result.add(readString(in));
+    }
+  }
+
+  private static void writeStrings(DataOutputStream out, List<String> list) throws IOException {
+    out.writeInt(list.size());
+    for (String s : list) {
+      writeString(out, s);
+    }
+  }
+
+  private static class BufferInputStream extends InputStream {
+    final ByteBuffer myBuffer;
+
+    BufferInputStream(ByteBuffer buffer) {
+      myBuffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return myBuffer.hasRemaining() ? myBuffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) {
+      if (len == 0) return 0;
+      if (!myBuffer.hasRemaining()) return -1;
+      int count = Math.min(len, myBuffer.remaining());
+      myBuffer.get(b, off, count);
+      return count;
+    }
+  }
+}
@@ -29,6 +29,7 @@ import com.intellij.psi.impl.FakePsiElement;
 import com.intellij.psi.impl.source.resolve.reference.impl.providers.JavaClassReferenceProvider;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.Function;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.ObjectUtils;
 import com.intellij.util.containers.ContainerUtil;
@@ -43,7 +44,10 @@ import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
 import java.lang.reflect.Type;
+import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author gregsh
@@ -109,6 +113,39 @@ public abstract class JavaHelper {
     return null;
   }
 
+  /**
+   * Drops the class and method lookups cached by the reflection and ASM helpers, including missing classes.
+   * Called before each generation run in the IDE so that classes compiled in between are seen.
+   */
+  public static void clearCaches() {
+    ReflectionHelper.ourClassCache.clear();
+    ReflectionHelper.ourMethodCache.clear();
+    AsmHelper.ourClassCache.clear();
+    AsmHelper.ourMethodCache.clear();
+  }
+
+  /**
+   * @return lookup cache hit/miss statistics, empty if the helper does not cache
+   */
+  @NotNull
+  public String getCacheStatistics() {
+    return "";
+  }
+
+
+  @NotNull
+  private static String getMethodKey(@NotNull String className,
+                                     @NotNull MethodType methodType,
+                                     @NotNull String methodName,
+                                     int paramCount,
+                                     String... paramTypes) {
+    StringBuilder sb = new StringBuilder(className).append('#').append(methodType).append('#').append(methodName);
+    sb.append('#').append(paramCount);
+    for (String paramType : paramTypes) {
+      sb.append('#').append(paramType);
+    }
+    return sb.toString();
+  }
 
   private static boolean acceptsName(@Nullable String expected, @Nullable String actual) {
     return "*".equals(expected) || expected != null && expected.equals(actual);
@@ -122,6 +159,11 @@ public abstract class JavaHelper {
   private static class PsiHelper extends AsmHelper {
     private final JavaPsiFacade myFacade;
     private final PsiElementFactory myElementFactory;
+    private final LookupCache<String, PsiClass> myClassCache = new LookupCache<>("classes", ContainerUtil.newConcurrentMap());
+    private final LookupCache<String, List<NavigatablePsiElement>> myMethodCache = new LookupCache<>("methods", ContainerUtil.newConcurrentMap());
+    private final LookupCache<PsiElement, List<String>> myTypesCache = new LookupCache<>("types", ContainerUtil.newConcurrentMap());
+    private final LookupCache<PsiElement, List<String>> myAnnotationsCache = new LookupCache<>("annotations", ContainerUtil.newConcurrentMap());
+    private long myCacheModCount = -1;
 
     private PsiHelper(JavaPsiFacade facade, PsiElementFactory elementFactory) {
       myFacade = facade;
@@ -154,14 +196,34 @@ public abstract class JavaHelper {
 
     private PsiClass findClassSafe(String className) {
       if (className == null) return null;
+      dropCachesIfChanged();
       try {
-        return myFacade.findClass(className, GlobalSearchScope.allScope(myFacade.getProject()));
+        PsiClass aClass = myClassCache.get(className, o -> myFacade.findClass(o, GlobalSearchScope.allScope(myFacade.getProject())));
+        return aClass != null && aClass.isValid() ? aClass : null;
       }
       catch (IndexNotReadyException e) {
         return null;
       }
     }
 
+    private void dropCachesIfChanged() {
+      long modCount = PsiManager.getInstance(myFacade.getProject()).getModificationTracker().getJavaStructureModificationCount();
+      if (myCacheModCount != modCount) {
+        myClassCache.clear();
+        myMethodCache.clear();
+        myTypesCache.clear();
+        myAnnotationsCache.clear();
+        myCacheModCount = modCount;
+      }
+    }
+
+    @NotNull
+    @Override
+    public String getCacheStatistics() {
+      return "psi " + myClassCache + ", " + myMethodCache + ", " + myTypesCache + ", " + myAnnotationsCache + "; " +
+             super.getCacheStatistics();
+    }
+
     @Override
     public NavigationItem findPackage(String packageName) {
       return myFacade.findPackage(packageName);
@@ -174,7 +236,18 @@ public abstract class JavaHelper {
                                                         @Nullable String methodName,
                                                         int paramCount,
                                                         String... paramTypes) {
-      if (methodName == null) return Collections.emptyList();
+      if (className == null || methodName == null) return Collections.emptyList();
+      dropCachesIfChanged();
+      String key = getMethodKey(className, methodType, methodName, paramCount, paramTypes);
+      return ObjectUtils.notNull(myMethodCache.get(key, o -> findClassMethodsInner(className, methodType, methodName, paramCount, paramTypes)));
+    }
+
+    @NotNull
+    private List<NavigatablePsiElement> findClassMethodsInner(@NotNull String className,
+                                                              @NotNull MethodType methodType,
+                                                              @NotNull String methodName,
+                                                              int paramCount,
+                                                              String... paramTypes) {
       PsiClass aClass = findClassSafe(className);
       if (aClass == null) return super.findClassMethods(className, methodType, methodName, paramCount, paramTypes);
       List<NavigatablePsiElement> result = ContainerUtil.newArrayList();
@@ -185,7 +258,7 @@ public abstract class JavaHelper {
         if (!acceptsMethod(myElementFactory, method, paramCount, paramTypes)) continue;
         result.add(method);
       }
-      return result;
+      return Collections.unmodifiableList(result);
     }
 
     @Nullable
@@ -233,7 +306,12 @@ public abstract class JavaHelper {
     @Override
     public List<String> getMethodTypes(NavigatablePsiElement method) {
       if (!(method instanceof PsiMethod)) return super.getMethodTypes(method);
-      PsiMethod psiMethod = (PsiMethod)method;
+      dropCachesIfChanged();
+      return ObjectUtils.notNull(myTypesCache.get(method, o -> getMethodTypesInner((PsiMethod)o)));
+    }
+
+    @NotNull
+    private static List<String> getMethodTypesInner(@NotNull PsiMethod psiMethod) {
       PsiType returnType = psiMethod.getReturnType();
       List<String> strings = new ArrayList<>();
       strings.add(returnType == null ? "" : returnType.getCanonicalText());
@@ -243,7 +321,7 @@ public abstract class JavaHelper {
         strings.add((generic ? "<" : "") + type.getCanonicalText(false) + (generic ? ">" : ""));
         strings.add(parameter.getName());
       }
-      return strings;
+      return Collections.unmodifiableList(strings);
     }
 
     @NotNull
@@ -259,18 +337,30 @@ public abstract class JavaHelper {
     @Override
     public List<String> getAnnotations(NavigatablePsiElement element) {
       if (!(element instanceof PsiModifierListOwner)) return super.getAnnotations(element);
-      PsiModifierList modifierList = ((PsiModifierListOwner)element).getModifierList();
+      dropCachesIfChanged();
+      return ObjectUtils.notNull(myAnnotationsCache.get(element, o -> getAnnotationsInner((PsiModifierListOwner)o)));
+    }
+
+    @NotNull
+    private static List<String> getAnnotationsInner(@NotNull PsiModifierListOwner element) {
+      PsiModifierList modifierList = element.getModifierList();
       if (modifierList == null) return ContainerUtilRt.emptyList();
       List<String> strings = new ArrayList<>();
       for (PsiAnnotation annotation : modifierList.getAnnotations()) {
         if (annotation.getParameterList().getAttributes().length > 0) continue;
         strings.add(annotation.getQualifiedName());
       }
-      return strings;
+      return Collections.unmodifiableList(strings);
     }
   }
 
   public static class ReflectionHelper extends JavaHelper {
+    // weak and soft references do not keep loaded classes and their class loaders alive
+    static final LookupCache<String, Class<?>> ourClassCache = new LookupCache<>("classes", ContainerUtil.createConcurrentWeakValueMap());
+    static final LookupCache<String, List<NavigatablePsiElement>> ourMethodCache = new LookupCache<>("methods", ContainerUtil.createConcurrentSoftValueMap());
+    static final LookupCache<Object, List<String>> ourTypesCache = new LookupCache<>("types", ContainerUtil.createConcurrentWeakMap());
+    static final LookupCache<Object, List<String>> ourAnnotationsCache = new LookupCache<>("annotations", ContainerUtil.createConcurrentWeakMap());
+
     @Override
     public boolean isPublic(@Nullable NavigatablePsiElement element) {
       Object delegate = element instanceof MyElement ? ((MyElement)element).delegate : null;
@@ -290,12 +380,20 @@ public abstract class JavaHelper {
     @Nullable
     private static Class<?> findClassSafe(String className) {
       if (className == null) return null;
-      try {
-        return Class.forName(className);
-      }
-      catch (Exception e) {
-        return null;
-      }
+      return ourClassCache.get(className, o -> {
+        try {
+          return Class.forName(o);
+        }
+        catch (Exception e) {
+          return null;
+        }
+      });
+    }
+
+    @NotNull
+    @Override
+    public String getCacheStatistics() {
+      return "reflection " + ourClassCache + ", " + ourMethodCache + ", " + ourTypesCache + ", " + ourAnnotationsCache;
     }
 
     @NotNull
@@ -305,8 +403,19 @@ public abstract class JavaHelper {
                                                         @Nullable String methodName,
                                                         int paramCount,
                                                         String... paramTypes) {
+      if (className == null || methodName == null) return Collections.emptyList();
+      String key = getMethodKey(className, methodType, methodName, paramCount, paramTypes);
+      return ObjectUtils.notNull(ourMethodCache.get(key, o -> findClassMethodsInner(className, methodType, methodName, paramCount, paramTypes)));
+    }
+
+    @NotNull
+    private static List<NavigatablePsiElement> findClassMethodsInner(@NotNull String className,
+                                                                     @NotNull MethodType methodType,
+                                                                     @NotNull String methodName,
+                                                                     int paramCount,
+                                                                     String... paramTypes) {
       Class<?> aClass = findClassSafe(className);
-      if (aClass == null || methodName == null) return Collections.emptyList();
+      if (aClass == null) return Collections.emptyList();
       List<NavigatablePsiElement> result = ContainerUtil.newArrayList();
       Member[] methods = methodType == MethodType.CONSTRUCTOR ? aClass.getDeclaredConstructors() : aClass.getDeclaredMethods();
       for (Member method : methods) {
@@ -315,7 +424,7 @@ public abstract class JavaHelper {
         if (!acceptsMethod(method, paramCount, paramTypes)) continue;
         result.add(new MyElement<>(method));
       }
-      return result;
+      return Collections.unmodifiableList(result);
     }
 
     @Nullable
@@ -353,7 +462,11 @@ public abstract class JavaHelper {
     @Override
     public List<String> getMethodTypes(NavigatablePsiElement method) {
       if (method == null) return Collections.emptyList();
-      Method delegate = ((MyElement<Method>)method).delegate;
+      return ObjectUtils.notNull(ourTypesCache.get(((MyElement<?>)method).delegate, o -> getMethodTypesInner((Method)o)));
+    }
+
+    @NotNull
+    private static List<String> getMethodTypesInner(@NotNull Method delegate) {
       Type[] parameterTypes = delegate.getGenericParameterTypes();
       List<String> result = new ArrayList<>(parameterTypes.length + 1);
       result.add(delegate.getGenericReturnType().toString());
@@ -362,7 +475,7 @@ public abstract class JavaHelper {
         result.add(parameterType.toString());
         result.add("p" + (paramCounter++));
       }
-      return result;
+      return Collections.unmodifiableList(result);
     }
 
     @NotNull
@@ -376,18 +489,36 @@ public abstract class JavaHelper {
     @Override
     public List<String> getAnnotations(NavigatablePsiElement element) {
       if (element == null) return Collections.emptyList();
-      AnnotatedElement delegate = ((MyElement<AnnotatedElement>)element).delegate;
+      return ObjectUtils.notNull(ourAnnotationsCache.get(((MyElement<?>)element).delegate, o -> getAnnotationsInner((AnnotatedElement)o)));
+    }
+
+    @NotNull
+    private static List<String> getAnnotationsInner(@NotNull AnnotatedElement delegate) {
       Annotation[] annotations = delegate.getDeclaredAnnotations();
       List<String> result = new ArrayList<>(annotations.length);
       for (Annotation annotation : annotations) {
         Class<? extends Annotation> annotationType = annotation.annotationType(); // todo parameters?
         result.add(annotationType.getCanonicalName());
       }
-      return result;
+      return Collections.unmodifiableList(result);
     }
   }
 
   public static class AsmHelper extends JavaHelper {
+    // method types and annotations are read with the class, so only class and method lookups are cached
+    static final LookupCache<String, ClassInfo> ourClassCache = new LookupCache<>("classes", ContainerUtil.newConcurrentMap());
+    static final LookupCache<String, List<NavigatablePsiElement>> ourMethodCache = new LookupCache<>("methods", ContainerUtil.newConcurrentMap());
+    private static volatile ClassSignatureIndex ourSignatureIndex;
+
+    /**
+     * Makes all ASM-based helpers consult the index before reading class files.
+     */
+    public static void setSignatureIndex(@Nullable ClassSignatureIndex index) {
+      ourSignatureIndex = index;
+      ourClassCache.clear();
+      ourMethodCache.clear();
+    }
+
     @Override
     public boolean isPublic(@Nullable NavigatablePsiElement element) {
       Object delegate = element instanceof MyElement ? ((MyElement)element).delegate : null;
@@ -411,8 +542,19 @@ public abstract class JavaHelper {
                                                         @Nullable final String methodName,
                                                         int paramCount,
                                                         String... paramTypes) {
+      if (className == null || methodName == null) return Collections.emptyList();
+      String key = getMethodKey(className, methodType, methodName, paramCount, paramTypes);
+      return ObjectUtils.notNull(ourMethodCache.get(key, o -> findClassMethodsInner(className, methodType, methodName, paramCount, paramTypes)));
+    }
+
+    @NotNull
+    private static List<NavigatablePsiElement> findClassMethodsInner(@NotNull String className,
+                                                                     @NotNull MethodType methodType,
+                                                                     @NotNull String methodName,
+                                                                     int paramCount,
+                                                                     String... paramTypes) {
       ClassInfo aClass = findClassSafe(className);
-      if (aClass == null || methodName == null) return Collections.emptyList();
+      if (aClass == null) return Collections.emptyList();
       List<NavigatablePsiElement> result = ContainerUtil.newArrayList();
       for (MethodInfo method : aClass.methods) {
         if (!acceptsName(methodName, method.name)) continue;
@@ -420,7 +562,7 @@ public abstract class JavaHelper {
         if (!acceptsMethod(method, paramCount, paramTypes)) continue;
         result.add(new MyElement<>(method));
       }
-      return result;
+      return Collections.unmodifiableList(result);
     }
 
     @Nullable
@@ -476,24 +618,37 @@ public abstract class JavaHelper {
       return Collections.emptyList();
     }
 
+    @NotNull
+    @Override
+    public String getCacheStatistics() {
+      return "asm " + ourClassCache + ", " + ourMethodCache;
+    }
+
     private static ClassInfo findClassSafe(String className) {
       if (className == null) return null;
+      return ourClassCache.get(className, AsmHelper::readClassInfo);
+    }
+
+    private static ClassInfo readClassInfo(String className) {
       try {
         int lastDot = className.length();
-        InputStream is;
+        URL url;
         do {
           String s = className.substring(0, lastDot).replace('.', '/') +
                      className.substring(lastDot).replace('.', '$') +
                      ".class";
-          is = JavaHelper.class.getClassLoader().getResourceAsStream(s);
+          url = JavaHelper.class.getClassLoader().getResource(s);
           lastDot = className.lastIndexOf('.', lastDot - 1);
         }
-        while(is == null && lastDot > 0);
-
-        if (is == null) return null;
-        byte[] bytes = FileUtil.loadBytes(is);
-        is.close();
-        return getClassInfo(className, bytes);
+        while(url == null && lastDot > 0);
+
+        if (url == null) return null;
+        ClassSignatureIndex index = ourSignatureIndex;
+        ClassInfo indexed = index == null ? null : index.findClass(className, url);
+        if (indexed != null) return indexed;
+        try (InputStream is = url.openStream()) {
+          return getClassInfo(className, FileUtil.loadBytes(is));
+        }
       }
       catch (Exception e) {
         reportException(e, className, null);
@@ -501,7 +656,7 @@ public abstract class JavaHelper {
       return null;
     }
 
-    private static ClassInfo getClassInfo(String className, byte[] bytes) {
+    static ClassInfo getClassInfo(String className, byte[] bytes) {
       final ClassInfo info = new ClassInfo();
       info.name = className;
       new ClassReader(bytes).accept(new MyClassVisitor(info), 0);
@@ -769,6 +924,61 @@ public abstract class JavaHelper {
     }
   }
 
+  /**
+   * Lookup results by key, missing classes and other null results are cached as well until {@link #clear()}.
+   * Hits and misses are counted since creation.
+   */
+  static class LookupCache<K, T> {
+    private static final Object NULL = ObjectUtils.NULL;
+
+    private final String myName;
+    private final ConcurrentMap<K, Object> myMap;
+    private final AtomicInteger myHits = new AtomicInteger();
+    private final AtomicInteger myMisses = new AtomicInteger();
+
+    LookupCache(@NotNull String name, @NotNull ConcurrentMap<K, Object> map) {
+      myName = name;
+      myMap = map;
+    }
+
+    @Nullable
+    T get(@NotNull K key, @NotNull Function<K, T> computable) {
+      Object value = myMap.get(key);
+      if (value != null) {
+        myHits.incrementAndGet();
+      }
+      else {
+        myMisses.incrementAndGet();
+        value = ObjectUtils.notNull(computable.fun(key), NULL);
+        Object prev = myMap.putIfAbsent(key, value);
+        if (prev != null) value = prev;
+      }
+      //noinspection unchecked
+      return value == NULL ? null : (T)value;
+    }
+
+    void clear() {
+      myMap.clear();
+    }
+
+    int getHits() {
+      return myHits.get();
+    }
+
+    int getMisses() {
+      return myMisses.get();
+    }
+
+    @Override
+    public String toString() {
+      int missing = 0;
+      for (Object o : myMap.values()) {
+        if (o == NULL) missing++;
+      }
+      return myName + ": " + myMap.size() + " (" + missing + " missing), hits: " + myHits.get() + ", misses: " + myMisses.get();
+    }
+  }
+
   private static class MyElement<T> extends FakePsiElement implements NavigatablePsiElement {
 
     final T delegate;
@@ -805,7 +1015,7 @@ public abstract class JavaHelper {
     }
   }
 
-  private static class ClassInfo {
+  static class ClassInfo {
     String name;
     String superClass;
     int modifiers;
@@ -815,7 +1025,7 @@ public abstract class JavaHelper {
     List<MethodInfo> methods = ContainerUtil.newSmartList();
   }
 
-  private static class MethodInfo {
+  static class MethodInfo {
     MethodType methodType;
     String name;
     String declaringClass;
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.livePreview;
+
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.SyntaxTraverser;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.ObjectUtils;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.generator.ParserGeneratorUtil;
+import org.intellij.grammar.psi.BnfChoice;
+import org.intellij.grammar.psi.BnfExpression;
+import org.intellij.grammar.psi.BnfFile;
+import org.intellij.grammar.psi.BnfRule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.intellij.grammar.psi.BnfTypes.BNF_CHOICE;
+
+/**
+ * Rule and choice alternative coverage of a corpus run through the live preview parser.
+ * <p/>
+ * Alternatives are named by their rule and their index in the grammar text, see {@link #getAlternativeName},
+ * not after the generated methods that change as the generator splits, inlines or factors rules,
+ * so the exported report, see {@link #write(Writer)} and {@link #read(Reader)}, can serve as a profile of the grammar.
+ * Token counts are lexer tokens including whitespace and comments, averaged over successful calls.
+ */
+public final class GrammarCoverage {
+  public static final String RULE = "rule";
+  public static final String ALTERNATIVE = "alternative";
+
+  public static final class Entry {
+    public final String kind;
+    public final String name;
+    public final String rule;
+    public final String text;
+    public long calls;
+    public long successes;
+    public long tokens;
+
+    Entry(@NotNull String kind, @NotNull String name, @NotNull String rule, @NotNull String text) {
+      this.kind = kind;
+      this.name = name;
+      this.rule = rule;
+      this.text = text;
+    }
+
+    public double getSuccessRatio() {
+      return calls == 0 ? 0 : (double)successes / calls;
+    }
+
+    public double getAverageTokens() {
+      return successes == 0 ? 0 : (double)tokens / successes;
+    }
+  }
+
+  final LivePreviewGrammar grammar;
+  private final BnfFile myFile;
+  private final LivePreviewLanguage myLanguage;
+  private final LivePreviewParserDefinition myParserDefinition;
+  private final Entry[] myRules;
+  /** per choice node id, null for other nodes */
+  private final Entry[][] myAlternatives;
+  private final List<Entry> myEntries = ContainerUtil.newArrayList();
+  private int myFiles;
+  private long myChars;
+
+  public GrammarCoverage(@NotNull BnfFile file, @NotNull LivePreviewLanguage language) {
+    myFile = file;
+    myLanguage = language;
+    myParserDefinition = new LivePreviewParserDefinition(language);
+    grammar = ObjectUtils.assertNotNull(LivePreviewGrammar.get(file, language));
+    myRules = new Entry[grammar.rules.length];
+    myAlternatives = new Entry[grammar.nodes.length][];
+    for (int i = 0; i < myRules.length; i++) {
+      String name = grammar.rules[i].getName();
+      myRules[i] = new Entry(RULE, name, name, "");
+      myEntries.add(myRules[i]);
+    }
+    // choices of meta rules are compiled per call but share the entries
+    Map<String, Entry> alternatives = ContainerUtil.newHashMap();
+    for (LivePreviewGrammar.Node node : grammar.nodes) {
+      if (node.section == null || node.section.type != BNF_CHOICE) continue;
+      int[] children = node.section.children;
+      Entry[] entries = myAlternatives[node.id] = new Entry[children.length];
+      for (int i = 0; i < children.length; i++) {
+        BnfExpression expression = grammar.nodes[children[i]].getExpression();
+        String name = getAlternativeName(node, i, expression);
+        Entry entry = alternatives.get(name);
+        if (entry == null) {
+          String text = expression == null ? "" : StringUtil.shortenTextWithEllipsis(
+            StringUtil.collapseWhiteSpace(expression.getText()), 60, 0);
+          alternatives.put(name, entry = new Entry(ALTERNATIVE, name, node.getRule().getName(), text));
+          myEntries.add(entry);
+        }
+        entries[i] = entry;
+      }
+    }
+  }
+
+  /**
+   * @return <code>rule#index</code> where index counts the alternatives of all choices in the rule in grammar order
+   */
+  @NotNull
+  private static String getAlternativeName(@NotNull LivePreviewGrammar.Node choice, int index, @Nullable BnfExpression expression) {
+    BnfRule rule = expression == null ? null : PsiTreeUtil.getParentOfType(expression, BnfRule.class);
+    if (rule != null) {
+      int offset = 0;
+      for (BnfChoice o : SyntaxTraverser.psiTraverser(rule.getExpression()).filter(BnfChoice.class)) {
+        List<BnfExpression> list = o.getExpressionList();
+        int idx = list.indexOf(expression);
+        if (idx >= 0) return rule.getName() + "#" + (offset + idx);
+        offset += list.size();
+      }
+    }
+    // not an alternative written in the grammar
+    return ParserGeneratorUtil.getNextName(choice.name, index);
+  }
+
+  /**
+   * Parses the text with the grammar and adds the calls to the coverage.
+   */
+  public void collect(@NotNull CharSequence text) {
+    Project project = myFile.getProject();
+    PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(
+      myParserDefinition, new LivePreviewLexer(project, myLanguage), text);
+    new LivePreviewParser(project, myLanguage).parseWithCoverage(myParserDefinition.getFileNodeType(), builder, this);
+    myFiles++;
+    myChars += text.length();
+  }
+
+  void ruleExit(int ruleIndex, boolean result, int tokens) {
+    add(myRules[ruleIndex], result, tokens);
+  }
+
+  void alternativeExit(int choiceId, int index, boolean result, int tokens) {
+    add(myAlternatives[choiceId][index], result, tokens);
+  }
+
+  private static void add(Entry entry, boolean result, int tokens) {
+    entry.calls++;
+    if (result) {
+      entry.successes++;
+      entry.tokens += tokens;
+    }
+  }
+
+  /**
+   * Rules in grammar order followed by alternatives.
+   */
+  @NotNull
+  public List<Entry> getEntries() {
+    return myEntries;
+  }
+
+  public int getFileCount() {
+    return myFiles;
+  }
+
+  @NotNull
+  public String getReport() {
+    StringBuilder sb = new StringBuilder();
+    int ruleCount = 0, coveredRules = 0, altCount = 0, coveredAlts = 0;
+    for (Entry entry : myEntries) {
+      boolean rule = RULE.equals(entry.kind);
+      if (rule) ruleCount++; else altCount++;
+      if (entry.successes > 0) {
+        if (rule) coveredRules++; else coveredAlts++;
+      }
+    }
+    sb.append(myFile.getName()).append(": ").append(myFiles).append(" files, ").append(myChars).append(" chars\n");
+    sb.append("rules matched: ").append(coveredRules).append(" of ").append(ruleCount)
+      .append(", alternatives matched: ").append(coveredAlts).append(" of ").append(altCount).append("\n\n");
+    sb.append(String.format(Locale.US, "%-40s %12s %8s %10s%n", "rule / alternative", "calls", "success", "avg tokens"));
+    for (Entry entry : myEntries) {
+      boolean rule = RULE.equals(entry.kind);
+      String name = rule ? entry.name : "  " + entry.name + " " + entry.text;
+      sb.append(String.format(Locale.US, "%-40s %12d %7.1f%% %10.1f%n", StringUtil.shortenTextWithEllipsis(name, 40, 0),
+                              entry.calls, entry.getSuccessRatio() * 100, entry.getAverageTokens()));
+    }
+    List<String> unused = ContainerUtil.newArrayList();
+    for (Entry entry : myEntries) {
+      if (entry.successes == 0) unused.add(entry.name);
+    }
+    if (!unused.isEmpty()) {
+      sb.append("\nnever matched: ").append(StringUtil.join(unused, ", ")).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Tab-separated <code>kind name rule calls successes tokens text</code> lines, <code>#</code> starts a comment.
+   */
+  public void write(@NotNull Writer writer) throws IOException {
+    writer.write("# grammar coverage of " + myFile.getName() + ": " + myFiles + " files, " + myChars + " chars\n");
+    writer.write("# kind\tname\trule\tcalls\tsuccesses\ttokens\ttext\n");
+    for (Entry entry : myEntries) {
+      writer.write(entry.kind + "\t" + entry.name + "\t" + entry.rule + "\t" +
+                   entry.calls + "\t" + entry.successes + "\t" + entry.tokens + "\t" + entry.text + "\n");
+    }
+    writer.flush();
+  }
+
+  @NotNull
+  public static List<Entry> read(@NotNull Reader reader) throws IOException {
+    List<Entry> result = ContainerUtil.newArrayList();
+    BufferedReader lines = new BufferedReader(reader);
+    for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      String[] columns = line.split("\t", -1);
+      if (columns.length < 6) throw new IOException("malformed coverage line: " + line);
+      Entry entry = new Entry(columns[0], columns[1], columns[2], columns.length > 6 ? columns[6] : "");
+      try {
+        entry.calls = Long.parseLong(columns[3]);
+        entry.successes = Long.parseLong(columns[4]);
+        entry.tokens = Long.parseLong(columns[5]);
+      }
+      catch (NumberFormatException e) {
+        throw new IOException("malformed coverage line: " + line, e);
+      }
+      result.add(entry);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,763 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.livePreview;
+
+import com.intellij.lang.BracePair;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.util.containers.ContainerUtil;
+import gnu.trove.TObjectIntHashMap;
+import org.intellij.grammar.KnownAttribute;
+import org.intellij.grammar.analysis.BnfFirstNextAnalyzer;
+import org.intellij.grammar.generator.*;
+import org.intellij.grammar.parser.GeneratedParserUtilBase;
+import org.intellij.grammar.psi.*;
+import org.intellij.grammar.psi.impl.GrammarUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.intellij.grammar.generator.ParserGeneratorUtil.*;
+import static org.intellij.grammar.parser.GeneratedParserUtilBase.*;
+import static org.intellij.grammar.psi.BnfTypes.*;
+
+/**
+ * Grammar compiled for {@link LivePreviewParser}.
+ * <p/>
+ * Rules, sub-expressions and calls are flattened into a node array. Nodes refer to each other and to rules by index
+ * and carry everything the interpreter needs: section modifiers, pin positions, token element types,
+ * token sequences and recovery data. The result is cached on the grammar file until it is modified.
+ */
+public final class LivePreviewGrammar {
+
+  // call nodes
+  static final int FALSE = 0;
+  static final int TOKEN = 1;
+  static final int TEXT_TOKEN = 2;
+  static final int RULE = 3;
+  static final int EXPRESSION_ROOT = 4;
+  static final int META_PARAMETER = 5;
+  static final int EXTERNAL_CALL = 6;
+  static final int EOF = 7;
+  static final int ANYTHING = 8;
+  // expression nodes
+  static final int TRUE = 9;
+  static final int EMPTY_ELEMENT = 10;
+  static final int ALIAS = 11;
+  static final int SECTION = 12;
+
+  // sequence steps
+  static final byte STEP_SKIP = 0;
+  static final byte STEP_FIRST = 1;
+  static final byte STEP_AND = 2;
+  static final byte STEP_PINNED_AND = 3;
+  static final byte STEP_REPORT = 4;
+  static final byte STEP_PINNED_REPORT = 5;
+
+  static final int RECOVER_NONE = 0;
+  static final int RECOVER_RULE = 1;
+  static final int RECOVER_AUTO = 2;
+  static final int RECOVER_META = 3;
+
+  private static final Key<CachedValue<ConcurrentMap<LivePreviewLanguage, LivePreviewGrammar>>> GRAMMAR_KEY = Key.create("LIVE_PREVIEW_GRAMMAR_KEY");
+
+  final BnfFile file;
+  final LivePreviewLanguage language;
+  final int root;
+  final BnfRule[] rules;
+  final int[] ruleEntries;
+  final Node[] nodes;
+  final ExpressionRoot[] expressionRoots;
+  final BracePair[] braces;
+
+  private final Map<IElementType, BitSet> myTypeExtendsSets;
+
+  @Nullable
+  public static LivePreviewGrammar get(@Nullable BnfFile file, @NotNull LivePreviewLanguage language) {
+    if (file == null) return null;
+    // element types belong to a language, each live preview of the same file gets its own grammar
+    ConcurrentMap<LivePreviewLanguage, LivePreviewGrammar> grammars = CachedValuesManager.getCachedValue(
+      file, GRAMMAR_KEY, () -> CachedValueProvider.Result.create(ContainerUtil.createConcurrentWeakMap(), file));
+    return grammars.computeIfAbsent(language, l -> new LivePreviewGrammar(file, l));
+  }
+
+  private LivePreviewGrammar(@NotNull BnfFile file, @NotNull LivePreviewLanguage language) {
+    this.file = file;
+    this.language = language;
+    Compiler compiler = new Compiler(file, language);
+    List<BnfRule> ruleList = file.getRules();
+    rules = ruleList.toArray(new BnfRule[ruleList.size()]);
+    ruleEntries = new int[rules.length];
+    for (int i = 0; i < rules.length; i++) {
+      compiler.ruleNumbers.put(rules[i], i);
+    }
+    for (int i = 0; i < rules.length; i++) {
+      ruleEntries[i] = compiler.expression(rules[i], rules[i].getExpression(), rules[i].getName());
+    }
+    root = rules.length > 0 ? 0 : -1;
+    nodes = compiler.nodes.toArray(new Node[compiler.nodes.size()]);
+    expressionRoots = compiler.expressionRoots.toArray(new ExpressionRoot[compiler.expressionRoots.size()]);
+    myTypeExtendsSets = compiler.typeExtendsSets;
+    List<BracePair> braceList = ContainerUtil.newArrayList();
+    ContainerUtil.addIfNotNull(braceList, compiler.tryMakeBracePair("{", "}", true));
+    ContainerUtil.addIfNotNull(braceList, compiler.tryMakeBracePair("(", ")", false));
+    ContainerUtil.addIfNotNull(braceList, compiler.tryMakeBracePair("[", "]", false));
+    ContainerUtil.addIfNotNull(braceList, compiler.tryMakeBracePair("<", ">", false));
+    braces = braceList.isEmpty() ? null : braceList.toArray(new BracePair[braceList.size()]);
+  }
+
+  boolean typeExtends(IElementType elementType1, IElementType elementType2) {
+    if (elementType1 == elementType2) return true;
+    BitSet sets1 = myTypeExtendsSets.get(elementType1);
+    BitSet sets2 = sets1 == null ? null : myTypeExtendsSets.get(elementType2);
+    return sets2 != null && sets1.intersects(sets2);
+  }
+
+  /**
+   * A call or an expression. Call nodes are passed to {@link LivePreviewParser#generateNodeCall},
+   * composite expressions are both.
+   */
+  public static final class Node {
+    final int id;
+    final int kind;
+    final BnfRule rule;
+    final BnfExpression expression;
+    final String name;
+
+    /** ALIAS and ANYTHING: nested call node, RULE and EXTERNAL_CALL: rule index, EXPRESSION_ROOT: expression root index */
+    int target = -1;
+    /** RULE: level increment, EXPRESSION_ROOT: priority */
+    int operand;
+    IElementType tokenType;
+    String text;
+    Section section;
+    Argument[] arguments;
+
+    Node(int id, int kind, BnfRule rule, @Nullable BnfExpression expression, String name) {
+      this.id = id;
+      this.kind = kind;
+      this.rule = rule;
+      this.expression = expression;
+      this.name = name;
+    }
+
+    @NotNull
+    public BnfRule getRule() {
+      return rule;
+    }
+
+    @Nullable
+    public BnfExpression getExpression() {
+      return expression;
+    }
+
+    @Override
+    public String toString() {
+      return "Node{" + id + ", " + kind + ", " + name + "}";
+    }
+  }
+
+  static final class Section {
+    IElementType type;
+    int[] children;
+    boolean isPrivate;
+    boolean alwaysTrue;
+    boolean initialResult;
+    boolean sectionRequired;
+    boolean sectionRequiredSimple;
+    int modifiers;
+    IElementType elementType;
+    String frameName;
+    String[] hookNames;
+    String[] hookValues;
+
+    int recoverKind = RECOVER_NONE;
+    int recoverRule = -1;
+    String recoverParameter;
+    Parser autoRecoverPredicate;
+
+    // BNF_SEQUENCE only
+    byte[] steps;
+    boolean[] pins;
+    IElementType[][] tokens;
+    int[] tokenPins;
+  }
+
+  static final class Argument {
+    static final int RULE = 0;
+    static final int PARAMETER = 1;
+    static final int NODE = 2;
+
+    final String name;
+    final int kind;
+    final int target;
+    final String parameter;
+
+    Argument(String name, int kind, int target, String parameter) {
+      this.name = name;
+      this.kind = kind;
+      this.target = target;
+      this.parameter = parameter;
+    }
+  }
+
+  static final class ExpressionRoot {
+    String name;
+    String kernelName;
+    String frameName;
+    int[] atoms;
+    Operator[] operators;
+  }
+
+  static final class Operator {
+    ExpressionHelper.OperatorType type;
+    int priority;
+    int argPriority;
+    boolean rightAssociative;
+    boolean checkArg1;
+    IElementType arg1Type;
+    IElementType elementType;
+    int operatorCall;
+    int tailCall = -1;
+    String operatorText;
+  }
+
+  private static final class Compiler {
+    final BnfFile file;
+    final LivePreviewLanguage language;
+    final GenOptions G;
+    final Map<String, String> simpleTokens;
+    final String tokenTypePrefix;
+    final RuleGraphHelper graphHelper;
+    final ExpressionHelper expressionHelper;
+    final BnfRule grammarRoot;
+
+    final TObjectIntHashMap<BnfRule> ruleNumbers = new TObjectIntHashMap<>();
+    final Map<String, IElementType> ruleElementTypes = ContainerUtil.newTroveMap();
+    final Map<String, IElementType> tokenElementTypes = ContainerUtil.newTroveMap();
+    final Map<IElementType, BitSet> typeExtendsSets = ContainerUtil.newHashMap();
+
+    final List<Node> nodes = ContainerUtil.newArrayList();
+    final List<ExpressionRoot> expressionRoots = ContainerUtil.newArrayList();
+    final Map<List<Object>, Integer> expressionNodes = ContainerUtil.newHashMap();
+    final Map<List<Object>, Integer> callNodes = ContainerUtil.newHashMap();
+    final Map<ExpressionHelper.ExpressionInfo, Integer> expressionInfos = ContainerUtil.newHashMap();
+
+    Compiler(BnfFile file, LivePreviewLanguage language) {
+      this.file = file;
+      this.language = language;
+      G = new GenOptions(file);
+      grammarRoot = ContainerUtil.getFirstItem(file.getRules());
+      simpleTokens = LivePreviewLexer.collectTokenPattern2Name(file, null);
+      tokenTypePrefix = getRootAttribute(file, KnownAttribute.ELEMENT_TYPE_PREFIX);
+      graphHelper = RuleGraphHelper.getCached(file);
+      expressionHelper = ExpressionHelper.getCached(file);
+
+      for (LivePreviewLexer.Token token : LivePreviewLexer.getTokens(file, language)) {
+        tokenElementTypes.put(token.constantName, token.tokenType);
+      }
+      for (BnfRule rule : file.getRules()) {
+        String elementType = ParserGeneratorUtil.getElementType(rule, G.generateElementCase);
+        if (StringUtil.isEmpty(elementType)) continue;
+        if (ruleElementTypes.containsKey(elementType)) continue;
+        ruleElementTypes.put(elementType, new LivePreviewElementType.RuleType(elementType, rule, language));
+      }
+      Map<String, BitSet> ruleExtendsSets = ContainerUtil.newHashMap();
+      int setIndex = 0;
+      for (Map.Entry<BnfRule, Collection<BnfRule>> entry : graphHelper.getRuleExtendsMap().entrySet()) {
+        for (BnfRule r : entry.getValue()) {
+          BitSet sets = ruleExtendsSets.get(r.getName());
+          if (sets == null) ruleExtendsSets.put(r.getName(), sets = new BitSet());
+          sets.set(setIndex);
+        }
+        setIndex++;
+      }
+      for (IElementType type : ruleElementTypes.values()) {
+        BitSet sets = ruleExtendsSets.get(((LivePreviewElementType.RuleType)type).ruleName);
+        if (sets != null) typeExtendsSets.put(type, sets);
+      }
+    }
+
+    private Node newNode(int kind, BnfRule rule, @Nullable BnfExpression expression, String name) {
+      Node node = new Node(nodes.size(), kind, rule, expression, name);
+      nodes.add(node);
+      return node;
+    }
+
+    /**
+     * Counterpart of the interpreter <code>expression</code> method.
+     */
+    int expression(BnfRule rule, BnfExpression initialNode, String funcName) {
+      List<Object> key = Arrays.asList(rule, initialNode, funcName);
+      Integer existing = expressionNodes.get(key);
+      if (existing != null) return existing;
+      int id = compileExpression(rule, initialNode, funcName);
+      expressionNodes.put(key, id);
+      return id;
+    }
+
+    private int compileExpression(BnfRule rule, BnfExpression initialNode, String funcName) {
+      boolean isRule = initialNode.getParent() == rule;
+      BnfExpression node = getNonTrivialNode(initialNode);
+
+      IElementType type = getEffectiveType(node);
+
+      boolean firstNonTrivial = node == ParserGeneratorUtil.Rule.firstNotTrivial(rule);
+      boolean isPrivate = !(isRule || firstNonTrivial) || ParserGeneratorUtil.Rule.isPrivate(rule) || grammarRoot == rule;
+      boolean isLeft = firstNonTrivial && ParserGeneratorUtil.Rule.isLeft(rule);
+      boolean isLeftInner = isLeft && (isPrivate || ParserGeneratorUtil.Rule.isInner(rule));
+      boolean isBranch = !isPrivate && Rule.isUpper(rule);
+      String recoverWhile = firstNonTrivial ? getAttribute(rule, KnownAttribute.RECOVER_WHILE) : null;
+      Map<String, String> hooks = firstNonTrivial ? getAttribute(rule, KnownAttribute.HOOKS).asMap() : Collections.emptyMap();
+      boolean canCollapse = !isPrivate && (!isLeft || isLeftInner) && firstNonTrivial && graphHelper.canCollapse(rule);
+
+      IElementType elementType = getRuleElementType(rule);
+
+      List<BnfExpression> children;
+      if (node instanceof BnfReferenceOrToken || node instanceof BnfLiteralExpression || node instanceof BnfExternalExpression) {
+        children = Collections.singletonList(node);
+        if (isPrivate && !isLeftInner && recoverWhile == null) {
+          Node alias = newNode(ALIAS, rule, initialNode, funcName);
+          alias.target = call(rule, node, getNextName(funcName, 0));
+          return alias.id;
+        }
+        else {
+          type = BNF_SEQUENCE;
+        }
+      }
+      else {
+        children = getChildExpressions(node);
+        if (children.isEmpty() && recoverWhile == null) {
+          if (isPrivate || elementType == null) {
+            return newNode(TRUE, rule, initialNode, funcName).id;
+          }
+          else {
+            Node empty = newNode(EMPTY_ELEMENT, rule, initialNode, funcName);
+            empty.tokenType = elementType;
+            return empty.id;
+          }
+        }
+      }
+      Node result = newNode(SECTION, rule, initialNode, funcName);
+      Section s = result.section = new Section();
+      s.type = type;
+      s.isPrivate = isPrivate;
+      s.elementType = elementType;
+      s.frameName = firstNonTrivial && !Rule.isMeta(rule) ? getRuleDisplayName(rule, !isPrivate) : null;
+
+      PinMatcher pinMatcher = new PinMatcher(rule, type, firstNonTrivial ? rule.getName() : funcName);
+      s.alwaysTrue = type == BNF_OP_OPT || type == BNF_OP_ZEROMORE;
+      s.initialResult = type == BNF_OP_ZEROMORE || type == BNF_OP_OPT || children.isEmpty();
+      boolean pinned = pinMatcher.active();
+
+      int modifiers = 0;
+      if (canCollapse) modifiers |= _COLLAPSE_;
+      if (isLeftInner) modifiers |= _LEFT_INNER_;
+      else if (isLeft) modifiers |= _LEFT_;
+      if (type == BNF_OP_AND) modifiers |= _AND_;
+      else if (type == BNF_OP_NOT) modifiers |= _NOT_;
+      if (isBranch) modifiers |= _UPPER_;
+      s.modifiers = modifiers;
+
+      s.sectionRequired = !s.alwaysTrue || !isPrivate || isLeft || recoverWhile != null;
+      s.sectionRequiredSimple = s.sectionRequired && modifiers == _NONE_ && recoverWhile == null && !(pinned || s.frameName != null);
+
+      int size = children.size();
+      s.children = new int[size];
+      if (type == BNF_SEQUENCE) {
+        compileSequence(rule, children, funcName, pinMatcher, s);
+      }
+      else if (type == BNF_CHOICE || type == BNF_OP_OPT || type == BNF_OP_ONEMORE || type == BNF_OP_ZEROMORE ||
+               type == BNF_OP_AND || type == BNF_OP_NOT) {
+        for (int i = 0; i < size; i++) {
+          s.children[i] = call(rule, children.get(i), getNextName(funcName, i));
+        }
+      }
+      else if (size > 0) {
+        addWarning(file.getProject(), "unexpected: " + type);
+      }
+
+      if (!hooks.isEmpty()) {
+        List<String> names = ContainerUtil.newArrayList();
+        List<String> values = ContainerUtil.newArrayList();
+        for (Map.Entry<String, String> entry : hooks.entrySet()) {
+          if (entry.getValue() == null) continue;
+          names.add(ParserGeneratorUtil.toIdentifier(entry.getKey(), null, Case.UPPER));
+          values.add(entry.getValue());
+        }
+        s.hookNames = names.toArray(new String[names.size()]);
+        s.hookValues = values.toArray(new String[values.size()]);
+      }
+
+      if (BnfConstants.RECOVER_AUTO.equals(recoverWhile)) {
+        IElementType[] nextTokens = generateAutoRecoverCall(rule);
+        s.recoverKind = RECOVER_AUTO;
+        s.autoRecoverPredicate = (builder, level) -> !GeneratedParserUtilBase.nextTokenIsFast(builder, nextTokens);
+      }
+      else if (Rule.isMeta(rule) && GrammarUtil.isDoubleAngles(recoverWhile)) {
+        s.recoverKind = RECOVER_META;
+        s.recoverParameter = recoverWhile.substring(2, recoverWhile.length() - 2);
+      }
+      else {
+        BnfRule recoverRule = recoverWhile != null ? file.getRule(recoverWhile) : null;
+        if (recoverRule != null) {
+          s.recoverKind = RECOVER_RULE;
+          s.recoverRule = ruleNumbers.get(recoverRule);
+        }
+      }
+      return result.id;
+    }
+
+    /**
+     * Pin and token sequence positions do not depend on the input and are resolved here,
+     * the interpreter only tracks the result and pinned flags.
+     */
+    private void compileSequence(BnfRule rule, List<BnfExpression> children, String funcName, PinMatcher pinMatcher, Section s) {
+      int size = children.size();
+      s.steps = new byte[size];
+      s.pins = new boolean[size];
+      s.tokens = new IElementType[size][];
+      s.tokenPins = new int[size];
+      boolean pinApplied = false;
+      boolean predicateEncountered = false;
+      int skip = 0;
+      for (int i = 0, p = 0; i < size; i++) {
+        BnfExpression child = children.get(i);
+        predicateEncountered |= pinApplied && ParserGeneratorUtil.getEffectiveExpression(file, child) instanceof BnfPredicate;
+        if (skip == 0) {
+          if (i == 0) {
+            s.steps[i] = STEP_FIRST;
+          }
+          else if (pinApplied && G.generateExtendedPin && !predicateEncountered) {
+            if (i == size - 1) {
+              // do not report error for last child
+              s.steps[i] = i == p + 1 ? STEP_AND : STEP_PINNED_AND;
+            }
+            else {
+              s.steps[i] = i == p + 1 ? STEP_REPORT : STEP_PINNED_REPORT;
+            }
+          }
+          else {
+            s.steps[i] = STEP_AND;
+          }
+          skip = compileTokenSequence(rule, children, funcName, i, pinMatcher, pinApplied, s);
+        }
+        else {
+          s.steps[i] = STEP_SKIP;
+          skip--; // we are inside already generated token sequence
+          if (pinApplied && i == p + 1) p++; // shift pinned index as we skip
+        }
+        if (!pinApplied && pinMatcher.matches(i, child)) {
+          pinApplied = true;
+          p = i;
+          s.pins[i] = true;
+        }
+      }
+    }
+
+    /**
+     * @return number of children consumed by the token sequence after the first one
+     */
+    private int compileTokenSequence(BnfRule rule,
+                                     List<BnfExpression> children,
+                                     String funcName,
+                                     int startIndex,
+                                     PinMatcher pinMatcher,
+                                     boolean pinApplied,
+                                     Section s) {
+      BnfExpression nextChild = children.get(startIndex);
+      if (startIndex == children.size() - 1 || !isTokenExpression(nextChild)) {
+        s.children[startIndex] = call(rule, nextChild, funcName);
+        return 0;
+      }
+      List<IElementType> list = ContainerUtil.newArrayList();
+      int pin = pinApplied ? -1 : 0;
+      for (int i = startIndex, len = children.size(); i < len; i++) {
+        BnfExpression child = children.get(i);
+        IElementType type = child.getNode().getElementType();
+        String text = child.getText();
+        String tokenName;
+        if (type == BNF_STRING && text.charAt(0) != '\"') {
+          tokenName = simpleTokens.get(GrammarUtil.unquote(text));
+        }
+        else if (type == BNF_REFERENCE_OR_TOKEN && file.getRule(text) == null) {
+          tokenName = text;
+        }
+        else {
+          break;
+        }
+        list.add(getTokenElementType(tokenName));
+        if (!pinApplied && pinMatcher.matches(i, child)) {
+          pin = i - startIndex + 1;
+        }
+      }
+      if (list.size() < 2) {
+        s.children[startIndex] = call(rule, nextChild, funcName);
+        return 0;
+      }
+      s.children[startIndex] = -1;
+      s.tokens[startIndex] = list.toArray(new IElementType[list.size()]);
+      s.tokenPins[startIndex] = pin;
+      return list.size() - 1;
+    }
+
+    /**
+     * Counterpart of the interpreter <code>generateNodeCall</code> method, <code>node</code> is null for rule calls by name.
+     */
+    int call(BnfRule rule, @Nullable BnfExpression node, String nextName) {
+      List<Object> key = Arrays.asList(rule, node, nextName);
+      Integer existing = callNodes.get(key);
+      if (existing != null) return existing;
+      int id = compileCall(rule, node, nextName);
+      callNodes.put(key, id);
+      return id;
+    }
+
+    private int compileCall(BnfRule rule, @Nullable BnfExpression node, String nextName) {
+      IElementType type = node == null ? BNF_REFERENCE_OR_TOKEN : getEffectiveType(node);
+      String text = node == null ? nextName : node.getText();
+      if (type == BNF_STRING) {
+        String value = GrammarUtil.unquote(text);
+        String tokenName = simpleTokens.get(value);
+        if (tokenName != null) {
+          return tokenCall(rule, node, nextName, tokenName);
+        }
+        Node result = newNode(TEXT_TOKEN, rule, node, nextName);
+        result.text = value;
+        return result.id;
+      }
+      else if (type == BNF_NUMBER) {
+        Node result = newNode(TEXT_TOKEN, rule, node, nextName);
+        result.text = text;
+        return result.id;
+      }
+      else if (type == BNF_REFERENCE_OR_TOKEN) {
+        BnfRule subRule = file.getRule(text);
+        if (subRule != null) {
+          if (Rule.isExternal(subRule)) {
+            // not supported
+            return newNode(FALSE, rule, node, nextName).id;
+          }
+          ExpressionHelper.ExpressionInfo info = ExpressionGeneratorHelper.getInfoForExpressionParsing(expressionHelper, subRule);
+          if (info == null) {
+            Node result = newNode(RULE, rule, node, nextName);
+            result.target = ruleNumbers.get(subRule);
+            result.operand = 1;
+            return result.id;
+          }
+          int priority = info.getPriority(rule);
+          int arg1Priority = subRule == info.rootRule ? -1 : info.getPriority(subRule);
+          int argPriority = arg1Priority == -1 ? (priority == info.nextPriority - 1 ? -1 : priority) : arg1Priority - 1;
+          Node result = newNode(EXPRESSION_ROOT, rule, node, nextName);
+          result.operand = argPriority;
+          result.target = expressionRoot(info);
+          return result.id;
+        }
+        return tokenCall(rule, node, nextName, text);
+      }
+      else if (type == BNF_EXTERNAL_EXPRESSION) {
+        List<BnfExpression> expressions = ((BnfExternalExpression)node).getExpressionList();
+        if (expressions.size() == 1 && Rule.isMeta(rule)) {
+          Node result = newNode(META_PARAMETER, rule, node, nextName);
+          result.text = node.getText();
+          return result.id;
+        }
+        return externalCall(rule, node, expressions, nextName);
+      }
+      else {
+        return expression(rule, node, nextName);
+      }
+    }
+
+    private int tokenCall(BnfRule rule, @Nullable BnfExpression node, String nextName, String tokenName) {
+      IElementType tokenType = getTokenElementType(tokenName);
+      if (tokenType == null) return newNode(FALSE, rule, node, nextName).id;
+      Node result = newNode(TOKEN, rule, node, nextName);
+      result.tokenType = tokenType;
+      return result.id;
+    }
+
+    private int externalCall(BnfRule rule, BnfExpression node, List<BnfExpression> expressions, String nextName) {
+      String method = expressions.size() > 0 ? expressions.get(0).getText() : null;
+      BnfRule targetRule = method == null ? null : file.getRule(method);
+      if (targetRule == null) {
+        // Hard-coded extensions:
+        if ("eof".equals(method) && expressions.size() == 1) {
+          return newNode(EOF, rule, node, nextName).id;
+        }
+        else if ("anything".equals(method) && expressions.size() == 2) {
+          Node result = newNode(ANYTHING, rule, node, nextName);
+          result.target = call(rule, expressions.get(1), getNextName(nextName, 0));
+          return result.id;
+        }
+        // not supported
+        return newNode(FALSE, rule, node, nextName).id;
+      }
+      if (Rule.isExternal(targetRule)) {
+        // not supported
+        return newNode(FALSE, rule, node, nextName).id;
+      }
+      List<String> metaParameterNames = GrammarUtil.collectExtraArguments(targetRule, targetRule.getExpression());
+      Node result = newNode(EXTERNAL_CALL, rule, node, nextName);
+      result.target = ruleNumbers.get(targetRule);
+      if (expressions.size() <= 1) return result.id;
+
+      List<Argument> arguments = ContainerUtil.newArrayList();
+      for (int i = 1, len = Math.min(expressions.size(), metaParameterNames.size() + 1); i < len; i++) {
+        BnfExpression nested = expressions.get(i);
+        String argNextName = getNextName(nextName, i - 1);
+        String argName = metaParameterNames.get(i - 1);
+        if (nested instanceof BnfReferenceOrToken || nested instanceof BnfLiteralExpression) {
+          BnfRule argRule = nested instanceof BnfReferenceOrToken ? file.getRule(nested.getText()) : null;
+          if (argRule != null) {
+            arguments.add(new Argument(argName, Argument.RULE, ruleNumbers.get(argRule), null));
+          }
+          else {
+            arguments.add(new Argument(argName, Argument.NODE, call(rule, nested, nextName), null));
+          }
+        }
+        else if (nested instanceof BnfExternalExpression) {
+          List<BnfExpression> expressionList = ((BnfExternalExpression)nested).getExpressionList();
+          if (Rule.isMeta(rule) && expressionList.size() == 1) {
+            // parameter
+            arguments.add(new Argument(argName, Argument.PARAMETER, -1, expressionList.get(0).getText()));
+          }
+          else {
+            arguments.add(new Argument(argName, Argument.NODE, call(targetRule, nested, argNextName), null));
+          }
+        }
+        else {
+          arguments.add(new Argument(argName, Argument.NODE, call(targetRule, nested, argNextName), null));
+        }
+      }
+      result.arguments = arguments.toArray(new Argument[arguments.size()]);
+      return result.id;
+    }
+
+    private int expressionRoot(ExpressionHelper.ExpressionInfo info) {
+      Integer existing = expressionInfos.get(info);
+      if (existing != null) return existing;
+      int index = expressionRoots.size();
+      ExpressionRoot root = new ExpressionRoot();
+      expressionRoots.add(root);
+      expressionInfos.put(info, index);
+
+      Map<String, List<ExpressionHelper.OperatorInfo>> opCalls = new LinkedHashMap<>();
+      for (BnfRule rule : info.priorityMap.keySet()) {
+        ExpressionHelper.OperatorInfo operator = info.operatorMap.get(rule);
+        String opCall = getNextName(operator.rule.getName(), 0);
+        List<ExpressionHelper.OperatorInfo> list = opCalls.get(opCall);
+        if (list == null) opCalls.put(opCall, list = new ArrayList<>(2));
+        list.add(operator);
+      }
+      root.name = info.rootRule.getName();
+      root.kernelName = getNextName(root.name, 0);
+      root.frameName = quote(ParserGeneratorUtil.getRuleDisplayName(info.rootRule, true));
+
+      List<ExpressionHelper.OperatorInfo> atoms =
+        filter(opCalls, ExpressionHelper.OperatorType.ATOM, ExpressionHelper.OperatorType.PREFIX);
+      root.atoms = new int[atoms.size()];
+      for (int i = 0; i < atoms.size(); i++) {
+        BnfRule rule = atoms.get(i).rule;
+        root.atoms[i] = call(rule, null, rule.getName());
+      }
+      List<ExpressionHelper.OperatorInfo> operators =
+        filter(opCalls, ExpressionHelper.OperatorType.BINARY, ExpressionHelper.OperatorType.N_ARY, ExpressionHelper.OperatorType.POSTFIX);
+      root.operators = new Operator[operators.size()];
+      for (int i = 0; i < operators.size(); i++) {
+        ExpressionHelper.OperatorInfo operator = operators.get(i);
+        Operator o = root.operators[i] = new Operator();
+        o.type = operator.type;
+        o.priority = info.getPriority(operator.rule);
+        int arg2Priority = operator.arg2 == null ? -1 : info.getPriority(operator.arg2);
+        o.argPriority = arg2Priority == -1 ? o.priority : arg2Priority - 1;
+        o.checkArg1 = operator.arg1 != null;
+        o.arg1Type = operator.arg1 == null ? null : getRuleElementType(operator.arg1);
+        o.elementType = getRuleElementType(operator.rule);
+        o.rightAssociative = ParserGeneratorUtil.getAttribute(operator.rule, KnownAttribute.RIGHT_ASSOCIATIVE);
+        o.operatorText = operator.operator.getText();
+        o.operatorCall = call(info.rootRule, operator.operator, getNextName(operator.rule.getName(), 0));
+        if (operator.tail != null) {
+          o.tailCall = call(operator.rule, operator.tail, getNextName(operator.rule.getName(), 1));
+        }
+      }
+      return index;
+    }
+
+    private static List<ExpressionHelper.OperatorInfo> filter(Map<String, List<ExpressionHelper.OperatorInfo>> opCalls,
+                                                             ExpressionHelper.OperatorType... operatorTypes) {
+      List<ExpressionHelper.OperatorInfo> result = ContainerUtil.newArrayList();
+      for (List<ExpressionHelper.OperatorInfo> list : opCalls.values()) {
+        ContainerUtil.addIfNotNull(result, ContainerUtil.getFirstItem(ExpressionGeneratorHelper.findOperators(list, operatorTypes)));
+      }
+      return result;
+    }
+
+    /**
+     * @noinspection StringEquality
+     */
+    private IElementType[] generateAutoRecoverCall(BnfRule rule) {
+      BnfFirstNextAnalyzer analyzer = new BnfFirstNextAnalyzer();
+      Set<BnfExpression> nextExprSet = analyzer.calcNext(rule).keySet();
+      Set<String> nextSet = analyzer.asStrings(nextExprSet);
+      List<IElementType> tokenTypes = new ArrayList<>(nextSet.size());
+
+      for (String s : nextSet) {
+        if (file.getRule(s) != null) continue; // ignore left recursion
+        if (s == BnfFirstNextAnalyzer.MATCHES_EOF || s == BnfFirstNextAnalyzer.MATCHES_NOTHING) continue;
+
+        boolean unknown = s == BnfFirstNextAnalyzer.MATCHES_ANY;
+        IElementType t = unknown ? null : getTokenElementType(simpleTokens.get(GrammarUtil.unquote(s)));
+        if (t != null) {
+          tokenTypes.add(t);
+        }
+        else {
+          tokenTypes.clear();
+          break;
+        }
+      }
+      return tokenTypes.toArray(new IElementType[tokenTypes.size()]);
+    }
+
+    private boolean isTokenExpression(BnfExpression node) {
+      return node instanceof BnfLiteralExpression || node instanceof BnfReferenceOrToken && file.getRule(node.getText()) == null;
+    }
+
+    @Nullable
+    private BracePair tryMakeBracePair(String s1, String s2, boolean structural) {
+      IElementType t1 = getTokenElementType(simpleTokens.get(s1));
+      IElementType t2 = getTokenElementType(simpleTokens.get(s2));
+      return t1 != null && t2 != null ? new BracePair(t1, t2, structural) : null;
+    }
+
+    @Nullable
+    private IElementType getRuleElementType(BnfRule rule) {
+      String elementType = ParserGeneratorUtil.getElementType(rule, G.generateElementCase);
+      return StringUtil.isEmpty(elementType) ? null : ruleElementTypes.get(elementType);
+    }
+
+    private IElementType getTokenElementType(String token) {
+      return token == null ? null : tokenElementTypes.get(tokenTypePrefix + token.toUpperCase());
+    }
+  }
+}
@@ -18,6 +18,7 @@ package org.intellij.grammar.livePreview;
 
 import com.intellij.lang.*;
 import com.intellij.lexer.Lexer;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.EditorFactory;
@@ -27,30 +28,30 @@ import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.ex.FileEditorManagerEx;
 import com.intellij.openapi.fileEditor.impl.EditorWindow;
-import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.NotNullLazyKey;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
-import com.intellij.psi.TokenType;
 import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.Alarm;
 import com.intellij.util.FileContentUtil;
 import com.intellij.util.PairProcessor;
-import com.intellij.util.SingleAlarm;
 import com.intellij.util.containers.ContainerUtil;
-import org.intellij.grammar.parser.GeneratedParserUtilBase;
+import org.intellij.grammar.BnfFileType;
 import org.intellij.grammar.psi.BnfExpression;
 import org.intellij.grammar.psi.BnfFile;
-import org.intellij.grammar.psi.BnfRule;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.util.Collection;
-import java.util.Map;
+import java.util.List;
+import java.util.Set;
 
 /**
  * @author gregsh
@@ -101,102 +102,136 @@ public class LivePreviewHelper {
     LanguageParserDefinitions.INSTANCE.removeExplicitExtension(language, LanguageParserDefinitions.INSTANCE.forLanguage(language));
   }
 
-  private static final NotNullLazyKey<SingleAlarm, Project> LIVE_PREVIEW_ALARM =
-    NotNullLazyKey.create("LIVE_PREVIEW_ALARM",
-                          project -> new SingleAlarm(() -> reparseAllLivePreviews(project), 300, Alarm.ThreadToUse.SWING_THREAD, project));
-  private static void installUpdateListener(final Project project) {
-    EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentAdapter() {
+  private static final NotNullLazyKey<PreviewUpdater, Project> LIVE_PREVIEW_UPDATER =
+    NotNullLazyKey.create("LIVE_PREVIEW_UPDATER", PreviewUpdater::new);
 
-      FileDocumentManager fileManager = FileDocumentManager.getInstance();
-      PsiManager psiManager = PsiManager.getInstance(project);
-
-      @Override
-      public void documentChanged(DocumentEvent e) {
-        Document document = e.getDocument();
-        VirtualFile file = fileManager.getFile(document);
-        PsiFile psiFile = file == null ? null : psiManager.findFile(file);
-        if (psiFile instanceof BnfFile) {
-          LIVE_PREVIEW_ALARM.getValue(project).cancelAndRequest();
-        }
-      }
-    }, project);
-
-    //project.getMessageBus().connect(project).subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER, new FileEditorManagerAdapter() {
-    //  @Override
-    //  public void fileOpened(FileEditorManager source, VirtualFile file) {
-    //
-    //
-    //    // add structure component
-    //
-    //    FileEditor fileEditor = source.getSelectedEditor(file);
-    //    if (!(fileEditor instanceof TextEditor)) return;
-    //    StructureViewBuilder builder =
-    //      StructureViewBuilder.PROVIDER.getStructureViewBuilder(file.getFileType(), file, project);
-    //    if (builder == null) return;
-    //    StructureView structureView = builder.createStructureView(fileEditor, project);
-    //
-    //    Editor editor = ((TextEditor)fileEditor).getEditor();
-    //    editor.getComponent().getParent().getParent().add(structureView.getComponent(), BorderLayout.EAST);
-    //    Disposer.register(fileEditor, structureView);
-    //  }
-    //});
+  static void installUpdateListener(final Project project) {
+    LIVE_PREVIEW_UPDATER.getValue(project);
   }
 
-  private static void reparseAllLivePreviews(@NotNull Project project) {
-    if (!project.isOpen()) return;
-    PsiDocumentManager.getInstance(project).commitAllDocuments();
+  static void reparseLivePreviews(@NotNull Project project, @NotNull Collection<LivePreviewLanguage> languages) {
+    if (!project.isOpen() || languages.isEmpty()) return;
     Collection<VirtualFile> files = ContainerUtil.newLinkedHashSet();
     FileEditorManager fileEditorManager = FileEditorManager.getInstance(project);
     PsiManager psiManager = PsiManager.getInstance(project);
     for (VirtualFile file : fileEditorManager.getOpenFiles()) {
       PsiFile psiFile = psiManager.findFile(file);
       Language language = psiFile == null? null : psiFile.getLanguage();
-      if (!(language instanceof LivePreviewLanguage)) continue;
+      if (!languages.contains(language)) continue;
       files.add(file);
     }
+    if (files.isEmpty()) return;
     FileContentUtil.reparseFiles(project, files, false);
   }
 
-  public static boolean collectExpressionsAtOffset(Project project, Editor previewEditor, LivePreviewLanguage language, final PairProcessor<BnfExpression, Boolean> processor) {
-    Lexer lexer = new LivePreviewLexer(project, language);
-    final ParserDefinition parserDefinition = LanguageParserDefinitions.INSTANCE.forLanguage(language);
-    final PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parserDefinition, lexer, previewEditor.getDocument().getText());
-    final int caretOffset = previewEditor.getCaretModel().getOffset();
-    final PsiParser parser = new LivePreviewParser(project, language) {
-      @Override
-      protected boolean generateNodeCall(PsiBuilder builder,
-                                         int level,
-                                         BnfRule rule,
-                                         @Nullable BnfExpression node,
-                                         String nextName,
-                                         Map<String, GeneratedParserUtilBase.Parser> externalArguments) {
-        int tokenStartOffset = builder.getCurrentOffset();
-        int initialOffset = builder.rawLookup(-1) == TokenType.WHITE_SPACE ? builder.rawTokenTypeStart(-1) : builder.getCurrentOffset();
-        String tokenText = builder.getTokenText();
-        int tokenEndOffset = tokenText == null? tokenStartOffset : tokenStartOffset + tokenText.length();
-        boolean result = super.generateNodeCall(builder, level, rule, node, nextName, externalArguments);
-        builder.getCurrentOffset(); // advance to the next token first
-        int finalOffset = builder.rawLookup(-1) == TokenType.WHITE_SPACE ? builder.rawTokenTypeStart(-1) : builder.getCurrentOffset();
-        if (node != null) {
-          if (result && initialOffset <= caretOffset && finalOffset > caretOffset ||
-              !result && initialOffset <= caretOffset && tokenEndOffset > caretOffset) {
-            boolean inWhitespace = isTokenExpression(node) &&
-                                   initialOffset <= caretOffset && tokenStartOffset > caretOffset;
-            if (!processor.process(node, result && !inWhitespace)) {
-              throw new ProcessCanceledException();
-            }
+  /**
+   * Grammar changes are collected per grammar file. The grammar and its token tables are compiled in a cancellable
+   * background read action that yields to write actions, then only the previews bound to the changed grammars
+   * are reparsed, and the platform parses them lazily in the background highlighting pass.
+   * Edits in a preview itself are left to the regular document commit.
+   */
+  private static class PreviewUpdater {
+    private static final int DELAY = 300;
+
+    final Project myProject;
+    final Alarm myAlarm;
+    final Set<VirtualFile> myChangedGrammars = ContainerUtil.newConcurrentSet();
+    volatile ProgressIndicator myIndicator = new EmptyProgressIndicator();
+
+    PreviewUpdater(Project project) {
+      myProject = project;
+      myAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, project);
+      EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentAdapter() {
+        FileDocumentManager fileManager = FileDocumentManager.getInstance();
+
+        @Override
+        public void documentChanged(DocumentEvent e) {
+          VirtualFile file = fileManager.getFile(e.getDocument());
+          if (file != null && file.getFileType() == BnfFileType.INSTANCE) {
+            grammarChanged(file);
           }
         }
-        return result;
+      }, project);
+    }
+
+    void grammarChanged(@NotNull VirtualFile grammarFile) {
+      myChangedGrammars.add(grammarFile);
+      myIndicator.cancel();
+      schedule();
+    }
+
+    private void schedule() {
+      if (myProject.isDisposed()) return;
+      myAlarm.cancelAllRequests();
+      myAlarm.addRequest(this::update, DELAY);
+    }
+
+    private void update() {
+      if (!myProject.isOpen()) return;
+      ProgressIndicator indicator = myIndicator = new EmptyProgressIndicator();
+      List<VirtualFile> grammars = ContainerUtil.newArrayList(myChangedGrammars);
+      if (grammars.isEmpty()) return;
+      List<LivePreviewLanguage> languages = ContainerUtil.newArrayList();
+      boolean[] committed = {true};
+      boolean completed = ProgressIndicatorUtils.runInReadActionWithWriteActionPriority(
+        () -> committed[0] = prepare(grammars, languages, indicator), indicator);
+      if (indicator.isCanceled()) return;
+      if (!completed || !committed[0]) {
+        schedule();
+        return;
       }
+      ApplicationManager.getApplication().invokeLater(() -> {
+        if (indicator.isCanceled()) return;
+        myChangedGrammars.removeAll(grammars);
+        reparseLivePreviews(myProject, languages);
+      }, myProject.getDisposed());
+    }
 
-    };
-    try {
-      parser.parse(parserDefinition.getFileNodeType(), builder);
+    /**
+     * @return false if some grammar document is not committed yet
+     */
+    private boolean prepare(List<VirtualFile> grammars, List<LivePreviewLanguage> languages, ProgressIndicator indicator) {
+      if (myProject.isDisposed()) return true;
+      FileDocumentManager fileManager = FileDocumentManager.getInstance();
+      PsiDocumentManager documentManager = PsiDocumentManager.getInstance(myProject);
+      PsiManager psiManager = PsiManager.getInstance(myProject);
+      for (VirtualFile grammarFile : grammars) {
+        indicator.checkCanceled();
+        if (!grammarFile.isValid()) continue;
+        Document document = fileManager.getCachedDocument(grammarFile);
+        if (document != null && !documentManager.isCommitted(document)) return false;
+        PsiFile psiFile = psiManager.findFile(grammarFile);
+        LivePreviewLanguage language = psiFile instanceof BnfFile ? LivePreviewLanguage.findInstance(psiFile) : null;
+        if (language == null) continue;
+        // compile the grammar and the token automaton once for all the previews
+        LivePreviewGrammar.get((BnfFile)psiFile, language);
+        new LivePreviewLexer(myProject, language);
+        languages.add(language);
+      }
       return true;
     }
-    catch (ProcessCanceledException e) {
-      return false;
+  }
+
+  public static boolean collectExpressionsAtOffset(Project project, Editor previewEditor, LivePreviewLanguage language, final PairProcessor<BnfExpression, Boolean> processor) {
+    BnfFile grammar = language.getGrammar(project);
+    if (grammar == null) return true;
+    Document document = previewEditor.getDocument();
+    ParseTrace trace = ParseTrace.find(document, LivePreviewGrammar.get(grammar, language));
+    if (trace == null) {
+      Lexer lexer = new LivePreviewLexer(project, language);
+      ParserDefinition parserDefinition = LanguageParserDefinitions.INSTANCE.forLanguage(language);
+      PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parserDefinition, lexer, document.getImmutableCharSequence());
+      trace = new LivePreviewParser(project, language).parseWithTrace(parserDefinition.getFileNodeType(), builder);
+      if (trace == null) return true;
+      // the regular preview parse keeps the trace up to date from now on
+      ParseTrace.store(document, trace);
     }
+    int caretOffset = previewEditor.getCaretModel().getOffset();
+    return trace.processAt(caretOffset, (node, tokenStart, result) -> {
+      BnfExpression expression = node.getExpression();
+      if (expression == null) return true;
+      boolean inWhitespace = LivePreviewParser.isTokenExpression(grammar, expression) && tokenStart > caretOffset;
+      return processor.process(expression, result && !inWhitespace);
+    });
   }
 }
@@ -41,23 +41,46 @@ import static org.intellij.grammar.generator.ParserGeneratorUtil.getRootAttribut
 import static org.intellij.grammar.livePreview.LivePreviewParserDefinition.*;
 
 /**
+ * Tokens are matched at each offset independently of the preceding text, so a token can be lexed anew from its start
+ * unless earlier match attempts looked at more than its first char: the state is {@link #RESTARTABLE} or {@link #LOOKAHEAD}.
+ *
  * @author gregsh
  */
 public class LivePreviewLexer extends LexerBase {
+  public static final int RESTARTABLE = 0;
+  public static final int LOOKAHEAD = 1;
+  /** how much of the text after a match attempt that ran into the end of the text is tracked */
+  static final int MAX_LOOKAHEAD = 1024;
 
   private CharSequence myBuffer;
   private int myEndOffset;
   private int myPosition;
   private int myTokenEnd;
   private IElementType myTokenType;
+  private int myState;
+  /** the offset after the last char examined by the match attempts so far */
+  private int myScanLimit;
 
   private final Token[] myTokens;
-  private Matcher[] myMatchers;
+  private final TokenAutomaton myAutomaton;
+  private final int[] myMatch = new int[2];
+  private final Matcher[] myMatchers;
+  private int myPendingOffset = -1;
+  private int myPendingEnd;
+  private IElementType myPendingType;
+  private int myPendingState;
 
   public LivePreviewLexer(Project project, final LivePreviewLanguage language) {
     final BnfFile bnfFile = language.getGrammar(project);
 
-    myTokens = bnfFile == null? new Token[0] : CachedValuesManager.getCachedValue(bnfFile, () -> {
+    myTokens = bnfFile == null? new Token[0] : getTokens(bnfFile, language);
+    myAutomaton = bnfFile == null? null : getAutomaton(bnfFile, myTokens);
+    myMatchers = new Matcher[myTokens.length];
+  }
+
+  @NotNull
+  static Token[] getTokens(@NotNull BnfFile bnfFile, @NotNull LivePreviewLanguage language) {
+    return CachedValuesManager.getCachedValue(bnfFile, () -> {
       Set<String> usedInGrammar = ContainerUtil.newLinkedHashSet();
       Map<String, String> map = collectTokenPattern2Name(bnfFile, usedInGrammar);
 
@@ -73,19 +96,33 @@ public class LivePreviewLexer extends LexerBase {
     });
   }
 
+  @NotNull
+  private static TokenAutomaton getAutomaton(@NotNull BnfFile bnfFile, @NotNull Token[] tokens) {
+    return CachedValuesManager.getCachedValue(bnfFile, () -> {
+      String[] literals = new String[tokens.length];
+      String[] regexps = new String[tokens.length];
+      for (int i = 0; i < tokens.length; i++) {
+        literals[i] = tokens[i].literal;
+        regexps[i] = tokens[i].literal == null && tokens[i].pattern != null ? tokens[i].pattern.pattern() : null;
+      }
+      return CachedValueProvider.Result.create(TokenAutomaton.build(literals, regexps), bnfFile);
+    });
+  }
+
   @Override
   public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+    if (buffer != myBuffer) {
+      for (Matcher matcher : myMatchers) {
+        if (matcher != null) matcher.reset(buffer);
+      }
+    }
     myBuffer = buffer;
     myEndOffset = endOffset;
     myPosition = startOffset;
     myTokenEnd = myPosition;
     myTokenType = null;
-    myMatchers = new Matcher[myTokens.length];
-    for (int i = 0; i < myMatchers.length; i++) {
-      Pattern pattern = myTokens[i].pattern;
-      if (pattern == null) continue;
-      myMatchers[i] = pattern.matcher(buffer);
-    }
+    myScanLimit = startOffset;
+    myPendingOffset = -1;
     nextToken();
   }
 
@@ -93,12 +130,36 @@ public class LivePreviewLexer extends LexerBase {
     myTokenEnd = myPosition;
     if (myPosition >= myEndOffset) {
       myTokenType = null;
+      myState = RESTARTABLE;
       return;
     }
+    if (myPosition == myPendingOffset) {
+      myTokenEnd = myPendingEnd;
+      myTokenType = myPendingType;
+      myState = myPendingState;
+      myPendingOffset = -1;
+      return;
+    }
+    // the previous token knows it ends here only by looking at the first char of this one
+    myState = myScanLimit > myPosition + 1 ? LOOKAHEAD : RESTARTABLE;
     if (!findAtOffset(myPosition)) {
+      // skip chars no token can start with, keep the token found after the bad characters
+      boolean dispatch = myAutomaton != null && myAutomaton.getFallbackTokens().length == 0;
       int nextOffset = myPosition;
       while (++nextOffset < myEndOffset) {
-        if (findAtOffset(nextOffset)) break;
+        char c = myBuffer.charAt(nextOffset);
+        if (dispatch && !Character.isSurrogate(c) && !myAutomaton.canStartWith(c)) {
+          myScanLimit = Math.max(myScanLimit, nextOffset + 1);
+          continue;
+        }
+        int pendingState = myScanLimit > nextOffset + 1 ? LOOKAHEAD : RESTARTABLE;
+        if (findAtOffset(nextOffset)) {
+          myPendingOffset = nextOffset;
+          myPendingEnd = myTokenEnd;
+          myPendingType = myTokenType;
+          myPendingState = pendingState;
+          break;
+        }
       }
       myTokenEnd = nextOffset;
       myTokenType = com.intellij.psi.TokenType.BAD_CHARACTER;
@@ -107,24 +168,63 @@ public class LivePreviewLexer extends LexerBase {
 
   private boolean findAtOffset(int position) {
     myTokenEnd = position;
-    myTokenType = null;
-    for (int i = 0; i < myMatchers.length; i++) {
-      if (myMatchers[i] == null) continue;
-      Matcher matcher = myMatchers[i].region(position, myEndOffset);
-      if (matcher.lookingAt()) {
-        int end = matcher.end();
-        if (end > myTokenEnd) {
-          myTokenEnd = end;
-          myTokenType = myTokens[i].tokenType;
-        }
+    int best = -1;
+    int match = myAutomaton == null ? TokenAutomaton.SURROGATE : myAutomaton.match(myBuffer, position, myEndOffset, myMatch);
+    if (match == TokenAutomaton.SURROGATE) {
+      for (int i = 0; i < myTokens.length; i++) {
+        best = matchRegexp(i, position, best);
+      }
+    }
+    else {
+      if (match > position) {
+        myTokenEnd = match;
+        best = myMatch[0];
+      }
+      updateScanLimit(position, Math.max(match, position), myMatch[1] >= myEndOffset ? -1 : myMatch[1]);
+      for (int i : myAutomaton.getFallbackTokens()) {
+        best = matchRegexp(i, position, best);
       }
     }
+    myTokenType = best < 0 ? null : myTokens[best].tokenType;
     return myTokenType != null;
   }
 
+  /**
+   * The longest match wins, on equal length the token declared first.
+   */
+  private int matchRegexp(int i, int position, int best) {
+    Pattern pattern = myTokens[i].pattern;
+    if (pattern == null) return best;
+    Matcher matcher = myMatchers[i];
+    if (matcher == null) matcher = myMatchers[i] = pattern.matcher(myBuffer);
+    boolean found = matcher.region(position, myEndOffset).lookingAt();
+    // java.util.regex does not tell how far it looked, assume one char past the match unless it hit the end
+    int matchEnd = found ? matcher.end() : position;
+    updateScanLimit(position, matchEnd, matcher.hitEnd() ? -1 : matchEnd + 1);
+    if (!found) return best;
+    int end = matcher.end();
+    if (end > myTokenEnd || end == myTokenEnd && end > position && i < best) {
+      myTokenEnd = end;
+      return i;
+    }
+    return best;
+  }
+
+  /**
+   * An attempt that ran into the end of the text, e.g. an unclosed string or comment, looked at all the text after it.
+   * Only the first {@link #MAX_LOOKAHEAD} chars past the match are accounted for, otherwise a single edit below
+   * would make the highlighter relex everything from that attempt on.
+   *
+   * @param scanEnd the offset after the last char examined, -1 if the attempt hit the end
+   */
+  private void updateScanLimit(int position, int matchEnd, int scanEnd) {
+    int limit = scanEnd >= 0 ? scanEnd : Math.min(myEndOffset, Math.max(matchEnd, position + 1) + MAX_LOOKAHEAD);
+    myScanLimit = Math.max(myScanLimit, limit);
+  }
+
   @Override
   public int getState() {
-    return 0;
+    return myState;
   }
 
   @Nullable
@@ -174,6 +274,8 @@ public class LivePreviewLexer extends LexerBase {
 
     final String constantName;
     final Pattern pattern;
+    /** plain text for non-regexp tokens */
+    final String literal;
     final IElementType tokenType;
 
     Token(String pattern, String mappedName, boolean usedInGrammar, String constantPrefix, LivePreviewLanguage language) {
@@ -183,11 +285,13 @@ public class LivePreviewLexer extends LexerBase {
       if (ParserGeneratorUtil.isRegexpToken(pattern)) {
         String patternText = ParserGeneratorUtil.getRegexpTokenRegexp(pattern);
         this.pattern = ParserGeneratorUtil.compilePattern(patternText);
+        literal = null;
         tokenName = mappedName;
         keyword = false;
       }
       else {
         this.pattern = ParserGeneratorUtil.compilePattern(StringUtil.escapeToRegexp(pattern));
+        literal = pattern;
         tokenName = pattern;
         keyword = StringUtil.isJavaIdentifier(pattern);
       }
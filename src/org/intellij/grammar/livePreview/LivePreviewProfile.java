@@ -0,0 +1,214 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.livePreview;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.ui.EditorNotifications;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.xml.util.XmlStringUtil;
+import org.intellij.grammar.psi.BnfFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Per-rule invocations, rollbacks and self time of the latest live preview parse,
+ * collected by {@link LivePreviewParser} while profiling is enabled for the grammar.
+ */
+public final class LivePreviewProfile {
+  private static final Key<Boolean> PROFILING_KEY = Key.create("LIVE_PREVIEW_PROFILING");
+  private static final Key<LivePreviewProfile> PROFILE_KEY = Key.create("LIVE_PREVIEW_PROFILE");
+
+  private static final double HOT_SHARE = 0.05;
+  private static final int HOT_COUNT = 5;
+  private static final double BACKTRACKING_RATIO = 0.5;
+  private static final int BACKTRACKING_MIN_CALLS = 10;
+
+  public static final class RuleStat {
+    public final String name;
+    public int invocations;
+    public int rollbacks;
+    public long selfNanos;
+    boolean hot;
+
+    RuleStat(String name) {
+      this.name = name;
+    }
+
+    /** among the top rules by self time */
+    public boolean isHot() {
+      return hot;
+    }
+
+    /** fails more often than not, the consumed tokens are rolled back */
+    public boolean isBacktracking() {
+      return invocations >= BACKTRACKING_MIN_CALLS && rollbacks >= invocations * BACKTRACKING_RATIO;
+    }
+  }
+
+  private final RuleStat[] myStats;
+  private final Map<String, RuleStat> myStatMap = ContainerUtil.newHashMap();
+  private final String myPreviewName;
+  private long myTotalNanos;
+  private int myTextLength;
+
+  // self time bookkeeping
+  private long[] myChildNanos = new long[64];
+  private int myDepth;
+
+  LivePreviewProfile(@NotNull LivePreviewGrammar grammar, @NotNull String previewName) {
+    myPreviewName = previewName;
+    myStats = new RuleStat[grammar.rules.length];
+    for (int i = 0; i < myStats.length; i++) {
+      myStats[i] = new RuleStat(grammar.rules[i].getName());
+      myStatMap.put(myStats[i].name, myStats[i]);
+    }
+  }
+
+  void enter() {
+    if (++myDepth == myChildNanos.length) myChildNanos = Arrays.copyOf(myChildNanos, myDepth * 2);
+    myChildNanos[myDepth] = 0;
+  }
+
+  void exit(int ruleIndex, boolean result, long nanos) {
+    RuleStat stat = myStats[ruleIndex];
+    stat.invocations++;
+    if (!result) stat.rollbacks++;
+    stat.selfNanos += nanos - myChildNanos[myDepth];
+    myChildNanos[--myDepth] += nanos;
+  }
+
+  void finish(long totalNanos, int textLength) {
+    myTotalNanos = totalNanos;
+    myTextLength = textLength;
+    myChildNanos = null;
+    List<RuleStat> hottest = getHottest(HOT_COUNT);
+    for (RuleStat stat : hottest) {
+      stat.hot = stat.selfNanos >= myTotalNanos * HOT_SHARE;
+    }
+  }
+
+  @Nullable
+  public RuleStat getStat(@NotNull String ruleName) {
+    return myStatMap.get(ruleName);
+  }
+
+  public long getTotalNanos() {
+    return myTotalNanos;
+  }
+
+  /**
+   * Invoked rules sorted by self time.
+   */
+  @NotNull
+  public List<RuleStat> getHottest(int count) {
+    List<RuleStat> result = ContainerUtil.newArrayList();
+    for (RuleStat stat : myStats) {
+      if (stat.invocations > 0) result.add(stat);
+    }
+    Collections.sort(result, (o1, o2) -> Long.compare(o2.selfNanos, o1.selfNanos));
+    return result.size() > count ? result.subList(0, count) : result;
+  }
+
+  @NotNull
+  public String getSummary() {
+    int invocations = 0;
+    int rollbacks = 0;
+    for (RuleStat stat : myStats) {
+      invocations += stat.invocations;
+      rollbacks += stat.rollbacks;
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append("'").append(myPreviewName).append("' (").append(myTextLength).append(" chars) parsed in ")
+      .append(formatMillis(myTotalNanos)).append(": ")
+      .append(invocations).append(" rule calls, ").append(rollbacks).append(" rollbacks");
+    List<RuleStat> hottest = getHottest(3);
+    if (!hottest.isEmpty()) {
+      sb.append("; hottest: ");
+      for (int i = 0; i < hottest.size(); i++) {
+        RuleStat stat = hottest.get(i);
+        sb.append(i == 0 ? "" : ", ").append(stat.name).append(" ").append(formatShare(stat.selfNanos));
+      }
+    }
+    return sb.toString();
+  }
+
+  @NotNull
+  public String getTooltip(@NotNull RuleStat stat) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(StringUtil.escapeXml(stat.name)).append(": ").append(stat.invocations).append(" calls, ")
+      .append(stat.rollbacks).append(" rollbacks, ")
+      .append(formatMillis(stat.selfNanos)).append(" self time (").append(formatShare(stat.selfNanos)).append(")");
+    if (stat.isHot()) sb.append("<br>Hot rule");
+    if (stat.isBacktracking()) sb.append("<br>Backtracking rule: fails ").append(stat.rollbacks * 100 / stat.invocations).append("% of calls");
+    return XmlStringUtil.wrapInHtml(sb);
+  }
+
+  private String formatShare(long nanos) {
+    return myTotalNanos == 0 ? "0%" : String.format(Locale.US, "%.1f%%", nanos * 100.0 / myTotalNanos);
+  }
+
+  private static String formatMillis(long nanos) {
+    return String.format(Locale.US, "%.1f ms", nanos / 1e6);
+  }
+
+  // storage
+
+  public static boolean isEnabled(@Nullable VirtualFile grammarFile) {
+    return grammarFile != null && grammarFile.getUserData(PROFILING_KEY) != null;
+  }
+
+  @Nullable
+  public static LivePreviewProfile get(@Nullable VirtualFile grammarFile) {
+    return isEnabled(grammarFile) ? grammarFile.getUserData(PROFILE_KEY) : null;
+  }
+
+  public static void setEnabled(@NotNull Project project, @NotNull BnfFile grammar, boolean enabled) {
+    VirtualFile file = grammar.getVirtualFile();
+    if (file == null) return;
+    file.putUserData(PROFILING_KEY, enabled ? Boolean.TRUE : null);
+    file.putUserData(PROFILE_KEY, null);
+    LivePreviewLanguage language = LivePreviewLanguage.findInstance(grammar);
+    if (enabled && language != null) {
+      LivePreviewHelper.reparseLivePreviews(project, Collections.singletonList(language));
+    }
+    else {
+      profileChanged(project, file);
+    }
+  }
+
+  static void store(@NotNull Project project, @NotNull VirtualFile grammarFile, @NotNull LivePreviewProfile profile) {
+    if (!isEnabled(grammarFile)) return;
+    grammarFile.putUserData(PROFILE_KEY, profile);
+    ApplicationManager.getApplication().invokeLater(() -> profileChanged(project, grammarFile), project.getDisposed());
+  }
+
+  private static void profileChanged(@NotNull Project project, @NotNull VirtualFile grammarFile) {
+    if (project.isDisposed() || !grammarFile.isValid()) return;
+    EditorNotifications.getInstance(project).updateNotifications(grammarFile);
+    PsiFile psiFile = PsiManager.getInstance(project).findFile(grammarFile);
+    if (psiFile != null) DaemonCodeAnalyzer.getInstance(project).restart(psiFile);
+  }
+}
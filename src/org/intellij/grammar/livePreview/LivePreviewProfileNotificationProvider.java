@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.livePreview;
+
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.ui.EditorNotificationPanel;
+import com.intellij.ui.EditorNotifications;
+import org.intellij.grammar.psi.BnfFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Live preview profile summary on top of the grammar editor.
+ */
+public class LivePreviewProfileNotificationProvider extends EditorNotifications.Provider<EditorNotificationPanel> {
+  private static final Key<EditorNotificationPanel> KEY = Key.create("LIVE_PREVIEW_PROFILE_PANEL");
+
+  private final Project myProject;
+
+  public LivePreviewProfileNotificationProvider(Project project) {
+    myProject = project;
+  }
+
+  @NotNull
+  @Override
+  public Key<EditorNotificationPanel> getKey() {
+    return KEY;
+  }
+
+  @Nullable
+  @Override
+  public EditorNotificationPanel createNotificationPanel(@NotNull VirtualFile file, @NotNull FileEditor fileEditor) {
+    if (!LivePreviewProfile.isEnabled(file)) return null;
+    LivePreviewProfile profile = LivePreviewProfile.get(file);
+    EditorNotificationPanel panel = new EditorNotificationPanel();
+    panel.setText(profile == null ? "Live preview profiling is on, edit the preview to collect the numbers" : profile.getSummary());
+    panel.createActionLabel("Stop profiling", () -> {
+      PsiFile psiFile = PsiManager.getInstance(myProject).findFile(file);
+      if (psiFile instanceof BnfFile) LivePreviewProfile.setEnabled(myProject, (BnfFile)psiFile, false);
+    });
+    return panel;
+  }
+}
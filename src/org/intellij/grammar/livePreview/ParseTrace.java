@@ -0,0 +1,173 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.livePreview;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Node calls of a live preview parse as offset intervals:
+ * <code>[start, end)</code> is the consumed text of a successful call
+ * or the first token of a failed one, <code>start</code> includes the preceding whitespace.
+ * <p/>
+ * Recorded during the regular preview parse once the caret highlighting asked for it, and bound to the preview
+ * document modification stamp, so caret moves are served by {@link #processAt(int, Processor)} instead of a reparse.
+ * Token runs consumed at once are not traced token by token, as in the old per-caret parse.
+ */
+final class ParseTrace {
+  private static final Key<ParseTrace> TRACE_KEY = Key.create("LIVE_PREVIEW_PARSE_TRACE");
+  private static final Key<Boolean> TRACE_REQUESTED_KEY = Key.create("LIVE_PREVIEW_PARSE_TRACE_REQUESTED");
+
+  interface Processor {
+    boolean process(@NotNull LivePreviewGrammar.Node node, int tokenStart, boolean result);
+  }
+
+  final LivePreviewGrammar grammar;
+  final CharSequence text;
+  private volatile long myStamp = -1;
+
+  private int mySize;
+  private int[] myNodes = new int[64];
+  private int[] myStarts = new int[64];
+  private int[] myEnds = new int[64];
+  private int[] myTokenStarts = new int[64];
+  private final BitSet myResults = new BitSet();
+
+  /** call indices sorted by start, and the max end of each implicit balanced subtree */
+  private int[] myOrder;
+  private int[] myMaxEnds;
+
+  ParseTrace(@NotNull LivePreviewGrammar grammar, @NotNull CharSequence text) {
+    this.grammar = grammar;
+    this.text = text;
+  }
+
+  void add(@NotNull LivePreviewGrammar.Node node, int start, int end, int tokenStart, boolean result) {
+    if (mySize == myNodes.length) {
+      int length = mySize * 2;
+      myNodes = Arrays.copyOf(myNodes, length);
+      myStarts = Arrays.copyOf(myStarts, length);
+      myEnds = Arrays.copyOf(myEnds, length);
+      myTokenStarts = Arrays.copyOf(myTokenStarts, length);
+    }
+    myNodes[mySize] = node.id;
+    myStarts[mySize] = start;
+    myEnds[mySize] = end;
+    myTokenStarts[mySize] = tokenStart;
+    if (result) myResults.set(mySize);
+    mySize++;
+  }
+
+  /**
+   * Processes the calls covering the offset in the order they were completed, innermost first.
+   */
+  boolean processAt(int offset, @NotNull Processor processor) {
+    ensureIndex();
+    BitSet hits = new BitSet(mySize);
+    collect(0, mySize, offset, hits);
+    for (int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i + 1)) {
+      if (!processor.process(grammar.nodes[myNodes[i]], myTokenStarts[i], myResults.get(i))) return false;
+    }
+    return true;
+  }
+
+  private void collect(int from, int to, int offset, BitSet hits) {
+    if (from >= to) return;
+    int mid = (from + to) >>> 1;
+    if (myMaxEnds[mid] <= offset) return;
+    collect(from, mid, offset, hits);
+    int call = myOrder[mid];
+    if (myStarts[call] > offset) return;
+    if (offset < myEnds[call]) hits.set(call);
+    collect(mid + 1, to, offset, hits);
+  }
+
+  private synchronized void ensureIndex() {
+    if (myOrder != null) return;
+    long[] sorted = new long[mySize];
+    for (int i = 0; i < mySize; i++) {
+      sorted[i] = (long)myStarts[i] << 32 | i;
+    }
+    Arrays.sort(sorted);
+    int[] order = new int[mySize];
+    for (int i = 0; i < mySize; i++) {
+      order[i] = (int)sorted[i];
+    }
+    myMaxEnds = new int[mySize];
+    fillMaxEnds(order, 0, mySize);
+    myOrder = order;
+  }
+
+  private int fillMaxEnds(int[] order, int from, int to) {
+    if (from >= to) return Integer.MIN_VALUE;
+    int mid = (from + to) >>> 1;
+    int max = Math.max(myEnds[order[mid]], Math.max(fillMaxEnds(order, from, mid), fillMaxEnds(order, mid + 1, to)));
+    myMaxEnds[mid] = max;
+    return max;
+  }
+
+  // storage
+
+  static boolean isRequested(@Nullable PsiFile previewFile) {
+    VirtualFile file = getVirtualFile(previewFile);
+    return file != null && file.getUserData(TRACE_REQUESTED_KEY) != null;
+  }
+
+  static void store(@Nullable PsiFile previewFile, @NotNull ParseTrace trace) {
+    VirtualFile file = getVirtualFile(previewFile);
+    if (file != null) file.putUserData(TRACE_KEY, trace);
+  }
+
+  /**
+   * @return the trace recorded for the current document text and grammar, null if the preview needs to be reparsed
+   */
+  @Nullable
+  static ParseTrace find(@NotNull Document document, @Nullable LivePreviewGrammar grammar) {
+    VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+    ParseTrace trace = file == null || grammar == null ? null : file.getUserData(TRACE_KEY);
+    if (trace == null || trace.grammar != grammar) return null;
+    long stamp = document.getModificationStamp();
+    if (trace.myStamp == stamp) return trace;
+    if (!StringUtil.equals(trace.text, document.getImmutableCharSequence())) return null;
+    trace.myStamp = stamp;
+    return trace;
+  }
+
+  static void store(@NotNull Document document, @NotNull ParseTrace trace) {
+    VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+    if (file == null) return;
+    trace.myStamp = document.getModificationStamp();
+    file.putUserData(TRACE_KEY, trace);
+    file.putUserData(TRACE_REQUESTED_KEY, Boolean.TRUE);
+  }
+
+  @Nullable
+  private static VirtualFile getVirtualFile(@Nullable PsiFile previewFile) {
+    // incremental reparse works on a copy
+    PsiFile file = previewFile == null ? null : previewFile.getOriginalFile();
+    return file == null ? null : file.getViewProvider().getVirtualFile();
+  }
+}
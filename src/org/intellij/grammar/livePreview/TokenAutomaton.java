@@ -0,0 +1,692 @@
+/*
+ * Copyright 2011-present Greg Shrago
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.intellij.grammar.livePreview;
+
+import com.intellij.util.containers.ContainerUtil;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Combined DFA for the live preview tokens: the longest token match wins, ties go to the token declared first.
+ * Each token matches the way <code>java.util.regex</code> <code>lookingAt()</code> does, i.e. alternatives and
+ * quantifiers are tried in order and the first successful one ends the match: <code>a|ab</code> matches "a" in "ab".
+ * <p/>
+ * Plain text tokens and regular expressions built of literals, escapes, character classes, <code>.</code>,
+ * groups, alternatives and greedy quantifiers are compiled into a single automaton.
+ * Other patterns (anchors, lookarounds, back-references, lazy quantifiers, flags, etc.) are reported
+ * in {@link #getFallbackTokens()} and are expected to be matched with <code>java.util.regex</code>.
+ */
+final class TokenAutomaton {
+  static final int NO_MATCH = -1;
+  /** the automaton works on chars, supplementary code points must be matched with <code>java.util.regex</code> */
+  static final int SURROGATE = -2;
+
+  private static final int MAX_STATES = 10000;
+  private static final int MAX_REPEAT = 100;
+  private static final int CHAR_LIMIT = Character.MAX_VALUE + 1;
+
+  private final int[] myFallbackTokens;
+  private final int[] myPoints;
+  private final int[] myAsciiClasses = new int[128];
+  private final int myClassCount;
+  private final int[] myTransitions;
+  private final int[] myAccept;
+
+  private TokenAutomaton(int[] fallbackTokens, int[] points, int[] transitions, int[] accept) {
+    myFallbackTokens = fallbackTokens;
+    myPoints = points;
+    myClassCount = points.length - 1;
+    myTransitions = transitions;
+    myAccept = accept;
+    for (int c = 0; c < myAsciiClasses.length; c++) {
+      myAsciiClasses[c] = findClass(c);
+    }
+  }
+
+  /**
+   * @param literals plain text per token, null for regexp tokens
+   * @param regexps  regexp per token, null for plain text tokens and tokens that never match
+   */
+  @NotNull
+  static TokenAutomaton build(@NotNull String[] literals, @NotNull String[] regexps) {
+    int count = literals.length;
+    Node[] trees = new Node[count];
+    TIntArrayList fallback = new TIntArrayList();
+    for (int i = 0; i < count; i++) {
+      if (literals[i] != null) {
+        trees[i] = literal(literals[i]);
+      }
+      else if (regexps[i] != null) {
+        trees[i] = new RegexpParser(regexps[i]).parse();
+        if (trees[i] == null) fallback.add(i);
+      }
+    }
+    TokenAutomaton automaton = compile(trees, fallback);
+    if (automaton != null) return automaton;
+    // too many states: keep plain text tokens only
+    for (int i = 0; i < count; i++) {
+      if (literals[i] == null && trees[i] != null) {
+        trees[i] = null;
+        fallback.add(i);
+      }
+    }
+    fallback.sort();
+    automaton = compile(trees, fallback);
+    if (automaton != null) return automaton;
+    for (int i = 0; i < count; i++) {
+      if (trees[i] != null) fallback.add(i);
+    }
+    fallback.sort();
+    return compile(new Node[count], fallback);
+  }
+
+  /**
+   * Token indices not handled by the automaton, in ascending order.
+   */
+  @NotNull
+  int[] getFallbackTokens() {
+    return myFallbackTokens;
+  }
+
+  /**
+   * Finds the longest non-empty token match starting at <code>start</code>.
+   *
+   * @param result receives the matched token index and the offset after the last char examined
+   * @return the match end offset, {@link #NO_MATCH} or {@link #SURROGATE}
+   */
+  int match(@NotNull CharSequence buffer, int start, int end, @NotNull int[] result) {
+    int state = 0;
+    int matchEnd = NO_MATCH;
+    int i = start;
+    while (i < end) {
+      char c = buffer.charAt(i++);
+      if (Character.isSurrogate(c)) return SURROGATE;
+      state = myTransitions[state * myClassCount + (c < 128 ? myAsciiClasses[c] : findClass(c))];
+      if (state < 0) break;
+      if (myAccept[state] >= 0) {
+        matchEnd = i;
+        result[0] = myAccept[state];
+      }
+    }
+    result[1] = i;
+    return matchEnd;
+  }
+
+  /**
+   * @return true if some automaton token can start with the char
+   */
+  boolean canStartWith(char c) {
+    return myTransitions[c < 128 ? myAsciiClasses[c] : findClass(c)] >= 0;
+  }
+
+  private int findClass(int c) {
+    int idx = Arrays.binarySearch(myPoints, c);
+    return idx >= 0 ? idx : -idx - 2;
+  }
+
+  // subset construction
+
+  @Nullable
+  private static TokenAutomaton compile(Node[] trees, TIntArrayList fallback) {
+    Nfa nfa = new Nfa();
+    TIntArrayList starts = new TIntArrayList();
+    TreeSet<Integer> points = new TreeSet<>();
+    points.add(0);
+    points.add(CHAR_LIMIT);
+    for (int i = 0; i < trees.length; i++) {
+      if (trees[i] == null) continue;
+      trees[i].collectPoints(points);
+      nfa.token = i;
+      int[] fragment = trees[i].build(nfa);
+      starts.add(fragment[0]);
+      nfa.accept.put(fragment[1], i);
+    }
+    int[] pointArray = new int[points.size()];
+    int k = 0;
+    for (Integer point : points) pointArray[k++] = point;
+    int classCount = pointArray.length - 1;
+
+    // a DFA state is the list of NFA states in the order a backtracking matcher would try them
+    Map<TIntArrayList, Integer> states = ContainerUtil.newHashMap();
+    List<TIntArrayList> queue = ContainerUtil.newArrayList();
+    TIntArrayList initial = new TIntArrayList();
+    BitSet seen = new BitSet();
+    for (int i = 0; i < starts.size(); i++) {
+      nfa.follow(starts.get(i), initial, seen);
+    }
+    states.put(initial, 0);
+    queue.add(initial);
+    TIntArrayList transitions = new TIntArrayList();
+    TIntArrayList accept = new TIntArrayList();
+    for (int q = 0; q < queue.size(); q++) {
+      TIntArrayList list = queue.get(q);
+      int acceptToken = -1;
+      for (int i = 0; i < list.size(); i++) {
+        Integer token = nfa.accept.get(list.get(i));
+        if (token != null && (acceptToken < 0 || token < acceptToken)) acceptToken = token;
+      }
+      accept.add(acceptToken);
+      for (int c = 0; c < classCount; c++) {
+        int representative = pointArray[c];
+        TIntArrayList next = new TIntArrayList();
+        seen.clear();
+        int acceptedToken = -1;
+        for (int i = 0; i < list.size(); i++) {
+          int s = list.get(i);
+          int target = nfa.target[s];
+          if (target < 0 || nfa.owner[s] == acceptedToken || !contains(nfa.ranges[s], representative)) continue;
+          // once a token accepts, its lower priority alternatives are never tried
+          if (nfa.follow(target, next, seen)) acceptedToken = nfa.owner[s];
+        }
+        if (next.isEmpty()) {
+          transitions.add(-1);
+          continue;
+        }
+        Integer index = states.get(next);
+        if (index == null) {
+          if (states.size() >= MAX_STATES) return null;
+          states.put(next, index = queue.size());
+          queue.add(next);
+        }
+        transitions.add(index);
+      }
+    }
+    return new TokenAutomaton(fallback.toNativeArray(), pointArray, transitions.toNativeArray(), accept.toNativeArray());
+  }
+
+  private static boolean contains(int[] ranges, int c) {
+    for (int i = 0; i < ranges.length; i += 2) {
+      if (c < ranges[i]) return false;
+      if (c <= ranges[i + 1]) return true;
+    }
+    return false;
+  }
+
+  private static final class Nfa {
+    int size;
+    int token;
+    int[] owner = new int[16];
+    int[] target = new int[16];
+    int[][] ranges = new int[16][];
+    TIntArrayList[] epsilons = new TIntArrayList[16];
+    final Map<Integer, Integer> accept = ContainerUtil.newHashMap();
+
+    int newState() {
+      if (size == target.length) {
+        owner = Arrays.copyOf(owner, size * 2);
+        target = Arrays.copyOf(target, size * 2);
+        ranges = Arrays.copyOf(ranges, size * 2);
+        epsilons = Arrays.copyOf(epsilons, size * 2);
+      }
+      owner[size] = token;
+      target[size] = -1;
+      return size++;
+    }
+
+    void epsilon(int from, int to) {
+      if (epsilons[from] == null) epsilons[from] = new TIntArrayList(2);
+      epsilons[from].add(to);
+    }
+
+    void chars(int from, int[] charRanges, int to) {
+      target[from] = to;
+      ranges[from] = charRanges;
+    }
+
+    /**
+     * Appends the char and accept states reachable over epsilons to the list, higher priority first.
+     *
+     * @return true if the token accepts, the states after the accepting one are not reached then
+     */
+    boolean follow(int state, TIntArrayList list, BitSet seen) {
+      TIntArrayList stack = new TIntArrayList();
+      stack.add(state);
+      while (!stack.isEmpty()) {
+        int s = stack.remove(stack.size() - 1);
+        if (seen.get(s)) continue;
+        seen.set(s);
+        if (accept.containsKey(s)) {
+          list.add(s);
+          return true;
+        }
+        if (target[s] >= 0) list.add(s);
+        TIntArrayList next = epsilons[s];
+        if (next == null) continue;
+        for (int i = next.size() - 1; i >= 0; i--) stack.add(next.get(i));
+      }
+      return false;
+    }
+  }
+
+  // regexp tree
+
+  private abstract static class Node {
+    /** @return start and end states */
+    abstract int[] build(Nfa nfa);
+
+    abstract void collectPoints(Set<Integer> points);
+
+    /** @return true if the node matches the empty string */
+    abstract boolean nullable();
+  }
+
+  private static final class CharSet extends Node {
+    /** sorted disjoint inclusive ranges */
+    final int[] ranges;
+
+    CharSet(int[] ranges) {
+      this.ranges = ranges;
+    }
+
+    @Override
+    int[] build(Nfa nfa) {
+      int start = nfa.newState();
+      int end = nfa.newState();
+      nfa.chars(start, ranges, end);
+      return new int[]{start, end};
+    }
+
+    @Override
+    void collectPoints(Set<Integer> points) {
+      for (int i = 0; i < ranges.length; i += 2) {
+        points.add(ranges[i]);
+        points.add(ranges[i + 1] + 1);
+      }
+    }
+
+    @Override
+    boolean nullable() {
+      return false;
+    }
+  }
+
+  private static final class Sequence extends Node {
+    final List<Node> items;
+
+    Sequence(List<Node> items) {
+      this.items = items;
+    }
+
+    @Override
+    int[] build(Nfa nfa) {
+      int start = nfa.newState();
+      int end = start;
+      for (Node item : items) {
+        int[] fragment = item.build(nfa);
+        nfa.epsilon(end, fragment[0]);
+        end = fragment[1];
+      }
+      return new int[]{start, end};
+    }
+
+    @Override
+    void collectPoints(Set<Integer> points) {
+      for (Node item : items) item.collectPoints(points);
+    }
+
+    @Override
+    boolean nullable() {
+      for (Node item : items) {
+        if (!item.nullable()) return false;
+      }
+      return true;
+    }
+  }
+
+  private static final class Choice extends Node {
+    final List<Node> alternatives;
+
+    Choice(List<Node> alternatives) {
+      this.alternatives = alternatives;
+    }
+
+    @Override
+    int[] build(Nfa nfa) {
+      int start = nfa.newState();
+      int end = nfa.newState();
+      for (Node alternative : alternatives) {
+        int[] fragment = alternative.build(nfa);
+        nfa.epsilon(start, fragment[0]);
+        nfa.epsilon(fragment[1], end);
+      }
+      return new int[]{start, end};
+    }
+
+    @Override
+    void collectPoints(Set<Integer> points) {
+      for (Node alternative : alternatives) alternative.collectPoints(points);
+    }
+
+    @Override
+    boolean nullable() {
+      for (Node alternative : alternatives) {
+        if (alternative.nullable()) return true;
+      }
+      return false;
+    }
+  }
+
+  private static final class Repeat extends Node {
+    final Node node;
+    final int min;
+    final int max;
+
+    Repeat(Node node, int min, int max) {
+      this.node = node;
+      this.min = min;
+      this.max = max;
+    }
+
+    @Override
+    int[] build(Nfa nfa) {
+      int start = nfa.newState();
+      int end = start;
+      for (int i = 0; i < min; i++) {
+        int[] fragment = node.build(nfa);
+        nfa.epsilon(end, fragment[0]);
+        end = fragment[1];
+      }
+      if (max < 0) {
+        int[] fragment = node.build(nfa);
+        int loopEnd = nfa.newState();
+        nfa.epsilon(end, fragment[0]);
+        nfa.epsilon(end, loopEnd);
+        nfa.epsilon(fragment[1], fragment[0]);
+        nfa.epsilon(fragment[1], loopEnd);
+        return new int[]{start, loopEnd};
+      }
+      int optionalEnd = nfa.newState();
+      for (int i = min; i < max; i++) {
+        int[] fragment = node.build(nfa);
+        nfa.epsilon(end, fragment[0]);
+        nfa.epsilon(end, optionalEnd);
+        end = fragment[1];
+      }
+      nfa.epsilon(end, optionalEnd);
+      return new int[]{start, optionalEnd};
+    }
+
+    @Override
+    void collectPoints(Set<Integer> points) {
+      node.collectPoints(points);
+    }
+
+    @Override
+    boolean nullable() {
+      return min == 0 || node.nullable();
+    }
+  }
+
+  private static Node literal(String text) {
+    List<Node> items = ContainerUtil.newArrayList();
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      items.add(new CharSet(new int[]{c, c}));
+    }
+    return new Sequence(items);
+  }
+
+  // java.util.regex subset parser
+
+  private static final int[] DIGIT = {'0', '9'};
+  private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+  private static final int[] SPACE = {'\t', '\r', ' ', ' '}; // tab to carriage return and space
+  private static final int[] DOT = complement(new int[]{'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029});
+
+  private static class UnsupportedException extends RuntimeException {
+    UnsupportedException() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final class RegexpParser {
+    final String text;
+    int pos;
+
+    RegexpParser(String text) {
+      this.text = text;
+    }
+
+    @Nullable
+    Node parse() {
+      try {
+        Node node = alternatives();
+        if (pos != text.length()) throw new UnsupportedException();
+        return node;
+      }
+      catch (UnsupportedException e) {
+        return null;
+      }
+    }
+
+    private boolean more() {
+      return pos < text.length();
+    }
+
+    private char peek() {
+      return text.charAt(pos);
+    }
+
+    private Node alternatives() {
+      List<Node> alternatives = ContainerUtil.newArrayList();
+      alternatives.add(sequence());
+      while (more() && peek() == '|') {
+        pos++;
+        alternatives.add(sequence());
+      }
+      return alternatives.size() == 1 ? alternatives.get(0) : new Choice(alternatives);
+    }
+
+    private Node sequence() {
+      List<Node> items = ContainerUtil.newArrayList();
+      while (more() && peek() != '|' && peek() != ')') {
+        items.add(quantified(atom()));
+      }
+      return items.size() == 1 ? items.get(0) : new Sequence(items);
+    }
+
+    private Node quantified(Node atom) {
+      while (more()) {
+        char c = peek();
+        int min, max;
+        if (c == '*') { min = 0; max = -1; pos++; }
+        else if (c == '+') { min = 1; max = -1; pos++; }
+        else if (c == '?') { min = 0; max = 1; pos++; }
+        else if (c == '{') {
+          pos++;
+          min = number();
+          max = min;
+          if (more() && peek() == ',') {
+            pos++;
+            max = more() && peek() != '}' ? number() : -1;
+          }
+          expect('}');
+          if (min > MAX_REPEAT || max > MAX_REPEAT || max >= 0 && max < min) throw new UnsupportedException();
+        }
+        else {
+          break;
+        }
+        // lazy and possessive quantifiers
+        if (more() && (peek() == '?' || peek() == '+')) throw new UnsupportedException();
+        // java.util.regex has its own rules for iterations that match nothing
+        if (atom.nullable()) throw new UnsupportedException();
+        atom = new Repeat(atom, min, max);
+      }
+      return atom;
+    }
+
+    private int number() {
+      int start = pos;
+      while (more() && Character.isDigit(peek())) pos++;
+      if (start == pos || pos - start > 4) throw new UnsupportedException();
+      return Integer.parseInt(text.substring(start, pos));
+    }
+
+    private void expect(char c) {
+      if (!more() || peek() != c) throw new UnsupportedException();
+      pos++;
+    }
+
+    private Node atom() {
+      char c = text.charAt(pos++);
+      switch (c) {
+        case '(':
+          if (more() && peek() == '?') {
+            if (pos + 1 < text.length() && text.charAt(pos + 1) == ':') pos += 2;
+            else throw new UnsupportedException();
+          }
+          Node node = alternatives();
+          expect(')');
+          return node;
+        case '[':
+          return new CharSet(charClass());
+        case '.':
+          return new CharSet(DOT);
+        case '\\':
+          return new CharSet(escape(false));
+        case '^':
+        case '$':
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+          throw new UnsupportedException();
+        default:
+          if (Character.isSurrogate(c)) throw new UnsupportedException();
+          return new CharSet(new int[]{c, c});
+      }
+    }
+
+    private int[] charClass() {
+      boolean negated = more() && peek() == '^';
+      if (negated) pos++;
+      if (more() && peek() == ']') throw new UnsupportedException();
+      List<int[]> parts = ContainerUtil.newArrayList();
+      while (true) {
+        if (!more()) throw new UnsupportedException();
+        char c = text.charAt(pos++);
+        if (c == ']') break;
+        if (c == '[' || c == '&' && more() && peek() == '&') throw new UnsupportedException();
+        int[] item = c == '\\' ? escape(true) : new int[]{c, c};
+        if (Character.isSurrogate(c)) throw new UnsupportedException();
+        if (item.length == 2 && item[0] == item[1] && pos + 1 < text.length() && peek() == '-' && text.charAt(pos + 1) != ']') {
+          pos++;
+          char d = text.charAt(pos++);
+          int[] to = d == '\\' ? escape(true) : new int[]{d, d};
+          if (to.length != 2 || to[0] != to[1] || to[0] < item[0] || Character.isSurrogate(d)) throw new UnsupportedException();
+          item = new int[]{item[0], to[0]};
+        }
+        parts.add(item);
+      }
+      int[] result = union(parts);
+      return negated ? complement(result) : result;
+    }
+
+    private int[] escape(boolean inClass) {
+      if (!more()) throw new UnsupportedException();
+      char c = text.charAt(pos++);
+      switch (c) {
+        case 'd': return DIGIT;
+        case 'D': return complement(DIGIT);
+        case 'w': return WORD;
+        case 'W': return complement(WORD);
+        case 's': return SPACE;
+        case 'S': return complement(SPACE);
+        case 't': return single('\t');
+        case 'n': return single('\n');
+        case 'r': return single('\r');
+        case 'f': return single('\f');
+        case 'a': return single('\u0007');
+        case 'e': return single('\u001B');
+        case 'x': return single(hex(2));
+        case 'u': return single(hex(4));
+        case '0': {
+          int value = 0, digits = 0;
+          while (more() && digits < 3 && peek() >= '0' && peek() <= '7' && value * 8 + (peek() - '0') <= 0377) {
+            value = value * 8 + (text.charAt(pos++) - '0');
+            digits++;
+          }
+          if (digits == 0) throw new UnsupportedException();
+          return single(value);
+        }
+        default:
+          // any other letter or digit is a special construct: \b, \p{..}, \Q, back-references, etc.
+          if (Character.isLetterOrDigit(c) || Character.isSurrogate(c)) throw new UnsupportedException();
+          return single(c);
+      }
+    }
+
+    private int hex(int digits) {
+      if (pos + digits > text.length()) throw new UnsupportedException();
+      try {
+        int value = Integer.parseInt(text.substring(pos, pos + digits), 16);
+        pos += digits;
+        if (Character.isSurrogate((char)value)) throw new UnsupportedException();
+        return value;
+      }
+      catch (NumberFormatException e) {
+        throw new UnsupportedException();
+      }
+    }
+
+    private static int[] single(int c) {
+      return new int[]{c, c};
+    }
+  }
+
+  private static int[] union(List<int[]> parts) {
+    List<int[]> ranges = ContainerUtil.newArrayList();
+    for (int[] part : parts) {
+      for (int i = 0; i < part.length; i += 2) {
+        ranges.add(new int[]{part[i], part[i + 1]});
+      }
+    }
+    ranges.sort((o1, o2) -> Integer.compare(o1[0], o2[0]));
+    TIntArrayList result = new TIntArrayList();
+    for (int[] range : ranges) {
+      int size = result.size();
+      if (size > 0 && range[0] <= result.get(size - 1) + 1) {
+        result.set(size - 1, Math.max(result.get(size - 1), range[1]));
+      }
+      else {
+        result.add(range[0]);
+        result.add(range[1]);
+      }
+    }
+    return result.toNativeArray();
+  }
+
+  private static int[] complement(int[] ranges) {
+    TIntArrayList result = new TIntArrayList();
+    int next = 0;
+    for (int i = 0; i < ranges.length; i += 2) {
+      if (ranges[i] > next) {
+        result.add(next);
+        result.add(ranges[i] - 1);
+      }
+      next = ranges[i + 1] + 1;
+    }
+    if (next < CHAR_LIMIT) {
+      result.add(next);
+      result.add(CHAR_LIMIT - 1);
+    }
+    return result.toNativeArray();
+  }
+}
@@ -47,6 +47,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.Map;
 
 import static com.intellij.openapi.util.text.StringUtil.*;
 
@@ -874,8 +875,89 @@ public class GeneratedParserUtilBase {
     return new Builder(builder, state, parser);
   }
 
+  /**
+   * Extends sets packed into one row of bits per element type that belongs to any of them,
+   * rows are looked up directly by {@link IElementType#getIndex()} relative to the smallest index,
+   * so the matrix size only depends on the grammar.
+   */
+  public static final class ExtendsMatrix {
+    private static final Map<TokenSet[], ExtendsMatrix> ourMatrices = ContainerUtil.createConcurrentWeakMap();
+
+    private final int myMinIndex;
+    private final short[] myRowNumbers;
+    private final long[] myRows;
+    private final int myStride;
+
+    private ExtendsMatrix(int minIndex, short[] rowNumbers, long[] rows, int stride) {
+      myMinIndex = minIndex;
+      myRowNumbers = rowNumbers;
+      myRows = rows;
+      myStride = stride;
+    }
+
+    /**
+     * Returns the matrix cached for the array instance, null if some type is not registered and has no index.
+     */
+    @Nullable
+    public static ExtendsMatrix get(@NotNull TokenSet[] extendsSets) {
+      ExtendsMatrix matrix = ourMatrices.get(extendsSets);
+      if (matrix == null) {
+        matrix = build(extendsSets);
+        if (matrix != null) ourMatrices.put(extendsSets, matrix);
+      }
+      return matrix;
+    }
+
+    @Nullable
+    private static ExtendsMatrix build(@NotNull TokenSet[] extendsSets) {
+      int min = Integer.MAX_VALUE;
+      int max = -1;
+      for (TokenSet set : extendsSets) {
+        for (IElementType type : set.getTypes()) {
+          if (type.getIndex() < 0) return null;
+          min = Math.min(min, type.getIndex());
+          max = Math.max(max, type.getIndex());
+        }
+      }
+      if (max < 0) return null;
+      // row numbers are 1-based, 0 means the type is in no set
+      short[] rowNumbers = new short[max - min + 1];
+      int size = 0;
+      for (TokenSet set : extendsSets) {
+        for (IElementType type : set.getTypes()) {
+          if (rowNumbers[type.getIndex() - min] == 0) rowNumbers[type.getIndex() - min] = (short)++size;
+        }
+      }
+      int stride = (extendsSets.length + 63) >> 6;
+      long[] rows = new long[size * stride];
+      for (int i = 0; i < extendsSets.length; i++) {
+        for (IElementType type : extendsSets[i].getTypes()) {
+          rows[(rowNumbers[type.getIndex() - min] - 1) * stride + (i >> 6)] |= 1L << (i & 63);
+        }
+      }
+      return new ExtendsMatrix(min, rowNumbers, rows, stride);
+    }
+
+    public boolean typeExtends(@NotNull IElementType child, @NotNull IElementType parent) {
+      int c = getRowStart(child);
+      if (c < 0) return false;
+      int p = getRowStart(parent);
+      if (p < 0) return false;
+      for (int i = 0; i < myStride; i++) {
+        if ((myRows[c + i] & myRows[p + i]) != 0) return true;
+      }
+      return false;
+    }
+
+    private int getRowStart(@NotNull IElementType type) {
+      int i = type.getIndex() - myMinIndex;
+      return i >= 0 && i < myRowNumbers.length ? (myRowNumbers[i] - 1) * myStride : -1;
+    }
+  }
+
   public static class ErrorState {
     TokenSet[] extendsSets;
+    private ExtendsMatrix extendsMatrix;
     public PairProcessor<IElementType, IElementType> altExtendsChecker;
 
     int predicateCount;
@@ -923,6 +1005,7 @@ public class GeneratedParserUtilBase {
 
     public static void initState(ErrorState state, PsiBuilder builder, IElementType root, TokenSet[] extendsSets) {
       state.extendsSets = extendsSets;
+      state.extendsMatrix = extendsSets == null || extendsSets.length == 0 ? null : ExtendsMatrix.get(extendsSets);
       PsiFile file = builder.getUserDataUnprotected(FileContextUtil.CONTAINING_FILE_KEY);
       state.completionState = file == null? null: file.getUserData(COMPLETION_STATE_KEY);
       Language language = file == null? root.getLanguage() : file.getLanguage();
@@ -998,7 +1081,10 @@ public class GeneratedParserUtilBase {
 
     public boolean typeExtends(IElementType child, IElementType parent) {
       if (child == parent) return true;
-      if (extendsSets != null) {
+      if (extendsMatrix != null) {
+        if (extendsMatrix.typeExtends(child, parent)) return true;
+      }
+      else if (extendsSets != null) {
         for (TokenSet set : extendsSets) {
           if (set.contains(child) && set.contains(parent)) return true;
         }
@@ -0,0 +1,307 @@
+// ---- GeneratedParser.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated;
+
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilder.Marker;
+import static generated.GeneratedTypes.*;
+import static com.intellij.lang.parser.GeneratedParserUtilBase.*;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.lang.PsiParser;
+import com.intellij.lang.LightPsiParser;
+
+@SuppressWarnings({"SimplifiableIfStatement", "UnusedAssignment"})
+public class GeneratedParser implements PsiParser, LightPsiParser {
+
+  public ASTNode parse(IElementType root_, PsiBuilder builder_) {
+    parseLight(root_, builder_);
+    return builder_.getTreeBuilt();
+  }
+
+  public void parseLight(IElementType root_, PsiBuilder builder_) {
+    boolean result_;
+    builder_ = adapt_builder_(root_, builder_, this, null);
+    Marker marker_ = enter_section_(builder_, 0, _COLLAPSE_, null);
+    if (root_ == CALL) {
+      result_ = call(builder_, 0);
+    }
+    else if (root_ == CALL_ARGS) {
+      result_ = call_args(builder_, 0);
+    }
+    else if (root_ == DECL) {
+      result_ = decl(builder_, 0);
+    }
+    else if (root_ == STATEMENT) {
+      result_ = statement(builder_, 0);
+    }
+    else {
+      result_ = parse_root_(root_, builder_, 0);
+    }
+    exit_section_(builder_, 0, marker_, root_, result_, true, TRUE_CONDITION);
+  }
+
+  protected boolean parse_root_(IElementType root_, PsiBuilder builder_, int level_) {
+    return root(builder_, level_ + 1);
+  }
+
+  /* ********************************************************** */
+  // id '(' ')' call_args | id '(' ')' ';' | id suffix | id '.'
+  public static boolean call(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "call")) return false;
+    if (!nextTokenIs(builder_, ID)) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = call_0(builder_, level_ + 1);
+    if (!result_) result_ = call_1(builder_, level_ + 1);
+    if (!result_) result_ = call_2(builder_, level_ + 1);
+    if (!result_) result_ = call_3(builder_, level_ + 1);
+    exit_section_(builder_, marker_, CALL, result_);
+    return result_;
+  }
+
+  // id '(' ')' call_args
+  private static boolean call_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "call_0")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, ID);
+    result_ = result_ && consumeToken(builder_, "(");
+    result_ = result_ && consumeToken(builder_, ")");
+    result_ = result_ && call_args(builder_, level_ + 1);
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // id '(' ')' ';'
+  private static boolean call_1(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "call_1")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, ID);
+    result_ = result_ && consumeToken(builder_, "(");
+    result_ = result_ && consumeToken(builder_, ")");
+    result_ = result_ && consumeToken(builder_, ";");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // id suffix
+  private static boolean call_2(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "call_2")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, ID);
+    result_ = result_ && suffix(builder_, level_ + 1);
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // id '.'
+  private static boolean call_3(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "call_3")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, ID);
+    result_ = result_ && consumeToken(builder_, ".");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // '(' ')'
+  public static boolean call_args(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "call_args")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _LEFT_, CALL_ARGS, "<call args>");
+    result_ = consumeToken(builder_, "(");
+    result_ = result_ && consumeToken(builder_, ")");
+    exit_section_(builder_, level_, marker_, result_, false, null);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // 'var' id '=' expr | 'var' id
+  public static boolean decl(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "decl")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_, DECL, "<decl>");
+    result_ = decl_0(builder_, level_ + 1);
+    if (!result_) result_ = decl_1(builder_, level_ + 1);
+    exit_section_(builder_, level_, marker_, result_, false, null);
+    return result_;
+  }
+
+  // 'var' id '=' expr
+  private static boolean decl_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "decl_0")) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_);
+    result_ = consumeToken(builder_, "var");
+    pinned_ = result_; // pin = 1
+    result_ = result_ && report_error_(builder_, consumeToken(builder_, ID));
+    result_ = pinned_ && report_error_(builder_, consumeToken(builder_, "=")) && result_;
+    result_ = pinned_ && expr(builder_, level_ + 1) && result_;
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  // 'var' id
+  private static boolean decl_1(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "decl_1")) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_);
+    result_ = consumeToken(builder_, "var");
+    pinned_ = result_; // pin = 1
+    result_ = result_ && consumeToken(builder_, ID);
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  /* ********************************************************** */
+  // '(' ')' | '(' | 'null'
+  static boolean expr(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "expr")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = expr_0(builder_, level_ + 1);
+    if (!result_) result_ = consumeToken(builder_, "(");
+    if (!result_) result_ = consumeToken(builder_, "null");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // '(' ')'
+  private static boolean expr_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "expr_0")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, "(");
+    result_ = result_ && consumeToken(builder_, ")");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // statement *
+  static boolean root(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "root")) return false;
+    int pos_ = current_position_(builder_);
+    while (true) {
+      if (!statement(builder_, level_ + 1)) break;
+      if (!empty_element_parsed_guard_(builder_, "root", pos_)) break;
+      pos_ = current_position_(builder_);
+    }
+    return true;
+  }
+
+  /* ********************************************************** */
+  // 'let' id '=' expr ';'
+  //   | 'let' id ';'
+  //   | 'print' expr ';'
+  //   | 'print' ';'
+  //   | decl
+  public static boolean statement(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "statement")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_, STATEMENT, "<statement>");
+    result_ = statement_0(builder_, level_ + 1);
+    if (!result_) result_ = statement_1(builder_, level_ + 1);
+    if (!result_) result_ = decl(builder_, level_ + 1);
+    exit_section_(builder_, level_, marker_, result_, false, null);
+    return result_;
+  }
+
+  // 'let' id ('=' expr ';' | ';')
+  private static boolean statement_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "statement_0")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, "let");
+    result_ = result_ && consumeToken(builder_, ID);
+    result_ = result_ && statement_0_2(builder_, level_ + 1);
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // '=' expr ';' | ';'
+  private static boolean statement_0_2(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "statement_0_2")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = statement_0_2_0(builder_, level_ + 1);
+    if (!result_) result_ = consumeToken(builder_, ";");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // '=' expr ';'
+  private static boolean statement_0_2_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "statement_0_2_0")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, "=");
+    result_ = result_ && expr(builder_, level_ + 1);
+    result_ = result_ && consumeToken(builder_, ";");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // 'print' (expr ';' | ';')
+  private static boolean statement_1(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "statement_1")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, "print");
+    result_ = result_ && statement_1_1(builder_, level_ + 1);
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // expr ';' | ';'
+  private static boolean statement_1_1(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "statement_1_1")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = statement_1_1_0(builder_, level_ + 1);
+    if (!result_) result_ = consumeToken(builder_, ";");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // expr ';'
+  private static boolean statement_1_1_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "statement_1_1_0")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = expr(builder_, level_ + 1);
+    result_ = result_ && consumeToken(builder_, ";");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // call_args | '[' ']'
+  static boolean suffix(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "suffix")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = call_args(builder_, level_ + 1);
+    if (!result_) result_ = suffix_1(builder_, level_ + 1);
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  // '[' ']'
+  private static boolean suffix_1(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "suffix_1")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, "[");
+    result_ = result_ && consumeToken(builder_, "]");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+}
\ No newline at end of file
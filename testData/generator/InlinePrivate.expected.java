@@ -0,0 +1,296 @@
+// ---- GeneratedParser.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated;
+
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilder.Marker;
+import static generated.GeneratedTypes.*;
+import static com.intellij.lang.parser.GeneratedParserUtilBase.*;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.lang.PsiParser;
+import com.intellij.lang.LightPsiParser;
+
+@SuppressWarnings({"SimplifiableIfStatement", "UnusedAssignment"})
+public class GeneratedParser implements PsiParser, LightPsiParser {
+
+  public ASTNode parse(IElementType root_, PsiBuilder builder_) {
+    parseLight(root_, builder_);
+    return builder_.getTreeBuilt();
+  }
+
+  public void parseLight(IElementType root_, PsiBuilder builder_) {
+    boolean result_;
+    builder_ = adapt_builder_(root_, builder_, this, null);
+    Marker marker_ = enter_section_(builder_, 0, _COLLAPSE_, null);
+    if (root_ == ENTRY) {
+      result_ = entry(builder_, 0);
+    }
+    else if (root_ == LIST) {
+      result_ = list(builder_, 0);
+    }
+    else if (root_ == LITERAL) {
+      result_ = literal(builder_, 0);
+    }
+    else if (root_ == PAIR) {
+      result_ = pair(builder_, 0);
+    }
+    else if (root_ == PINNED_PAIR) {
+      result_ = pinned_pair(builder_, 0);
+    }
+    else {
+      result_ = parse_root_(root_, builder_, 0);
+    }
+    exit_section_(builder_, 0, marker_, root_, result_, true, TRUE_CONDITION);
+  }
+
+  protected boolean parse_root_(IElementType root_, PsiBuilder builder_, int level_) {
+    return file(builder_, level_ + 1);
+  }
+
+  /* ********************************************************** */
+  // 'true' | 'false'
+  static boolean bool(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "bool")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, "true");
+    if (!result_) result_ = consumeToken(builder_, "false");
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // ')'
+  static boolean close(PsiBuilder builder_, int level_) {
+    return consumeToken(builder_, PAREN2);
+  }
+
+  /* ********************************************************** */
+  // key '=' value
+  public static boolean entry(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "entry")) return false;
+    if (!nextTokenIs(builder_, ID)) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_, ENTRY, "<assignment>");
+    result_ = consumeToken(builder_, ID);
+    result_ = result_ && consumeToken(builder_, EQ);
+    pinned_ = result_; // pin = 2
+    result_ = result_ && value(builder_, level_ + 1);
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  /* ********************************************************** */
+  // list (';' list ) *
+  static boolean file(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "file")) return false;
+    if (!nextTokenIs(builder_, PAREN1)) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_);
+    result_ = list(builder_, level_ + 1);
+    pinned_ = result_; // pin = 1
+    result_ = result_ && file_1(builder_, level_ + 1);
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  // (';' list ) *
+  private static boolean file_1(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "file_1")) return false;
+    int pos_ = current_position_(builder_);
+    while (true) {
+      if (!file_1_0(builder_, level_ + 1)) break;
+      if (!empty_element_parsed_guard_(builder_, "file_1", pos_)) break;
+      pos_ = current_position_(builder_);
+    }
+    return true;
+  }
+
+  // ';' list
+  private static boolean file_1_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "file_1_0")) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_);
+    result_ = consumeToken(builder_, SEMI);
+    pinned_ = result_; // pin = 1
+    result_ = result_ && list(builder_, level_ + 1);
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  /* ********************************************************** */
+  // id
+  static boolean key(PsiBuilder builder_, int level_) {
+    return consumeToken(builder_, ID);
+  }
+
+  /* ********************************************************** */
+  // open [!close entry (',' entry) * ] close
+  public static boolean list(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "list")) return false;
+    if (!nextTokenIs(builder_, PAREN1)) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_, LIST, null);
+    result_ = consumeToken(builder_, PAREN1);
+    pinned_ = result_; // pin = 1
+    result_ = result_ && report_error_(builder_, list_1(builder_, level_ + 1));
+    result_ = pinned_ && consumeToken(builder_, PAREN2) && result_;
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  // [!close entry (',' entry) * ]
+  private static boolean list_1(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "list_1")) return false;
+    list_1_0(builder_, level_ + 1);
+    return true;
+  }
+
+  // !close entry (',' entry) *
+  private static boolean list_1_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "list_1_0")) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_);
+    result_ = list_1_0_0(builder_, level_ + 1);
+    pinned_ = result_; // pin = 1
+    result_ = result_ && report_error_(builder_, entry(builder_, level_ + 1));
+    result_ = pinned_ && list_1_0_2(builder_, level_ + 1) && result_;
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  // !close
+  private static boolean list_1_0_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "list_1_0_0")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _NOT_);
+    result_ = !consumeToken(builder_, PAREN2);
+    exit_section_(builder_, level_, marker_, result_, false, null);
+    return result_;
+  }
+
+  // (',' entry) *
+  private static boolean list_1_0_2(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "list_1_0_2")) return false;
+    int pos_ = current_position_(builder_);
+    while (true) {
+      if (!list_1_0_2_0(builder_, level_ + 1)) break;
+      if (!empty_element_parsed_guard_(builder_, "list_1_0_2", pos_)) break;
+      pos_ = current_position_(builder_);
+    }
+    return true;
+  }
+
+  // ',' entry
+  private static boolean list_1_0_2_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "list_1_0_2_0")) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_);
+    result_ = consumeToken(builder_, COMMA);
+    pinned_ = result_; // pin = 1
+    result_ = result_ && entry(builder_, level_ + 1);
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  /* ********************************************************** */
+  // number | bool | 'null'
+  public static boolean literal(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "literal")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_, LITERAL, "<literal>");
+    result_ = consumeToken(builder_, NUMBER);
+    if (!result_) result_ = consumeToken(builder_, "true");
+    if (!result_) result_ = consumeToken(builder_, "false");
+    if (!result_) result_ = consumeToken(builder_, "null");
+    exit_section_(builder_, level_, marker_, result_, false, null);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // '('
+  static boolean open(PsiBuilder builder_, int level_) {
+    return consumeToken(builder_, PAREN1);
+  }
+
+  /* ********************************************************** */
+  // '(' pair_items ')'
+  public static boolean pair(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "pair")) return false;
+    if (!nextTokenIs(builder_, PAREN1)) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeTokens(builder_, 0, PAREN1, ID, COMMA, ID, PAREN2);
+    exit_section_(builder_, marker_, PAIR, result_);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // id ',' id
+  static boolean pair_items(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "pair_items")) return false;
+    if (!nextTokenIs(builder_, ID)) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeTokens(builder_, 0, ID, COMMA, ID);
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // '(' pair_items ')'
+  public static boolean pinned_pair(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "pinned_pair")) return false;
+    if (!nextTokenIs(builder_, PAREN1)) return false;
+    boolean result_, pinned_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_, PINNED_PAIR, null);
+    result_ = consumeToken(builder_, PAREN1);
+    pinned_ = result_; // pin = 1
+    result_ = result_ && report_error_(builder_, pair_items(builder_, level_ + 1));
+    result_ = pinned_ && consumeToken(builder_, PAREN2) && result_;
+    exit_section_(builder_, level_, marker_, result_, pinned_, null);
+    return result_ || pinned_;
+  }
+
+  /* ********************************************************** */
+  // number
+  static boolean value(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "value")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_);
+    result_ = consumeToken(builder_, NUMBER);
+    exit_section_(builder_, level_, marker_, result_, false, value_recover_parser_);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // !(',' | ')' | ';')
+  static boolean value_recover(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "value_recover")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _NOT_);
+    result_ = !value_recover_0(builder_, level_ + 1);
+    exit_section_(builder_, level_, marker_, result_, false, null);
+    return result_;
+  }
+
+  // ',' | ')' | ';'
+  private static boolean value_recover_0(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "value_recover_0")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_);
+    result_ = consumeToken(builder_, COMMA);
+    if (!result_) result_ = consumeToken(builder_, PAREN2);
+    if (!result_) result_ = consumeToken(builder_, SEMI);
+    exit_section_(builder_, marker_, null, result_);
+    return result_;
+  }
+
+  final static Parser value_recover_parser_ = new Parser() {
+    public boolean parse(PsiBuilder builder_, int level_) {
+      return value_recover(builder_, level_ + 1);
+    }
+  };
+}
\ No newline at end of file
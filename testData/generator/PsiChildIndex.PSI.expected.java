@@ -0,0 +1,351 @@
+// ---- GeneratedTypes.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated;
+
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.PsiElement;
+import com.intellij.lang.ASTNode;
+import generated.psi.impl.*;
+
+public interface GeneratedTypes {
+
+  IElementType ELEMENT = new IElementType("ELEMENT", null);
+  IElementType ENTRY = new IElementType("ENTRY", null);
+  IElementType LIST = new IElementType("LIST", null);
+  IElementType MAP = new IElementType("MAP", null);
+
+
+  class Factory {
+    public static PsiElement createElement(ASTNode node) {
+      IElementType type = node.getElementType();
+       if (type == ELEMENT) {
+        return new ElementImpl(node);
+      }
+      else if (type == ENTRY) {
+        return new EntryImpl(node);
+      }
+      else if (type == LIST) {
+        return new ListImpl(node);
+      }
+      else if (type == MAP) {
+        return new MapImpl(node);
+      }
+      throw new AssertionError("Unknown element type: " + type);
+    }
+  }
+}
+// ---- Element.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi;
+
+import org.jetbrains.annotations.*;
+import com.intellij.psi.PsiElement;
+
+public interface Element extends PsiElement {
+
+}
+// ---- Entry.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi;
+
+import org.jetbrains.annotations.*;
+import com.intellij.psi.PsiElement;
+
+public interface Entry extends PsiElement {
+
+  @NotNull
+  Element getElement();
+
+  @Nullable
+  Map getMap();
+
+}
+// ---- List.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi;
+
+import org.jetbrains.annotations.*;
+import com.intellij.psi.PsiElement;
+
+public interface List extends PsiElement {
+
+  @NotNull
+  java.util.List<Element> getElementList();
+
+}
+// ---- Map.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi;
+
+import org.jetbrains.annotations.*;
+import com.intellij.psi.PsiElement;
+
+public interface Map extends PsiElement {
+
+  @NotNull
+  java.util.List<Entry> getEntryList();
+
+}
+// ---- ElementImpl.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi.impl;
+
+import org.jetbrains.annotations.*;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.util.PsiTreeUtil;
+import static generated.GeneratedTypes.*;
+import com.intellij.extapi.psi.ASTWrapperPsiElement;
+import generated.psi.*;
+
+public class ElementImpl extends ASTWrapperPsiElement implements Element {
+
+  public ElementImpl(ASTNode node) {
+    super(node);
+  }
+
+  public void accept(@NotNull Visitor visitor) {
+    visitor.visitElement(this);
+  }
+
+  public void accept(@NotNull PsiElementVisitor visitor) {
+    if (visitor instanceof Visitor) accept((Visitor)visitor);
+    else super.accept(visitor);
+  }
+
+}
+// ---- EntryImpl.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi.impl;
+
+import org.jetbrains.annotations.*;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.util.PsiTreeUtil;
+import static generated.GeneratedTypes.*;
+import com.intellij.extapi.psi.ASTWrapperPsiElement;
+import generated.psi.*;
+
+public class EntryImpl extends ASTWrapperPsiElement implements Entry {
+
+  private volatile $ChildIndex $childIndex;
+
+  public EntryImpl(ASTNode node) {
+    super(node);
+  }
+
+  public void accept(@NotNull Visitor visitor) {
+    visitor.visitEntry(this);
+  }
+
+  public void accept(@NotNull PsiElementVisitor visitor) {
+    if (visitor instanceof Visitor) accept((Visitor)visitor);
+    else super.accept(visitor);
+  }
+
+  @Override
+  @NotNull
+  public Element getElement() {
+    return notNullChild($getChildIndex().myElement);
+  }
+
+  @Override
+  @Nullable
+  public Map getMap() {
+    return $getChildIndex().myMap;
+  }
+
+  @Override
+  public void subtreeChanged() {
+    super.subtreeChanged();
+    $childIndex = null;
+  }
+
+  private $ChildIndex $getChildIndex() {
+    $ChildIndex index = $childIndex;
+    if (index == null) $childIndex = index = new $ChildIndex(this);
+    return index;
+  }
+
+  private static final class $ChildIndex {
+    final Element myElement;
+    final Map myMap;
+
+    $ChildIndex(PsiElement element) {
+      Element myElement = null;
+      Map myMap = null;
+      for (PsiElement child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (myElement == null && child instanceof Element) myElement = (Element)child;
+        if (myMap == null && child instanceof Map) myMap = (Map)child;
+      }
+      this.myElement = myElement;
+      this.myMap = myMap;
+    }
+  }
+
+}
+// ---- ListImpl.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi.impl;
+
+import org.jetbrains.annotations.*;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.util.PsiTreeUtil;
+import static generated.GeneratedTypes.*;
+import com.intellij.extapi.psi.ASTWrapperPsiElement;
+import generated.psi.*;
+import java.util.Collections;
+import com.intellij.util.SmartList;
+
+public class ListImpl extends ASTWrapperPsiElement implements List {
+
+  private volatile $ChildIndex $childIndex;
+
+  public ListImpl(ASTNode node) {
+    super(node);
+  }
+
+  public void accept(@NotNull Visitor visitor) {
+    visitor.visitList(this);
+  }
+
+  public void accept(@NotNull PsiElementVisitor visitor) {
+    if (visitor instanceof Visitor) accept((Visitor)visitor);
+    else super.accept(visitor);
+  }
+
+  @Override
+  @NotNull
+  public java.util.List<Element> getElementList() {
+    return $getChildIndex().myElementList;
+  }
+
+  @Override
+  public void subtreeChanged() {
+    super.subtreeChanged();
+    $childIndex = null;
+  }
+
+  private $ChildIndex $getChildIndex() {
+    $ChildIndex index = $childIndex;
+    if (index == null) $childIndex = index = new $ChildIndex(this);
+    return index;
+  }
+
+  private static final class $ChildIndex {
+    final java.util.List<Element> myElementList;
+
+    $ChildIndex(PsiElement element) {
+      java.util.List<Element> myElementList = null;
+      for (PsiElement child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child instanceof Element) {
+          if (myElementList == null) myElementList = new SmartList<Element>();
+          myElementList.add((Element)child);
+        }
+      }
+      this.myElementList = myElementList == null ? Collections.<Element>emptyList() : Collections.unmodifiableList(myElementList);
+    }
+  }
+
+}
+// ---- MapImpl.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi.impl;
+
+import org.jetbrains.annotations.*;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.util.PsiTreeUtil;
+import static generated.GeneratedTypes.*;
+import com.intellij.extapi.psi.ASTWrapperPsiElement;
+import generated.psi.*;
+import java.util.Collections;
+import com.intellij.util.SmartList;
+
+public class MapImpl extends ASTWrapperPsiElement implements Map {
+
+  private volatile $ChildIndex $childIndex;
+
+  public MapImpl(ASTNode node) {
+    super(node);
+  }
+
+  public void accept(@NotNull Visitor visitor) {
+    visitor.visitMap(this);
+  }
+
+  public void accept(@NotNull PsiElementVisitor visitor) {
+    if (visitor instanceof Visitor) accept((Visitor)visitor);
+    else super.accept(visitor);
+  }
+
+  @Override
+  @NotNull
+  public java.util.List<Entry> getEntryList() {
+    return $getChildIndex().myEntryList;
+  }
+
+  @Override
+  public void subtreeChanged() {
+    super.subtreeChanged();
+    $childIndex = null;
+  }
+
+  private $ChildIndex $getChildIndex() {
+    $ChildIndex index = $childIndex;
+    if (index == null) $childIndex = index = new $ChildIndex(this);
+    return index;
+  }
+
+  private static final class $ChildIndex {
+    final java.util.List<Entry> myEntryList;
+
+    $ChildIndex(PsiElement element) {
+      java.util.List<Entry> myEntryList = null;
+      for (PsiElement child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child instanceof Entry) {
+          if (myEntryList == null) myEntryList = new SmartList<Entry>();
+          myEntryList.add((Entry)child);
+        }
+      }
+      this.myEntryList = myEntryList == null ? Collections.<Entry>emptyList() : Collections.unmodifiableList(myEntryList);
+    }
+  }
+
+}
+// ---- Visitor.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated.psi;
+
+import org.jetbrains.annotations.*;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiElement;
+
+public class Visitor extends PsiElementVisitor {
+
+  public void visitElement(@NotNull Element o) {
+    visitPsiElement(o);
+  }
+
+  public void visitEntry(@NotNull Entry o) {
+    visitPsiElement(o);
+  }
+
+  public void visitList(@NotNull List o) {
+    visitPsiElement(o);
+  }
+
+  public void visitMap(@NotNull Map o) {
+    visitPsiElement(o);
+  }
+
+  public void visitPsiElement(@NotNull PsiElement o) {
+    visitElement(o);
+  }
+
+}
\ No newline at end of file
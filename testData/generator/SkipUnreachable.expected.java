@@ -0,0 +1,93 @@
+// ---- GeneratedParser.java -----------------
+// This is a generated file. Not intended for manual editing.
+package generated;
+
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilder.Marker;
+import static generated.GeneratedTypes.*;
+import static com.intellij.lang.parser.GeneratedParserUtilBase.*;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.lang.PsiParser;
+import com.intellij.lang.LightPsiParser;
+
+@SuppressWarnings({"SimplifiableIfStatement", "UnusedAssignment"})
+public class GeneratedParser implements PsiParser, LightPsiParser {
+
+  public ASTNode parse(IElementType root_, PsiBuilder builder_) {
+    parseLight(root_, builder_);
+    return builder_.getTreeBuilt();
+  }
+
+  public void parseLight(IElementType root_, PsiBuilder builder_) {
+    boolean result_;
+    builder_ = adapt_builder_(root_, builder_, this, null);
+    Marker marker_ = enter_section_(builder_, 0, _COLLAPSE_, null);
+    if (root_ == ITEM) {
+      result_ = item(builder_, 0);
+    }
+    else {
+      result_ = parse_root_(root_, builder_, 0);
+    }
+    exit_section_(builder_, 0, marker_, root_, result_, true, TRUE_CONDITION);
+  }
+
+  protected boolean parse_root_(IElementType root_, PsiBuilder builder_, int level_) {
+    return root(builder_, level_ + 1);
+  }
+
+  /* ********************************************************** */
+  // 'c'
+  static boolean helper(PsiBuilder builder_, int level_) {
+    return consumeToken(builder_, "c");
+  }
+
+  /* ********************************************************** */
+  // 'a' <<listOf value>>
+  public static boolean item(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "item")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_, ITEM, "<item>");
+    result_ = consumeToken(builder_, "a");
+    result_ = result_ && listOf(builder_, level_ + 1, value_parser_);
+    exit_section_(builder_, level_, marker_, result_, false, null);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // 'f'
+  public static boolean orphan(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "orphan")) return false;
+    boolean result_;
+    Marker marker_ = enter_section_(builder_, level_, _NONE_, ORPHAN, "<orphan>");
+    result_ = consumeToken(builder_, "f");
+    exit_section_(builder_, level_, marker_, result_, false, null);
+    return result_;
+  }
+
+  /* ********************************************************** */
+  // item *
+  static boolean root(PsiBuilder builder_, int level_) {
+    if (!recursion_guard_(builder_, level_, "root")) return false;
+    int pos_ = current_position_(builder_);
+    while (true) {
+      if (!item(builder_, level_ + 1)) break;
+      if (!empty_element_parsed_guard_(builder_, "root", pos_)) break;
+      pos_ = current_position_(builder_);
+    }
+    return true;
+  }
+
+  /* ********************************************************** */
+  // 'b'
+  static boolean value(PsiBuilder builder_, int level_) {
+    return consumeToken(builder_, "b");
+  }
+
+  final static Parser value_parser_ = new Parser() {
+    public boolean parse(PsiBuilder builder_, int level_) {
+      return value(builder_, level_ + 1);
+    }
+  };
+}
\ No newline at end of file
@@ -0,0 +1,239 @@
+package org.intellij.grammar;
+
+import com.intellij.lang.LanguageParserDefinitions;
+import com.intellij.lang.ParserDefinition;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.impl.PsiBuilderImpl;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.impl.source.CharTableImpl;
+import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.livePreview.LivePreviewHelper;
+import org.intellij.grammar.livePreview.LivePreviewLanguage;
+import org.intellij.grammar.psi.BnfFile;
+import org.intellij.jflex.parser.JFlexParserDefinition;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Bytes allocated and markers created per token by the generated <code>GrammarParser</code> and <code>JFlexParser</code>
+ * and by the live preview interpreter on the test corpora, checked against <code>testData/allocation/budget.properties</code>.
+ * <p/>
+ * A missing entry fails the test. Run with <code>-Dgrammar.kit.test.update.budget=true</code>
+ * to record the measured numbers.
+ */
+public class BnfAllocationBudgetTest extends AbstractParsingTestCase {
+  private static final boolean UPDATE_BUDGET = Boolean.getBoolean("grammar.kit.test.update.budget");
+  private static final File BUDGET_FILE = new File(TEST_DATA_PATH, "allocation/budget.properties");
+  private static final double DEFAULT_TOLERANCE = 15;
+  private static final int RUNS = 5;
+
+  public BnfAllocationBudgetTest() {
+    super("allocation", "bnf", new BnfParserDefinition());
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // live preview grammars resolve rule references
+    LightPsi.Init.initExtensions(getProject());
+  }
+
+  public void testGrammarParser() throws IOException {
+    List<String> texts = ContainerUtil.newArrayList(
+      loadText("../grammars/Grammar.bnf"),
+      loadText("../grammars/JFlex.bnf"));
+    for (File file : listFiles(new File(TEST_DATA_PATH, "parser"), ".bnf")) {
+      texts.add(FileUtil.loadFile(file));
+    }
+    checkBudget("bnf", new BnfParserDefinition(), texts);
+  }
+
+  public void testJFlexParser() throws IOException {
+    List<String> texts = ContainerUtil.newArrayList(
+      loadText("../src/org/intellij/grammar/parser/_BnfLexer.flex"),
+      loadText("../src/org/intellij/jflex/parser/_JFlexLexer.flex"));
+    for (File file : listFiles(new File(TEST_DATA_PATH, "jflex/parser"), ".flex")) {
+      texts.add(FileUtil.loadFile(file));
+    }
+    checkBudget("flex", new JFlexParserDefinition(), texts);
+  }
+
+  public void testLivePreviewParser() throws IOException {
+    List<Pair<String, String>> samples = ContainerUtil.newArrayList(
+      Pair.create("AutoRecovery.bnf", "AutoRecovery.live.txt"),
+      Pair.create("Case75.bnf", "Case75.live.txt"),
+      Pair.create("Case153.bnf", "Case153.live.txt"),
+      Pair.create("Json.bnf", "JsonRecovery.live.txt"),
+      Pair.create("LivePreviewTutorial.bnf", "LivePreviewTutorial.live.txt"),
+      Pair.create("../generator/ExprParser.bnf", "ExprParser.live.txt"),
+      Pair.create("../generator/UpperRules.bnf", "UpperRules.live.txt"));
+    Measurement total = new Measurement();
+    for (Pair<String, String> sample : samples) {
+      String grammarText = loadText("livePreview/" + sample.first);
+      BnfFile grammar = (BnfFile)createFile(new LightVirtualFile(sample.first, grammarText));
+      LivePreviewLanguage language = (LivePreviewLanguage)LivePreviewHelper.getLanguageFor(grammar);
+      try {
+        ParserDefinition definition = LanguageParserDefinitions.INSTANCE.forLanguage(language);
+        total.add(measure(definition, ContainerUtil.newArrayList(loadText("livePreview/" + sample.second))));
+      }
+      finally {
+        LivePreviewHelper.unregisterLanguageExtensions(language);
+      }
+    }
+    checkBudget("livePreview", total);
+  }
+
+  private void checkBudget(String corpus, ParserDefinition definition, List<String> texts) throws IOException {
+    checkBudget(corpus, measure(definition, texts));
+  }
+
+  private static void checkBudget(String corpus, Measurement measurement) throws IOException {
+    assertTrue(corpus + ": empty corpus", measurement.tokens > 0);
+    Properties budget = loadBudget();
+    double tolerance = Double.parseDouble(budget.getProperty("tolerance.percent", String.valueOf(DEFAULT_TOLERANCE)));
+    String bytesKey = corpus + ".bytes.per.token";
+    String markersKey = corpus + ".markers.per.token";
+    double bytes = measurement.bytesPerToken();
+    double markers = measurement.markersPerToken();
+    if (UPDATE_BUDGET) {
+      if (measurement.bytes >= 0) budget.setProperty(bytesKey, format(bytes));
+      budget.setProperty(markersKey, format(markers));
+      saveBudget(budget);
+      return;
+    }
+    if (!budget.containsKey(bytesKey) && measurement.bytes >= 0 || !budget.containsKey(markersKey)) {
+      fail(corpus + ": no allocation budget, measured " + format(bytes) + " bytes and " + format(markers) + " markers per token, " +
+           "run with -Dgrammar.kit.test.update.budget=true to record it");
+    }
+    StringBuilder sb = new StringBuilder();
+    double bytesBudget = Double.parseDouble(budget.getProperty(bytesKey, "0"));
+    double markersBudget = Double.parseDouble(budget.getProperty(markersKey));
+    if (measurement.bytes >= 0 && bytes > bytesBudget * (1 + tolerance / 100)) {
+      sb.append(bytesKey).append(": ").append(format(bytes)).append(" > ").append(format(bytesBudget)).append("\n");
+    }
+    if (markers > markersBudget * (1 + tolerance / 100)) {
+      sb.append(markersKey).append(": ").append(format(markers)).append(" > ").append(format(markersBudget)).append("\n");
+    }
+    if (sb.length() > 0) {
+      fail(corpus + " allocation budget exceeded (" + tolerance + "% tolerance), " +
+           "rerun with -Dgrammar.kit.test.update.budget=true if intended:\n" + sb);
+    }
+  }
+
+  /**
+   * Best of several runs after a warm-up, the thread allocation counter is exact but the first runs include class loading.
+   */
+  private Measurement measure(ParserDefinition definition, List<String> texts) {
+    Measurement best = null;
+    for (int i = 0; i < RUNS + 1; i++) {
+      Measurement m = new Measurement();
+      for (String text : texts) {
+        m.add(measure(definition, text));
+      }
+      if (i > 0 && (best == null || m.bytes < best.bytes)) best = m;
+    }
+    return best;
+  }
+
+  private Measurement measure(ParserDefinition definition, String text) {
+    Measurement m = new Measurement();
+    m.tokens = countTokens(definition.createLexer(getProject()), text);
+    Lexer lexer = definition.createLexer(getProject());
+    int[] markers = {0};
+    // not an adapter, the parser utilities expect the platform builder underneath
+    PsiBuilder builder = new PsiBuilderImpl(getProject(), null, definition, lexer, new CharTableImpl(), text, null, null) {
+      @NotNull
+      @Override
+      public Marker mark() {
+        markers[0]++;
+        return super.mark();
+      }
+    };
+    long before = getAllocatedBytes();
+    // parsers return the built tree
+    definition.createParser(getProject()).parse(definition.getFileNodeType(), builder);
+    long after = getAllocatedBytes();
+    m.bytes = before < 0 ? -1 : after - before;
+    m.markers = markers[0];
+    return m;
+  }
+
+  private static int countTokens(Lexer lexer, String text) {
+    lexer.start(text);
+    int count = 0;
+    while (lexer.getTokenType() != null) {
+      count++;
+      lexer.advance();
+    }
+    return count;
+  }
+
+  private static long getAllocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+    if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) return -1;
+    return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static String loadText(String path) throws IOException {
+    return FileUtil.loadFile(new File(TEST_DATA_PATH, path));
+  }
+
+  private static List<File> listFiles(File dir, String suffix) {
+    File[] files = dir.listFiles((d, name) -> name.endsWith(suffix));
+    List<File> result = files == null ? ContainerUtil.newArrayList() : ContainerUtil.newArrayList(files);
+    ContainerUtil.sort(result);
+    return result;
+  }
+
+  private static Properties loadBudget() throws IOException {
+    Properties budget = new Properties();
+    if (BUDGET_FILE.exists()) {
+      try (InputStream is = new FileInputStream(BUDGET_FILE)) {
+        budget.load(is);
+      }
+    }
+    return budget;
+  }
+
+  private static void saveBudget(Properties budget) throws IOException {
+    FileUtil.createParentDirs(BUDGET_FILE);
+    try (OutputStream os = new FileOutputStream(BUDGET_FILE)) {
+      budget.store(os, "Allocation budget, see BnfAllocationBudgetTest");
+    }
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.US, "%.1f", value);
+  }
+
+  private static class Measurement {
+    long tokens;
+    long bytes;
+    long markers;
+
+    void add(Measurement m) {
+      tokens += m.tokens;
+      bytes = bytes < 0 || m.bytes < 0 ? -1 : bytes + m.bytes;
+      markers += m.markers;
+    }
+
+    double bytesPerToken() {
+      return tokens == 0 ? 0 : (double)bytes / tokens;
+    }
+
+    double markersPerToken() {
+      return tokens == 0 ? 0 : (double)markers / tokens;
+    }
+  }
+}
@@ -3,6 +3,7 @@ package org.intellij.grammar;
 import com.intellij.idea.Bombed;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.CharsetToolkit;
 import com.intellij.util.containers.ContainerUtil;
 import org.intellij.grammar.generator.ParserGenerator;
@@ -11,6 +12,8 @@ import org.jetbrains.annotations.NonNls;
 
 import java.io.*;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * @author gregsh
@@ -30,11 +33,15 @@ public class BnfGeneratorTest extends BnfGeneratorTestCase {
   public void testPsiGen() throws Exception { doGenTest(true); }
   public void testPsiAccessors() throws Exception { doGenTest(true); }
   public void testPsiStart() throws Exception { doGenTest(true); }
+  public void testPsiChildIndex() throws Exception { doGenTest(true); }
   public void testExprParser() throws Exception { doGenTest(true); }
   public void testTokenSequence() throws Exception { doGenTest(false); }
   public void testStub() throws Exception { doGenTest(true); }
   public void testBindersAndHooks() throws Exception { doGenTest(false); }
   public void testAutoRecovery() throws Exception { doGenTest(true); }
+  public void testInlinePrivate() throws Exception { doGenTest(false); }
+  public void testFactorChoices() throws Exception { doGenTest(false); }
+  public void testSkipUnreachable() throws Exception { doGenTest(false); }
 
   @Bombed(year = 2030, user = "author", month = 1, day = 1, description = "not implemented")
   public void testUpperRules() throws Exception { doGenTest(true); }
@@ -45,6 +52,55 @@ public class BnfGeneratorTest extends BnfGeneratorTestCase {
     newTestGenerator().generate();
   }
 
+  public void testWrittenFilesMatchExpected() throws Exception {
+    String[] names = {"Small", "Autopin", "LeftAssociative", "TokenSequence", "BindersAndHooks",
+      "InlinePrivate", "FactorChoices", "SkipUnreachable", "PsiStart", "PsiChildIndex", "AutoRecovery"};
+    for (String name : names) {
+      boolean generatePsi = new File(myFullDataPath, name + ".PSI.expected.java").exists();
+      File outputDir = FileUtil.createTempDirectory("generated", name);
+      myFile = createPsiFile(name, loadFile(name + "." + myFileExt).replaceAll("generatePsi=[^\n]*", "generatePsi=" + generatePsi));
+      ParserGenerator generator = new ParserGenerator((BnfFileImpl)myFile, "", outputDir.getPath());
+      if (generatePsi) generator.generate();
+      else generator.generateParser();
+
+      Map<String, File> written = ContainerUtil.newHashMap();
+      for (File file : FileUtil.findFilesByMask(Pattern.compile(".*\\.java"), outputDir)) {
+        assertNull("duplicate file name: " + file, written.put(file.getName(), file));
+      }
+      Map<String, String> expected = ContainerUtil.newLinkedHashMap();
+      collectExpectedFiles(name + ".expected.java", expected);
+      if (generatePsi) collectExpectedFiles(name + ".PSI.expected.java", expected);
+      assertEquals(name, expected.keySet(), written.keySet());
+      for (Map.Entry<String, String> e : expected.entrySet()) {
+        byte[] bytes = FileUtil.loadFileBytes(written.get(e.getKey()));
+        assertEquals(name + ": " + e.getKey(), e.getValue(), new String(bytes, CharsetToolkit.UTF8_CHARSET));
+      }
+      FileUtil.delete(outputDir);
+    }
+  }
+
+  /**
+   * Splits an expected file into the generated files by <code>// ---- Name.java ----</code> headers,
+   * restoring the line separators and the final line break trimmed from the expected file.
+   */
+  private void collectExpectedFiles(String expectedName, Map<String, String> result) throws IOException {
+    String separator = System.getProperty("line.separator");
+    String text = FileUtil.loadFile(new File(myFullDataPath, expectedName), CharsetToolkit.UTF8);
+    String fileName = null;
+    StringBuilder sb = new StringBuilder();
+    for (String line : StringUtil.splitByLinesKeepSeparators(StringUtil.convertLineSeparators(text) + "\n")) {
+      if (line.startsWith("// ---- ") && line.trim().endsWith("-")) {
+        if (fileName != null) result.put(fileName, sb.toString());
+        fileName = StringUtil.substringBefore(line.substring("// ---- ".length()), " ");
+        sb.setLength(0);
+      }
+      else {
+        sb.append(StringUtil.trimEnd(line, "\n")).append(separator);
+      }
+    }
+    if (fileName != null) result.put(fileName, sb.toString());
+  }
+
   private ParserGenerator newTestGenerator() {
     return new ParserGenerator((BnfFileImpl)myFile, "", myFullDataPath) {
 
@@ -0,0 +1,168 @@
+package org.intellij.grammar;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.Language;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.lang.PsiParser;
+import com.intellij.lexer.LexerBase;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.IFileElementType;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.psi.BnfFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles generator test grammars in memory and parses a whitespace-separated sample with the loaded parser.
+ */
+public class BnfInMemoryCompilerTest extends BnfGeneratorTestCase {
+
+  private static final IFileElementType FILE = new IFileElementType("SAMPLE_FILE", Language.ANY);
+  private static final IElementType TEXT = new IElementType("TEXT", Language.ANY);
+
+  public BnfInMemoryCompilerTest() {
+    super("generator");
+  }
+
+  public void testAutoRecovery() throws Exception { doTest("( 1 , 2 ) ; ( 3 )"); }
+  public void testInlinePrivate() throws Exception { doTest("( a = 1 , b = 2 ) ; ( c = 3 )"); }
+  public void testFactorChoices() throws Exception { doTest("let x = null ; let y ; print ( ) ; print ; var z = null"); }
+  public void testTokenSequence() throws Exception { doTest("c d e"); }
+  public void testPsiStart() throws Exception { doTest("( id , id )"); }
+  public void testPsiChildIndex() throws Exception { doTest("( name -> id , name -> id ( name -> id ) )"); }
+  // the generated ExpressionParser and ExpressionTypes must win over the ones on the test class path
+  public void testExprParser() throws Exception { doTest("a = 1 + 2 * ( 3 - b ) ; c IS NOT d"); }
+
+  private void doTest(String sample) throws Exception {
+    String name = getTestName(false);
+    myFile = createPsiFile(name, loadFile(name + "." + myFileExt));
+    List<File> classPath = ContainerUtil.newArrayList();
+    for (String path : StringUtil.split(System.getProperty("java.class.path"), File.pathSeparator)) {
+      classPath.add(new File(path));
+    }
+    Map<String, Class<?>> classes = InMemoryParserCompiler.generateAndLoad(
+      (BnfFile)myFile, true, classPath, getClass().getClassLoader());
+
+    PsiParser parser = null;
+    Map<String, IElementType> types = ContainerUtil.newHashMap();
+    for (Class<?> aClass : classes.values()) {
+      assertNotSame("stale class loaded: " + aClass.getName(), getClass().getClassLoader(), aClass.getClassLoader());
+      if (PsiParser.class.isAssignableFrom(aClass) && !aClass.isInterface()) {
+        parser = (PsiParser)aClass.newInstance();
+      }
+      for (Field field : aClass.getFields()) {
+        if (!Modifier.isStatic(field.getModifiers()) || !IElementType.class.isAssignableFrom(field.getType())) continue;
+        Object type = field.get(null);
+        if (type != null) types.put(type.toString(), (IElementType)type);
+      }
+    }
+    assertNotNull("parser class not generated", parser);
+
+    PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(new BnfParserDefinition(), new SampleLexer(types), sample);
+    ASTNode root = parser.parse(FILE, builder);
+    assertEquals(sample, root.getText());
+    String error = findError(root);
+    assertNull(error, error);
+  }
+
+  @Nullable
+  private static String findError(@NotNull ASTNode node) {
+    if (node.getElementType() == TokenType.ERROR_ELEMENT) {
+      return node.getTextRange() + ": " + ((PsiErrorElement)node.getPsi()).getErrorDescription();
+    }
+    for (ASTNode child = node.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+      String error = findError(child);
+      if (error != null) return error;
+    }
+    return null;
+  }
+
+  /**
+   * Whitespace-separated words: a word is typed by the element type with the same debug name,
+   * then as <code>number</code> or <code>id</code> if the grammar has such tokens.
+   * Other words match text tokens only.
+   */
+  private static class SampleLexer extends LexerBase {
+    private final Map<String, IElementType> myTypes;
+    private CharSequence myBuffer;
+    private int myEndOffset;
+    private int myTokenStart;
+    private int myTokenEnd;
+    private IElementType myTokenType;
+
+    SampleLexer(Map<String, IElementType> types) {
+      myTypes = types;
+    }
+
+    @Override
+    public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+      myBuffer = buffer;
+      myEndOffset = endOffset;
+      myTokenEnd = startOffset;
+      advance();
+    }
+
+    @Override
+    public void advance() {
+      myTokenStart = myTokenEnd;
+      if (myTokenStart >= myEndOffset) {
+        myTokenType = null;
+        return;
+      }
+      boolean whitespace = Character.isWhitespace(myBuffer.charAt(myTokenStart));
+      int end = myTokenStart;
+      while (end < myEndOffset && Character.isWhitespace(myBuffer.charAt(end)) == whitespace) end++;
+      myTokenEnd = end;
+      myTokenType = whitespace ? TokenType.WHITE_SPACE : getWordType(myBuffer.subSequence(myTokenStart, myTokenEnd).toString());
+    }
+
+    private IElementType getWordType(String word) {
+      IElementType type = myTypes.get(word);
+      if (type == null && StringUtil.isNotEmpty(word) && StringUtil.containsOnlyDigits(word)) type = myTypes.get("number");
+      if (type == null && StringUtil.isJavaIdentifier(word)) type = myTypes.get("id");
+      return type == null ? TEXT : type;
+    }
+
+    @Override
+    public int getState() {
+      return 0;
+    }
+
+    @Nullable
+    @Override
+    public IElementType getTokenType() {
+      return myTokenType;
+    }
+
+    @Override
+    public int getTokenStart() {
+      return myTokenStart;
+    }
+
+    @Override
+    public int getTokenEnd() {
+      return myTokenEnd;
+    }
+
+    @NotNull
+    @Override
+    public CharSequence getBufferSequence() {
+      return myBuffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+      return myEndOffset;
+    }
+  }
+}
@@ -1,13 +1,27 @@
 package org.intellij.grammar;
 
+import com.intellij.lang.LanguageParserDefinitions;
+import com.intellij.lexer.Lexer;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.SyntaxTraverser;
 import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.livePreview.GrammarCoverage;
 import org.intellij.grammar.livePreview.LivePreviewHelper;
 import org.intellij.grammar.livePreview.LivePreviewLanguage;
+import org.intellij.grammar.livePreview.LivePreviewLexer;
+import org.intellij.grammar.livePreview.LivePreviewProfile;
 import org.intellij.grammar.psi.BnfFile;
+import org.intellij.grammar.psi.BnfRule;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Random;
 
 /**
  * @author gregsh
@@ -28,6 +42,124 @@ public class BnfLivePreviewParserTest extends BnfGeneratorTestCase {
 
   public void testCase75() throws IOException { doTest(); }
   public void testCase153() throws IOException { doTest(); }
+  public void testMetaParameters() throws IOException { doTest(); }
+  public void testEndlessRecursion() throws IOException { doTest(); }
+
+  public void testLexerRestart() throws IOException {
+    LivePreviewLanguage language = createLanguage("Json.bnf");
+    try {
+      String text = FileUtil.loadFile(new File(myFullDataPath, "JsonRecovery.live.txt"));
+      Lexer lexer = LanguageParserDefinitions.INSTANCE.forLanguage(language).createLexer(getProject());
+      List<String> tokens = lex(lexer, text, 0);
+      int restarts = 0;
+      for (int i = 0; i < tokens.size(); i++) {
+        String token = tokens.get(i);
+        if (!token.endsWith(":" + LivePreviewLexer.RESTARTABLE)) continue;
+        assertEquals(tokens.subList(i, tokens.size()), lex(lexer, text, Integer.parseInt(token.substring(0, token.indexOf(':')))));
+        restarts++;
+      }
+      assertTrue(restarts > 1);
+    }
+    finally {
+      LivePreviewHelper.unregisterLanguageExtensions(language);
+    }
+  }
+
+  public void testProfile() throws IOException {
+    LivePreviewLanguage language = createLanguage("Json.bnf");
+    try {
+      BnfFile grammar = language.getGrammar(getProject());
+      LivePreviewProfile.setEnabled(getProject(), grammar, true);
+      myLanguage = language;
+      ensureParsed(createPsiFile("sample", FileUtil.loadFile(new File(myFullDataPath, "JsonRecovery.live.txt"))));
+      LivePreviewProfile profile = LivePreviewProfile.get(grammar.getVirtualFile());
+      assertNotNull(profile);
+      LivePreviewProfile.RuleStat root = profile.getStat(grammar.getRules().get(0).getName());
+      assertNotNull(root);
+      assertEquals(1, root.invocations);
+      assertFalse(profile.getHottest(3).isEmpty());
+
+      LivePreviewProfile.setEnabled(getProject(), grammar, false);
+      assertNull(LivePreviewProfile.get(grammar.getVirtualFile()));
+    }
+    finally {
+      LivePreviewHelper.unregisterLanguageExtensions(language);
+    }
+  }
+
+  public void testCoverage() throws IOException {
+    LivePreviewLanguage language = createLanguage("Json.bnf");
+    try {
+      BnfFile grammar = language.getGrammar(getProject());
+      GrammarCoverage coverage = new GrammarCoverage(grammar, language);
+      coverage.collect(FileUtil.loadFile(new File(myFullDataPath, "JsonRecovery.live.txt")));
+      assertEquals(1, coverage.getFileCount());
+      GrammarCoverage.Entry root = coverage.getEntries().get(0);
+      assertEquals(grammar.getRules().get(0).getName(), root.name);
+      assertEquals(1, root.calls);
+      assertTrue(ContainerUtil.exists(coverage.getEntries(), o -> GrammarCoverage.ALTERNATIVE.equals(o.kind) && o.successes > 0));
+      // value ::= string | number | json
+      assertTrue(ContainerUtil.exists(coverage.getEntries(), o -> "value#2".equals(o.name) && "json".equals(o.text)));
+
+      StringWriter writer = new StringWriter();
+      coverage.write(writer);
+      List<GrammarCoverage.Entry> entries = GrammarCoverage.read(new StringReader(writer.toString()));
+      assertEquals(coverage.getEntries().size(), entries.size());
+      for (int i = 0; i < entries.size(); i++) {
+        assertEquals(coverage.getEntries().get(i).name, entries.get(i).name);
+        assertEquals(coverage.getEntries().get(i).successes, entries.get(i).successes);
+        assertEquals(coverage.getEntries().get(i).tokens, entries.get(i).tokens);
+      }
+    }
+    finally {
+      LivePreviewHelper.unregisterLanguageExtensions(language);
+    }
+  }
+
+  public void testSyntheticSentences() {
+    SyntheticGrammars.GrammarSpec spec = new SyntheticGrammars.GrammarSpec();
+    spec.rules = 60;
+    spec.depth = 3;
+    spec.expressionLevels = 3;
+    spec.recoverRate = 0;
+    spec.unambiguous = true;
+    myLanguage = BnfLanguage.INSTANCE;
+    BnfFile grammar = (BnfFile)createFile(new LightVirtualFile("Synthetic.bnf", SyntheticGrammars.generateGrammar(new Random(11), spec)));
+    LivePreviewLanguage language = (LivePreviewLanguage)LivePreviewHelper.getLanguageFor(grammar);
+    try {
+      SyntheticGrammars.SentenceGenerator generator = new SyntheticGrammars.SentenceGenerator(grammar, new Random(11));
+      generator.maxTokens = 300;
+      BnfRule root = grammar.getRules().get(0);
+      myLanguage = language;
+      int nonEmpty = 0;
+      for (int i = 0; i < 50; i++) {
+        String sentence = generator.generate(root);
+        PsiFile file = createPsiFile("sentence" + i, sentence);
+        ensureParsed(file);
+        assertEmpty(sentence, SyntaxTraverser.psiTraverser(file).filter(PsiErrorElement.class).toList());
+        if (!sentence.isEmpty()) nonEmpty++;
+      }
+      assertTrue(nonEmpty > 10);
+    }
+    finally {
+      LivePreviewHelper.unregisterLanguageExtensions(language);
+    }
+  }
+
+  private static List<String> lex(Lexer lexer, String text, int start) {
+    List<String> result = ContainerUtil.newArrayList();
+    for (lexer.start(text, start, text.length(), 0); lexer.getTokenType() != null; lexer.advance()) {
+      result.add(lexer.getTokenStart() + ":" + lexer.getTokenType() + ":" + lexer.getState());
+    }
+    return result;
+  }
+
+  private LivePreviewLanguage createLanguage(String grammarFile) throws IOException {
+    File grammarIOFile = new File(myFullDataPath, grammarFile);
+    myLanguage = BnfLanguage.INSTANCE;
+    BnfFile grammarPsi = (BnfFile) createFile(new LightVirtualFile(grammarFile, FileUtil.loadFile(grammarIOFile)));
+    return (LivePreviewLanguage) LivePreviewHelper.getLanguageFor(grammarPsi);
+  }
 
   protected void doTest() throws IOException {
     doTest(getTestName(false) + ".bnf");
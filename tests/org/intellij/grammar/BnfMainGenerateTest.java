@@ -0,0 +1,81 @@
+package org.intellij.grammar;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.containers.ContainerUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Command-line generation of all generator test grammars: parallel runs must produce the same files as a serial one.
+ */
+public class BnfMainGenerateTest extends UsefulTestCase {
+  private static final String THREADS = "grammar.kit.gen.threads";
+
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("main", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testParallelMatchesSerial() throws Exception {
+    String grammars = new File(AbstractParsingTestCase.TEST_DATA_PATH, "generator").getPath() + File.separator + "*.bnf";
+    File serial = new File(myDir, "serial");
+    File parallel = new File(myDir, "parallel");
+    int serialCode = generate("1", serial, grammars);
+    int parallelCode = generate("4", parallel, grammars);
+    assertEquals(serialCode, parallelCode);
+
+    Map<String, byte[]> expected = collectFiles(serial);
+    Map<String, byte[]> actual = collectFiles(parallel);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected.keySet(), actual.keySet());
+    for (String path : expected.keySet()) {
+      assertTrue(path, Arrays.equals(expected.get(path), actual.get(path)));
+    }
+  }
+
+  public void testNoGrammarsMatched() throws Exception {
+    String grammars = new File(AbstractParsingTestCase.TEST_DATA_PATH, "generator").getPath() + File.separator + "*.none";
+    assertEquals(Main.EXIT_INVALID_ARGS, generate("1", new File(myDir, "none"), grammars));
+  }
+
+  private static int generate(String threads, File output, String grammars) throws Exception {
+    String prev = System.getProperty(THREADS);
+    System.setProperty(THREADS, threads);
+    try {
+      PrintStream out = new PrintStream(new ByteArrayOutputStream(), true);
+      return Main.generate(new String[]{output.getPath(), grammars}, out);
+    }
+    finally {
+      if (prev == null) System.clearProperty(THREADS);
+      else System.setProperty(THREADS, prev);
+    }
+  }
+
+  private static Map<String, byte[]> collectFiles(File root) throws IOException {
+    Map<String, byte[]> result = ContainerUtil.newTreeMap();
+    for (File file : FileUtil.findFilesByMask(Pattern.compile(".*"), root)) {
+      result.put(FileUtil.getRelativePath(root, file), FileUtil.loadFileBytes(file));
+    }
+    return result;
+  }
+}
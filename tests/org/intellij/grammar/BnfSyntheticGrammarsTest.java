@@ -0,0 +1,85 @@
+package org.intellij.grammar;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.SyntaxTraverser;
+import org.intellij.grammar.generator.RuleGraphHelper;
+import org.intellij.grammar.psi.BnfFile;
+import org.intellij.grammar.psi.BnfReferenceOrToken;
+import org.intellij.grammar.psi.BnfRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class BnfSyntheticGrammarsTest extends AbstractParsingTestCase {
+
+  public BnfSyntheticGrammarsTest() {
+    super("parser", "bnf", new BnfParserDefinition());
+  }
+
+  public void testGrammar() {
+    SyntheticGrammars.GrammarSpec spec = new SyntheticGrammars.GrammarSpec();
+    spec.rules = 300;
+    spec.depth = 3;
+    spec.expressionLevels = 5;
+    BnfFile file = createGrammar(SyntheticGrammars.generateGrammar(new Random(1), spec));
+    assertEquals(1 + 1 + 300 + 1 + 5 + 2, file.getRules().size() - countRecoverRules(file));
+    Map<String, String> tokens = RuleGraphHelper.getTokenNameToTextMap(file);
+    for (BnfReferenceOrToken o : SyntaxTraverser.psiTraverser(file).filter(BnfReferenceOrToken.class)) {
+      if (tokens.containsKey(o.getText())) continue;
+      assertNotNull("unresolved: " + o.getText(), o.resolveRule());
+    }
+  }
+
+  public void testSameSeedSameOutput() {
+    SyntheticGrammars.GrammarSpec spec = new SyntheticGrammars.GrammarSpec();
+    String grammar = SyntheticGrammars.generateGrammar(new Random(7), spec);
+    assertEquals(grammar, SyntheticGrammars.generateGrammar(new Random(7), spec));
+
+    BnfFile file = createGrammar(grammar);
+    BnfRule root = file.getRules().get(0);
+    String sentence = new SyntheticGrammars.SentenceGenerator(file, new Random(7)).generate(root);
+    assertEquals(sentence, new SyntheticGrammars.SentenceGenerator(file, new Random(7)).generate(root));
+  }
+
+  public void testSelfBnfSentences() throws IOException {
+    BnfFile file = createGrammar(FileUtil.loadFile(new File("grammars/Grammar.bnf")));
+    BnfRule root = file.getRules().get(0);
+    SyntheticGrammars.SentenceGenerator generator = new SyntheticGrammars.SentenceGenerator(file, new Random(3));
+    generator.maxTokens = 1000;
+    int total = 0;
+    for (int i = 0; i < 20; i++) {
+      List<String> tokens = generator.generateTokens(root);
+      assertTrue(tokens.size() < 2 * generator.maxTokens);
+      total += tokens.size();
+    }
+    assertTrue(total > 0);
+  }
+
+  public void testErrorInjection() {
+    BnfFile file = createGrammar(SyntheticGrammars.generateGrammar(new Random(5), new SyntheticGrammars.GrammarSpec()));
+    BnfRule rule = file.getRule("rule_0");
+    String clean = new SyntheticGrammars.SentenceGenerator(file, new Random(5)).generate(rule);
+    SyntheticGrammars.SentenceGenerator generator = new SyntheticGrammars.SentenceGenerator(file, new Random(5));
+    generator.errorRate = 1;
+    assertFalse(clean.isEmpty());
+    assertFalse(clean.equals(generator.generate(rule)));
+  }
+
+  private BnfFile createGrammar(String text) {
+    BnfFile file = (BnfFile)createPsiFile("synthetic", text);
+    assertEmpty(SyntaxTraverser.psiTraverser(file).filter(PsiErrorElement.class).toList());
+    return file;
+  }
+
+  private static int countRecoverRules(BnfFile file) {
+    int count = 0;
+    for (BnfRule rule : file.getRules()) {
+      if (rule.getName().endsWith("_recover")) count++;
+    }
+    return count;
+  }
+}
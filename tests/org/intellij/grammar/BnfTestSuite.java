@@ -4,6 +4,12 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import org.intellij.grammar.expression.ExpressionParserTest;
+import org.intellij.grammar.java.ClassSignatureIndexTest;
+import org.intellij.grammar.java.JavaHelperCacheTest;
+import org.intellij.grammar.livePreview.LivePreviewCaretTest;
+import org.intellij.grammar.livePreview.LivePreviewHighlighterTest;
+import org.intellij.grammar.livePreview.LivePreviewUpdaterTest;
+import org.intellij.grammar.livePreview.TokenAutomatonTest;
 import org.intellij.jflex.JFlexCompletionTest;
 import org.intellij.jflex.JFlexGenerationTest;
 import org.intellij.jflex.JFlexParserTest;
@@ -24,6 +30,10 @@ public class BnfTestSuite extends TestCase {
       testSuite.addTestSuite(ExpressionParserTest.class);
       testSuite.addTestSuite(BnfLivePreviewParserTest.class);
       testSuite.addTestSuite(BnfAttributeDescriptionTest.class);
+      testSuite.addTestSuite(BnfSyntheticGrammarsTest.class);
+      testSuite.addTestSuite(ClassSignatureIndexTest.class);
+      testSuite.addTestSuite(JavaHelperCacheTest.class);
+      testSuite.addTestSuite(TokenAutomatonTest.class);
       return testSuite;
     }
   }
@@ -38,6 +48,13 @@ public class BnfTestSuite extends TestCase {
     testSuite.addTestSuite(BnfInlineRuleTest.class);
     testSuite.addTestSuite(BnfIntroduceRuleTest.class);
     testSuite.addTestSuite(BnfFlipChoiceIntentionTest.class);
+    testSuite.addTestSuite(BnfAllocationBudgetTest.class);
+    testSuite.addTestSuite(BnfInMemoryCompilerTest.class);
+    testSuite.addTestSuite(BnfMainGenerateTest.class);
+    testSuite.addTestSuite(GeneratorDaemonTest.class);
+    testSuite.addTestSuite(LivePreviewUpdaterTest.class);
+    testSuite.addTestSuite(LivePreviewCaretTest.class);
+    testSuite.addTestSuite(LivePreviewHighlighterTest.class);
 
     testSuite.addTestSuite(JFlexCompletionTest.class);
     return testSuite;
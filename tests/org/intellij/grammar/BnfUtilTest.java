@@ -16,9 +16,13 @@
 
 package org.intellij.grammar;
 
+import com.intellij.lang.Language;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
 import com.intellij.testFramework.UsefulTestCase;
 import org.intellij.grammar.generator.Case;
 import org.intellij.grammar.generator.ParserGeneratorUtil;
+import org.intellij.grammar.parser.GeneratedParserUtilBase.ExtendsMatrix;
 
 import static org.intellij.grammar.generator.ParserGeneratorUtil.NameFormat;
 import static org.intellij.grammar.generator.ParserGeneratorUtil.getGetterName;
@@ -66,6 +70,31 @@ public class BnfUtilTest extends UsefulTestCase {
     assertEquals("TestEOL", toIdentifier("testEOL", Case.CAMEL));
   }
   
+  public void testExtendsMatrix() {
+    IElementType[] types = new IElementType[100];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = new IElementType("T" + i, Language.ANY);
+    }
+    // more than 64 sets to span several words per row, types shared between sets
+    TokenSet[] sets = new TokenSet[70];
+    for (int i = 0; i < sets.length; i++) {
+      sets[i] = TokenSet.create(types[i], types[(i * 7 + 3) % 90], types[(i * 13) % 90]);
+    }
+    ExtendsMatrix matrix = ExtendsMatrix.get(sets);
+    assertNotNull(matrix);
+    assertSame(matrix, ExtendsMatrix.get(sets));
+    assertNotSame(matrix, ExtendsMatrix.get(sets.clone()));
+    for (IElementType child : types) {
+      for (IElementType parent : types) {
+        boolean expected = false;
+        for (TokenSet set : sets) {
+          expected |= set.contains(child) && set.contains(parent);
+        }
+        assertEquals(child + " extends " + parent, expected, matrix.typeExtends(child, parent));
+      }
+    }
+  }
+
   static String toIdentifier(String s, Case c) {
     return ParserGeneratorUtil.toIdentifier(s, null, c);
   }
@@ -0,0 +1,98 @@
+package org.intellij.grammar;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Requests served by {@link GeneratorDaemon} over stdin and sockets.
+ */
+public class GeneratorDaemonTest extends UsefulTestCase {
+  private static final String TOKEN = "0123456789abcdef";
+
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("daemon", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testStdinRoundTrip() throws Exception {
+    String grammar = new File(AbstractParsingTestCase.TEST_DATA_PATH, "generator/ExprParser.bnf").getPath();
+    String request = myDir.getPath() + "\t" + grammar + "\n" + GeneratorDaemon.SHUTDOWN + "\n";
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true, "UTF-8");
+    assertFalse(GeneratorDaemon.handle(new BufferedReader(new StringReader(request)), out));
+    String[] lines = bytes.toString("UTF-8").trim().split("\r?\n");
+    assertTrue(lines[0], lines[0].startsWith("ExprParser.bnf parser generated to "));
+    assertTrue(lines[lines.length - 1], lines[lines.length - 1].matches(GeneratorDaemon.DONE + " ok \\d+ms"));
+    assertTrue(new File(myDir, "org/intellij/grammar/expression/ExpressionParser.java").isFile());
+  }
+
+  public void testInvalidRequest() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true, "UTF-8");
+    assertTrue(GeneratorDaemon.handle(new BufferedReader(new StringReader(myDir.getPath() + "\n")), out));
+    assertTrue(bytes.toString("UTF-8").trim().matches("(?s).*\n" + GeneratorDaemon.DONE + " failed \\d+ms"));
+  }
+
+  public void testBadTokenRejected() throws Exception {
+    assertEquals("", request(TOKEN + "0", null));
+    assertEquals("", request("", null));
+    assertTrue(request(TOKEN, myDir.getPath() + "\tnone.bnf").contains(GeneratorDaemon.DONE + " failed"));
+  }
+
+  public void testClassPathStamp() throws Exception {
+    File classes = new File(myDir, "classes");
+    File aClass = new File(classes, "a/A.class");
+    FileUtil.writeToFile(aClass, "A");
+    String classPath = classes.getPath() + File.pathSeparator + new File(myDir, "missing.jar").getPath();
+    long stamp = GeneratorDaemon.getClassPathStamp(classPath);
+    assertEquals(stamp, GeneratorDaemon.getClassPathStamp(classPath));
+    assertTrue(aClass.setLastModified(aClass.lastModified() + 10000));
+    assertFalse(stamp == GeneratorDaemon.getClassPathStamp(classPath));
+    assertFalse(stamp == GeneratorDaemon.getClassPathStamp(classes.getPath()));
+  }
+
+  /**
+   * Sends the token and the request if any over a fresh connection, returns everything the daemon replied.
+   */
+  private static String request(String token, String request) throws Exception {
+    try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      Thread thread = new Thread(() -> {
+        try {
+          GeneratorDaemon.handleConnection(serverSocket.accept(), TOKEN, serverSocket);
+        }
+        catch (IOException ignored) {
+        }
+      });
+      thread.start();
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        writer.write(token + "\n" + (request == null ? "" : request + "\n"));
+        writer.flush();
+        socket.shutdownOutput();
+        return FileUtil.loadTextAndClose(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      }
+      finally {
+        thread.join(10000);
+      }
+    }
+  }
+}
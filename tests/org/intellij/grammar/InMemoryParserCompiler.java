@@ -0,0 +1,152 @@
+package org.intellij.grammar;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.generator.ParserGenerator;
+import org.intellij.grammar.psi.BnfFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.tools.*;
+import java.io.*;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test utility: generates parser (and optionally PSI) classes and loads them into a fresh class loader
+ * without touching the file system: sources are kept in memory, compiled in-process with the JDK compiler
+ * and the resulting bytecode is defined directly from memory.
+ * <p/>
+ * Generated classes are loaded child-first, so classes with the same names
+ * visible through the parent class loader (e.g. a previously generated parser) never shadow them.
+ */
+class InMemoryParserCompiler {
+
+  private static final String OUTPUT_ROOT = "memory";
+
+  private InMemoryParserCompiler() {
+  }
+
+  /**
+   * @return generated sources by fully-qualified top-level class name
+   */
+  @NotNull
+  static Map<String, String> generateSources(@NotNull BnfFile file, boolean generatePsi) throws IOException {
+    Map<String, StringWriter> writers = ContainerUtil.newLinkedHashMap();
+    ParserGenerator generator = new ParserGenerator(file, "", OUTPUT_ROOT) {
+      @Override
+      protected PrintWriter openOutputInner(File target) throws IOException {
+        String path = FileUtil.toSystemIndependentName(StringUtil.notNullize(FileUtil.getRelativePath(new File(OUTPUT_ROOT), target)));
+        StringWriter writer = new StringWriter();
+        writers.put(StringUtil.trimEnd(path, ".java").replace('/', '.'), writer);
+        return new PrintWriter(writer);
+      }
+    };
+    if (generatePsi) generator.generate();
+    else generator.generateParser();
+    Map<String, String> result = ContainerUtil.newLinkedHashMap();
+    for (Map.Entry<String, StringWriter> e : writers.entrySet()) {
+      result.put(e.getKey(), e.getValue().toString());
+    }
+    return result;
+  }
+
+  /**
+   * @param classPath classes the generated code depends on: parser util and PSI base classes, element types holder, etc.
+   * @return loaded top-level classes by fully-qualified name
+   */
+  @NotNull
+  static Map<String, Class<?>> generateAndLoad(@NotNull BnfFile file,
+                                                      boolean generatePsi,
+                                                      @NotNull List<File> classPath,
+                                                      @Nullable ClassLoader parent) throws IOException {
+    Map<String, String> sources = generateSources(file, generatePsi);
+    ClassLoader loader = compile(sources, classPath, parent);
+    Map<String, Class<?>> result = ContainerUtil.newLinkedHashMap();
+    for (String className : sources.keySet()) {
+      try {
+        result.put(className, loader.loadClass(className));
+      }
+      catch (ClassNotFoundException e) {
+        throw new IOException(e);
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  static ClassLoader compile(@NotNull Map<String, String> sources,
+                                    @NotNull List<File> classPath,
+                                    @Nullable ClassLoader parent) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) throw new IOException("System Java compiler not found, JDK is required");
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, null, CharsetToolkit.UTF8_CHARSET);
+    standardManager.setLocation(StandardLocation.CLASS_PATH, classPath);
+
+    Map<String, ByteArrayOutputStream> classes = ContainerUtil.newLinkedHashMap();
+    JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardManager) {
+      @Override
+      public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+        return new SimpleJavaFileObject(createUri(className, kind), kind) {
+          @Override
+          public OutputStream openOutputStream() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            classes.put(className, out);
+            return out;
+          }
+        };
+      }
+    };
+    List<JavaFileObject> units = ContainerUtil.newArrayList();
+    for (Map.Entry<String, String> e : sources.entrySet()) {
+      String text = e.getValue();
+      units.add(new SimpleJavaFileObject(createUri(e.getKey(), JavaFileObject.Kind.SOURCE), JavaFileObject.Kind.SOURCE) {
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+          return text;
+        }
+      });
+    }
+    List<String> options = Arrays.asList("-proc:none", "-nowarn", "-g");
+    try {
+      Boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+      if (!Boolean.TRUE.equals(success)) {
+        StringBuilder sb = new StringBuilder("Generated code compilation failed:");
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+          if (d.getKind() != Diagnostic.Kind.ERROR) continue;
+          String source = d.getSource() == null ? "" : d.getSource().getName() + ":" + d.getLineNumber() + ": ";
+          sb.append("\n").append(source).append(d.getMessage(null));
+        }
+        throw new IOException(sb.toString());
+      }
+    }
+    finally {
+      fileManager.close();
+    }
+    return new ClassLoader(parent) {
+      @Override
+      protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        ByteArrayOutputStream out = classes.get(name);
+        if (out == null) return super.loadClass(name, resolve);
+        synchronized (getClassLoadingLock(name)) {
+          Class<?> c = findLoadedClass(name);
+          if (c == null) {
+            byte[] bytes = out.toByteArray();
+            c = defineClass(name, bytes, 0, bytes.length);
+          }
+          if (resolve) resolveClass(c);
+          return c;
+        }
+      }
+    };
+  }
+
+  private static URI createUri(String className, JavaFileObject.Kind kind) {
+    return URI.create(OUTPUT_ROOT + ":///" + className.replace('.', '/') + kind.extension);
+  }
+}
@@ -0,0 +1,139 @@
+package org.intellij.grammar.java;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import org.intellij.grammar.java.JavaHelper.ClassInfo;
+import org.intellij.grammar.java.JavaHelper.MethodInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+public class ClassSignatureIndexTest extends UsefulTestCase {
+
+  private static final String NESTED = "org.intellij.grammar.java.JavaHelper.ClassInfo";
+  private static final String OTHER = "org.intellij.grammar.java.JavaHelper.MethodInfo";
+
+  private File myDir;
+  private File myIndexFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("signatures", null);
+    myIndexFile = new File(myDir, "index/signatures.bin");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testRoundTrip() throws Exception {
+    byte[] bytes = loadClassBytes("JavaHelper$ClassInfo.class");
+    File classFile = writeClassFile("classes/org/intellij/grammar/java/JavaHelper$ClassInfo.class", bytes, 1000000L);
+    URL url = classFile.toURI().toURL();
+
+    ClassSignatureIndex index = ClassSignatureIndex.load(myIndexFile);
+    String expected = describe(JavaHelper.AsmHelper.getClassInfo(NESTED, bytes));
+    assertEquals(expected, describe(index.findClass(NESTED, url)));
+    assertEquals(1, index.getClassCount());
+    long length = myIndexFile.length();
+
+    ClassSignatureIndex loaded = ClassSignatureIndex.load(myIndexFile);
+    assertEquals(1, loaded.getClassCount());
+    assertEquals(expected, describe(loaded.findClass(NESTED, url)));
+    assertEquals("no record appended for an unchanged class", length, myIndexFile.length());
+  }
+
+  public void testTimestampChange() throws Exception {
+    byte[] bytes = loadClassBytes("JavaHelper$ClassInfo.class");
+    byte[] otherBytes = loadClassBytes("JavaHelper$MethodInfo.class");
+    File classFile = writeClassFile("classes/org/intellij/grammar/java/JavaHelper$ClassInfo.class", bytes, 1000000L);
+    URL url = classFile.toURI().toURL();
+    String expected = describe(JavaHelper.AsmHelper.getClassInfo(NESTED, bytes));
+    String expectedOther = describe(JavaHelper.AsmHelper.getClassInfo(NESTED, otherBytes));
+    ClassSignatureIndex.load(myIndexFile).findClass(NESTED, url);
+    long length = myIndexFile.length();
+
+    // same timestamp: the stored record is used
+    writeClassFile("classes/org/intellij/grammar/java/JavaHelper$ClassInfo.class", otherBytes, 1000000L);
+    assertEquals(expected, describe(ClassSignatureIndex.load(myIndexFile).findClass(NESTED, url)));
+    assertEquals(length, myIndexFile.length());
+
+    // new timestamp: the class is read again and only its record is appended
+    writeClassFile("classes/org/intellij/grammar/java/JavaHelper$ClassInfo.class", otherBytes, 2000000L);
+    assertEquals(expectedOther, describe(ClassSignatureIndex.load(myIndexFile).findClass(NESTED, url)));
+    assertTrue(myIndexFile.length() > length);
+    ClassSignatureIndex loaded = ClassSignatureIndex.load(myIndexFile);
+    assertEquals(1, loaded.getClassCount());
+    assertEquals(expectedOther, describe(loaded.findClass(NESTED, url)));
+  }
+
+  public void testNestedAndTopLevelClassFiles() throws Exception {
+    byte[] bytes = loadClassBytes("JavaHelper$ClassInfo.class");
+    byte[] otherBytes = loadClassBytes("JavaHelper$MethodInfo.class");
+    // a.B$C and a/B/C are different classes for the same dotted name
+    URL nested = writeClassFile("classes/a/B$C.class", bytes, 1000000L).toURI().toURL();
+    URL topLevel = writeClassFile("classes/a/B/C.class", otherBytes, 1000000L).toURI().toURL();
+
+    ClassSignatureIndex index = ClassSignatureIndex.load(myIndexFile);
+    index.findClass("a.B.C", nested);
+    index.findClass("a.B.C", topLevel);
+    ClassSignatureIndex loaded = ClassSignatureIndex.load(myIndexFile);
+    assertEquals(2, loaded.getClassCount());
+    assertEquals(describe(JavaHelper.AsmHelper.getClassInfo("a.B.C", bytes)), describe(loaded.findClass("a.B.C", nested)));
+    assertEquals(describe(JavaHelper.AsmHelper.getClassInfo("a.B.C", otherBytes)), describe(loaded.findClass("a.B.C", topLevel)));
+  }
+
+  public void testCorruptedTail() throws Exception {
+    byte[] bytes = loadClassBytes("JavaHelper$ClassInfo.class");
+    URL url = writeClassFile("classes/org/intellij/grammar/java/JavaHelper$ClassInfo.class", bytes, 1000000L).toURI().toURL();
+    ClassSignatureIndex.load(myIndexFile).findClass(NESTED, url);
+    long length = myIndexFile.length();
+    FileUtil.writeToFile(myIndexFile, new byte[]{0, 42, 1}, true);
+
+    ClassSignatureIndex loaded = ClassSignatureIndex.load(myIndexFile);
+    assertEquals(1, loaded.getClassCount());
+    assertEquals(length, myIndexFile.length());
+    assertEquals(describe(JavaHelper.AsmHelper.getClassInfo(NESTED, bytes)), describe(loaded.findClass(NESTED, url)));
+  }
+
+  public void testUnknownClassFile() throws Exception {
+    ClassSignatureIndex index = ClassSignatureIndex.load(myIndexFile);
+    assertNull(index.findClass(OTHER, new File(myDir, "missing/Missing.class").toURI().toURL()));
+    assertEquals(0, index.getClassCount());
+  }
+
+  private File writeClassFile(String path, byte[] bytes, long timestamp) throws IOException {
+    File file = new File(myDir, path);
+    FileUtil.writeToFile(file, bytes);
+    assertTrue(file.setLastModified(timestamp));
+    return file;
+  }
+
+  private static byte[] loadClassBytes(String name) throws IOException {
+    try (InputStream is = JavaHelper.class.getResourceAsStream(name)) {
+      assertNotNull(name, is);
+      return FileUtil.loadBytes(is);
+    }
+  }
+
+  private static String describe(ClassInfo info) {
+    assertNotNull(info);
+    StringBuilder sb = new StringBuilder();
+    sb.append(info.name).append(" extends ").append(info.superClass).append(" ").append(info.modifiers)
+      .append(info.typeParameters).append(info.interfaces).append(info.annotations).append("\n");
+    for (MethodInfo method : info.methods) {
+      sb.append("  ").append(method.methodType).append(" ").append(method.declaringClass).append(" ")
+        .append(method.modifiers).append(" ").append(method).append("\n");
+    }
+    return sb.toString();
+  }
+}
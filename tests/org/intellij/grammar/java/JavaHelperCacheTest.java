@@ -0,0 +1,85 @@
+package org.intellij.grammar.java;
+
+import com.intellij.psi.NavigatablePsiElement;
+import com.intellij.testFramework.UsefulTestCase;
+import org.intellij.grammar.java.JavaHelper.LookupCache;
+import org.intellij.grammar.java.JavaHelper.MethodType;
+import org.intellij.grammar.parser.GeneratedParserUtilBase;
+
+import java.util.List;
+
+/**
+ * Class, method, type and annotation lookups are served from the caches until {@link JavaHelper#clearCaches()}.
+ */
+public class JavaHelperCacheTest extends UsefulTestCase {
+  private static final String CLASS = GeneratedParserUtilBase.class.getName();
+  private static final String MISSING = "org.intellij.grammar.NoSuchClass";
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    JavaHelper.clearCaches();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      JavaHelper.clearCaches();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testAsmHelper() {
+    doTest(new JavaHelper.AsmHelper(), JavaHelper.AsmHelper.ourClassCache, JavaHelper.AsmHelper.ourMethodCache);
+  }
+
+  public void testReflectionHelper() {
+    JavaHelper helper = new JavaHelper.ReflectionHelper();
+    doTest(helper, JavaHelper.ReflectionHelper.ourClassCache, JavaHelper.ReflectionHelper.ourMethodCache);
+
+    NavigatablePsiElement method = helper.findClassMethods(CLASS, MethodType.STATIC, "consumeToken", 2, "com.intellij.lang.PsiBuilder", "java.lang.String").get(0);
+    LookupCache<?, ?> types = JavaHelper.ReflectionHelper.ourTypesCache;
+    int misses = types.getMisses();
+    List<String> methodTypes = helper.getMethodTypes(method);
+    assertEquals("boolean", methodTypes.get(0));
+    assertSame(methodTypes, helper.getMethodTypes(method));
+    assertEquals(misses + 1, types.getMisses());
+
+    LookupCache<?, ?> annotations = JavaHelper.ReflectionHelper.ourAnnotationsCache;
+    int hits = annotations.getHits();
+    helper.getAnnotations(method);
+    helper.getAnnotations(method);
+    assertEquals(hits + 1, annotations.getHits());
+  }
+
+  private static void doTest(JavaHelper helper, LookupCache<?, ?> classes, LookupCache<?, ?> methods) {
+    int hits = classes.getHits();
+    int misses = classes.getMisses();
+    assertNotNull(helper.findClass(CLASS));
+    assertNotNull(helper.findClass(CLASS));
+    assertEquals(misses + 1, classes.getMisses());
+    assertEquals(hits + 1, classes.getHits());
+
+    // missing classes are cached as well
+    assertNull(helper.findClass(MISSING));
+    assertNull(helper.findClass(MISSING));
+    assertEquals(misses + 2, classes.getMisses());
+    assertEquals(hits + 2, classes.getHits());
+
+    int methodMisses = methods.getMisses();
+    List<NavigatablePsiElement> found = helper.findClassMethods(CLASS, MethodType.STATIC, "consumeToken", -1);
+    assertNotEmpty(found);
+    assertSame(found, helper.findClassMethods(CLASS, MethodType.STATIC, "consumeToken", -1));
+    assertNotSame(found, helper.findClassMethods(CLASS, MethodType.STATIC, "nextTokenIs", -1));
+    assertEquals(methodMisses + 2, methods.getMisses());
+    assertTrue(helper.getCacheStatistics().contains("hits: "));
+
+    JavaHelper.clearCaches();
+    assertNotNull(helper.findClass(CLASS));
+    assertEquals(misses + 3, classes.getMisses());
+    assertNotSame(found, helper.findClassMethods(CLASS, MethodType.STATIC, "consumeToken", -1));
+    assertEquals(methodMisses + 3, methods.getMisses());
+  }
+}
@@ -0,0 +1,99 @@
+package org.intellij.grammar.livePreview;
+
+import com.intellij.lang.LanguageParserDefinitions;
+import com.intellij.lang.ParserDefinition;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiBuilderFactory;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.TokenType;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.AbstractParsingTestCase;
+import org.intellij.grammar.parser.GeneratedParserUtilBase.Parser;
+import org.intellij.grammar.psi.BnfExpression;
+import org.intellij.grammar.psi.BnfFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grammar-at-caret lookups served by the parse trace must report the same expressions
+ * as a full parse per caret offset, the way {@link LivePreviewHelper#collectExpressionsAtOffset} used to work.
+ */
+public class LivePreviewCaretTest extends LightPlatformCodeInsightFixtureTestCase {
+
+  public void testLivePreviewTutorial() throws IOException { doTest("LivePreviewTutorial.bnf", "LivePreviewTutorial.live.txt"); }
+  public void testJsonRecovery() throws IOException { doTest("Json.bnf", "JsonRecovery.live.txt"); }
+  public void testAutoRecovery() throws IOException { doTest("AutoRecovery.bnf", "AutoRecovery.live.txt"); }
+  public void testExprParser() throws IOException { doTest("../generator/ExprParser.bnf", "ExprParser.live.txt"); }
+
+  private void doTest(String grammarPath, String textPath) throws IOException {
+    String grammarText = loadFile(grammarPath);
+    String text = loadFile(textPath);
+    BnfFile grammar = (BnfFile)myFixture.addFileToProject("Caret" + new File(grammarPath).getName(), grammarText);
+    PsiFile preview = LivePreviewHelper.parseFile(grammar, text);
+    assertNotNull(preview);
+    LivePreviewLanguage language = (LivePreviewLanguage)preview.getLanguage();
+    try {
+      myFixture.openFileInEditor(preview.getVirtualFile());
+      Editor editor = myFixture.getEditor();
+      for (int offset = 0; offset <= text.length(); offset++) {
+        editor.getCaretModel().moveToOffset(offset);
+        List<String> actual = ContainerUtil.newArrayList();
+        LivePreviewHelper.collectExpressionsAtOffset(getProject(), editor, language, (expression, result) -> {
+          actual.add(describe(expression, result));
+          return true;
+        });
+        assertEquals("at " + offset, collectByParsing(language, text, offset), actual);
+      }
+    }
+    finally {
+      LivePreviewHelper.unregisterLanguageExtensions(language);
+    }
+  }
+
+  /**
+   * Parses the text and reports the node calls covering the caret as they complete.
+   */
+  private List<String> collectByParsing(LivePreviewLanguage language, String text, int caretOffset) {
+    List<String> result = ContainerUtil.newArrayList();
+    ParserDefinition parserDefinition = LanguageParserDefinitions.INSTANCE.forLanguage(language);
+    PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(
+      parserDefinition, new LivePreviewLexer(getProject(), language), text);
+    new LivePreviewParser(getProject(), language) {
+      @Override
+      protected boolean generateNodeCall(PsiBuilder builder, int level, @NotNull LivePreviewGrammar.Node node,
+                                         Map<String, Parser> externalArguments) {
+        int tokenStartOffset = builder.getCurrentOffset();
+        int initialOffset = builder.rawLookup(-1) == TokenType.WHITE_SPACE ? builder.rawTokenTypeStart(-1) : tokenStartOffset;
+        String tokenText = builder.getTokenText();
+        int tokenEndOffset = tokenText == null ? tokenStartOffset : tokenStartOffset + tokenText.length();
+        boolean success = super.generateNodeCall(builder, level, node, externalArguments);
+        builder.getCurrentOffset(); // advance to the next token first
+        int finalOffset = builder.rawLookup(-1) == TokenType.WHITE_SPACE ? builder.rawTokenTypeStart(-1) : builder.getCurrentOffset();
+        BnfExpression expression = node.getExpression();
+        if (expression != null &&
+            (success && initialOffset <= caretOffset && finalOffset > caretOffset ||
+             !success && initialOffset <= caretOffset && tokenEndOffset > caretOffset)) {
+          boolean inWhitespace = isTokenExpression(expression) && tokenStartOffset > caretOffset;
+          result.add(describe(expression, success && !inWhitespace));
+        }
+        return success;
+      }
+    }.parse(parserDefinition.getFileNodeType(), builder);
+    return result;
+  }
+
+  private static String describe(BnfExpression expression, boolean result) {
+    return expression.getText() + "@" + expression.getTextRange().getStartOffset() + (result ? "" : " failed");
+  }
+
+  private static String loadFile(String path) throws IOException {
+    return FileUtil.loadFile(new File(AbstractParsingTestCase.TEST_DATA_PATH, "livePreview/" + path), true);
+  }
+}
@@ -0,0 +1,107 @@
+package org.intellij.grammar.livePreview;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterBase;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.containers.ContainerUtil;
+import gnu.trove.TIntArrayList;
+import org.intellij.grammar.AbstractParsingTestCase;
+import org.intellij.grammar.psi.BnfFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A single char edit makes the editor highlighter relex just a few tokens around it, even below an unclosed string.
+ */
+public class LivePreviewHighlighterTest extends LightPlatformCodeInsightFixtureTestCase {
+
+  public void testSingleCharInsert() throws IOException {
+    String grammarText = FileUtil.loadFile(new File(AbstractParsingTestCase.TEST_DATA_PATH, "livePreview/Json.bnf"), true);
+    BnfFile grammar = (BnfFile)myFixture.addFileToProject("Json.bnf", grammarText);
+    String text = "[ 'a', \"unclosed, " + StringUtil.repeat("12, ", 1000) + "3 ]";
+    PsiFile preview = LivePreviewHelper.parseFile(grammar, text);
+    assertNotNull(preview);
+    LivePreviewLanguage language = (LivePreviewLanguage)preview.getLanguage();
+    try {
+      RecordingLexer lexer = new RecordingLexer(language);
+      LexerEditorHighlighter highlighter = createHighlighter(lexer);
+      Document document = new DocumentImpl(text);
+      highlighter.setText(document.getImmutableCharSequence());
+      document.addDocumentListener(highlighter);
+      lexer.starts.clear();
+      lexer.advances = 0;
+
+      int offset = text.indexOf("12, ", text.length() / 2);
+      WriteCommandAction.runWriteCommandAction(getProject(), () -> document.insertString(offset, "3"));
+      assertEquals(1, lexer.starts.size());
+      assertTrue("relexed from " + lexer.starts.get(0), lexer.starts.get(0) > offset - 10);
+      assertTrue("relexed " + lexer.advances + " tokens", lexer.advances < 10);
+
+      LexerEditorHighlighter expected = createHighlighter(new RecordingLexer(language));
+      expected.setText(document.getImmutableCharSequence());
+      assertEquals(getTokens(expected), getTokens(highlighter));
+    }
+    finally {
+      LivePreviewHelper.unregisterLanguageExtensions(language);
+    }
+  }
+
+  private static LexerEditorHighlighter createHighlighter(Lexer lexer) {
+    return new LexerEditorHighlighter(new SyntaxHighlighterBase() {
+      @NotNull
+      @Override
+      public Lexer getHighlightingLexer() {
+        return lexer;
+      }
+
+      @NotNull
+      @Override
+      public TextAttributesKey[] getTokenHighlights(IElementType tokenType) {
+        return EMPTY;
+      }
+    }, EditorColorsManager.getInstance().getGlobalScheme());
+  }
+
+  private static List<String> getTokens(LexerEditorHighlighter highlighter) {
+    List<String> result = ContainerUtil.newArrayList();
+    for (HighlighterIterator iterator = highlighter.createIterator(0); !iterator.atEnd(); iterator.advance()) {
+      result.add(iterator.getStart() + ":" + iterator.getTokenType());
+    }
+    return result;
+  }
+
+  private class RecordingLexer extends LivePreviewLexer {
+    final TIntArrayList starts = new TIntArrayList();
+    int advances;
+
+    RecordingLexer(LivePreviewLanguage language) {
+      super(getProject(), language);
+    }
+
+    @Override
+    public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+      starts.add(startOffset);
+      super.start(buffer, startOffset, endOffset, initialState);
+    }
+
+    @Override
+    public void advance() {
+      advances++;
+      super.advance();
+    }
+  }
+}
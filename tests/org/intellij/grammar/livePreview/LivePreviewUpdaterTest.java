@@ -0,0 +1,85 @@
+package org.intellij.grammar.livePreview;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiErrorElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.SyntaxTraverser;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.TimeoutUtil;
+import com.intellij.util.ui.UIUtil;
+import org.intellij.grammar.psi.BnfFile;
+
+import java.util.List;
+
+/**
+ * Grammar edits reparse the previews of the edited grammar in the background, once the grammar is committed.
+ */
+public class LivePreviewUpdaterTest extends LightPlatformCodeInsightFixtureTestCase {
+  private static final long TIMEOUT = 10000;
+
+  public void testChangedGrammarPreviewsReparsed() {
+    BnfFile changed = (BnfFile)myFixture.configureByText("Changed.bnf", "root ::= item *\nitem ::= 'a'");
+    BnfFile other = (BnfFile)myFixture.addFileToProject("Other.bnf", "root ::= 'a' *");
+    PsiFile changedPreview = openPreview(changed, "a b a");
+    PsiFile otherPreview = openPreview(other, "a a");
+    try {
+      assertNotEmpty(getErrors(changedPreview));
+      assertEmpty(getErrors(otherPreview));
+
+      Document document = myFixture.getEditor().getDocument();
+      WriteCommandAction.runWriteCommandAction(getProject(), () -> document.insertString(document.getTextLength(), " | 'b'"));
+      // an uncommitted grammar postpones the update
+      dispatchEvents(1000);
+      PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+
+      PsiFile reparsed = waitForReparse(changedPreview);
+      assertEmpty(getErrors(reparsed));
+      assertTrue("preview of an unchanged grammar reparsed", otherPreview.isValid());
+    }
+    finally {
+      closePreview(changedPreview);
+      closePreview(otherPreview);
+    }
+  }
+
+  private PsiFile openPreview(BnfFile grammar, String text) {
+    PsiFile preview = LivePreviewHelper.parseFile(grammar, text);
+    assertNotNull(preview);
+    LivePreviewHelper.installUpdateListener(getProject());
+    FileEditorManager.getInstance(getProject()).openFile(preview.getVirtualFile(), false);
+    return preview;
+  }
+
+  private void closePreview(PsiFile preview) {
+    FileEditorManager.getInstance(getProject()).closeFile(preview.getVirtualFile());
+    LivePreviewHelper.unregisterLanguageExtensions((LivePreviewLanguage)preview.getLanguage());
+  }
+
+  private PsiFile waitForReparse(PsiFile preview) {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (preview.isValid()) {
+      assertTrue("preview not reparsed", System.currentTimeMillis() < deadline);
+      dispatchEvents(10);
+    }
+    PsiFile reparsed = PsiManager.getInstance(getProject()).findFile(preview.getVirtualFile());
+    assertNotNull(reparsed);
+    return reparsed;
+  }
+
+  private static void dispatchEvents(long millis) {
+    long deadline = System.currentTimeMillis() + millis;
+    do {
+      UIUtil.dispatchAllInvocationEvents();
+      TimeoutUtil.sleep(10);
+    }
+    while (System.currentTimeMillis() < deadline);
+  }
+
+  private static List<PsiErrorElement> getErrors(PsiFile file) {
+    return SyntaxTraverser.psiTraverser(file).filter(PsiErrorElement.class).toList();
+  }
+}
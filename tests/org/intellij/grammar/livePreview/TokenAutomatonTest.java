@@ -0,0 +1,159 @@
+package org.intellij.grammar.livePreview;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.grammar.AbstractParsingTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks {@link TokenAutomaton} matches against <code>java.util.regex</code>: at every offset the longest
+ * <code>lookingAt()</code> match among the tokens wins, ties go to the token declared first.
+ */
+public class TokenAutomatonTest extends UsefulTestCase {
+  private static final Pattern TOKEN = Pattern.compile("\\G\\s*\\w+\\s*=\\s*('([^']*)'|\"((?:[^\"\\\\]|\\\\.)*)\")");
+  private static final int MAX_LENGTH = 64;
+
+  public void testLivePreviewFixtureTokens() throws IOException {
+    File dir = new File(AbstractParsingTestCase.TEST_DATA_PATH, "livePreview");
+    List<File> grammars = ContainerUtil.newArrayList(FileUtil.findFilesByMask(Pattern.compile(".*\\.bnf"), dir));
+    grammars.add(new File(AbstractParsingTestCase.TEST_DATA_PATH, "generator/ExprParser.bnf"));
+    grammars.add(new File(AbstractParsingTestCase.TEST_DATA_PATH, "generator/UpperRules.bnf"));
+    StringBuilder sample = new StringBuilder();
+    for (File file : FileUtil.findFilesByMask(Pattern.compile(".*\\.live\\.txt"), dir)) {
+      sample.append(FileUtil.loadFile(file)).append("\n");
+    }
+    String text = sample + randomText(sample.toString(), 1000);
+    int checked = 0;
+    for (File grammar : grammars) {
+      List<String> literals = ContainerUtil.newArrayList();
+      List<String> regexps = ContainerUtil.newArrayList();
+      collectTokens(FileUtil.loadFile(grammar), literals, regexps);
+      if (literals.isEmpty()) continue;
+      String[] literalArray = ArrayUtil.toStringArray(literals);
+      String[] regexpArray = ArrayUtil.toStringArray(regexps);
+      assertTrue(grammar.getName(), TokenAutomaton.build(literalArray, regexpArray).getFallbackTokens().length < literals.size());
+      assertSameMatches(grammar.getName(), literalArray, regexpArray, text);
+      checked++;
+    }
+    assertTrue(checked > 5);
+  }
+
+  public void testCharClasses() {
+    assertSameMatches(regexps("[a-fA-F0-9]+", "[^a-z\\s]+", "[-+]?[0-9]", "[a\\-z]+", "[^\\d\\W]+", "[\\]\\[]+"),
+                      "0a9F-x+1 z-a ]][ ABz_q __9 -9 +", 2000);
+  }
+
+  public void testEscapes() {
+    assertSameMatches(regexps("\\x41\\u0042", "\\t+\\.", "\\\\+", "\\0101+", "\\(\\)", "\\S\\s", "\\D\\d"),
+                      "AB AA \t\t. \\\\\\ AAA () x 1 a1 .1 \\.", 2000);
+  }
+
+  public void testNestedGroups() {
+    assertSameMatches(regexps("((a|b)(c(d|e)*)?)+", "(?:x(y(z)?)?)+", "(((q)))"),
+                      "acdedbac abcde xyzxyx qq xxyz ba", 2000);
+  }
+
+  public void testAlternationWithGreedyQuantifiers() {
+    // the first successful alternative ends the match, the way java.util.regex does
+    assertSameMatches(regexps("a|ab", "(ab|a)(bc)*", "x{2,3}y?", "(a*)*b", "(c|cd)+e", "f?f?g{0,2}"),
+                      "ab abcbc abbc xxxy xxxxy aaab cdcde ccdce ffgg fgggg b", 2000);
+    assertMatch(new String[1], regexps("a|ab"), "ab", 0, 1);
+    assertMatch(new String[1], regexps("(a|ab)(c|bcd)"), "abcd", 0, 4);
+  }
+
+  public void testDeclarationOrderTies() {
+    String[] literals = {"if", null, "<=", "<", null};
+    String[] regexps = {null, "[a-z]+", null, null, "[<>=]+"};
+    assertMatch(literals, regexps, "if", 0, 2);
+    assertMatch(literals, regexps, "iff", 1, 3);
+    assertMatch(literals, regexps, "<=", 2, 2);
+    assertMatch(literals, regexps, "<", 3, 1);
+    assertMatch(literals, regexps, "<>", 4, 2);
+    String[] reversedLiterals = {null, "if"};
+    String[] reversedRegexps = {"[a-z]+", null};
+    assertMatch(reversedLiterals, reversedRegexps, "if", 0, 2);
+    assertSameMatches("ties", literals, regexps, "if iff <= < <> i f <<= =" + randomText("if<=> f", 2000));
+  }
+
+  public void testUnsupportedPatternsFallBack() {
+    String[] regexps = {"\\p{Alpha}+", "a+?", "^a", "(?i)a", "(a)\\1", "[a&&b]", "a(?=b)", "(a?)*", "[ab]"};
+    int[] fallback = TokenAutomaton.build(new String[regexps.length], regexps).getFallbackTokens();
+    assertEquals("[0, 1, 2, 3, 4, 5, 6, 7]", Arrays.toString(fallback));
+  }
+
+  private static void assertMatch(String[] literals, String[] regexps, String text, int token, int end) {
+    int[] result = new int[2];
+    assertEquals(text, end, TokenAutomaton.build(literals, regexps).match(text, 0, text.length(), result));
+    assertEquals(text, token, result[0]);
+  }
+
+  private static void assertSameMatches(String[] regexps, String text, int randomLength) {
+    assertSameMatches(Arrays.toString(regexps), new String[regexps.length], regexps, text + randomText(text, randomLength));
+  }
+
+  /**
+   * Compares the automaton with the longest <code>java.util.regex</code> match over the tokens it handles, at every offset.
+   */
+  private static void assertSameMatches(String message, String[] literals, String[] regexps, String text) {
+    TokenAutomaton automaton = TokenAutomaton.build(literals, regexps);
+    int[] fallback = automaton.getFallbackTokens();
+    Matcher[] matchers = new Matcher[literals.length];
+    for (int i = 0; i < literals.length; i++) {
+      if (Arrays.binarySearch(fallback, i) >= 0) continue;
+      String pattern = literals[i] != null ? Pattern.quote(literals[i]) : regexps[i];
+      if (pattern != null) matchers[i] = Pattern.compile(pattern).matcher(text);
+    }
+    int[] result = new int[2];
+    for (int start = 0; start < text.length(); start++) {
+      int limit = Math.min(text.length(), start + MAX_LENGTH);
+      int expectedEnd = TokenAutomaton.NO_MATCH;
+      int expectedToken = -1;
+      for (int i = 0; i < matchers.length; i++) {
+        if (matchers[i] == null) continue;
+        if (matchers[i].region(start, limit).lookingAt() && matchers[i].end() > Math.max(start, expectedEnd)) {
+          expectedEnd = matchers[i].end();
+          expectedToken = i;
+        }
+      }
+      int actualEnd = automaton.match(text, start, limit, result);
+      String at = message + " at " + start + ": " + text.substring(start, Math.min(limit, start + 20));
+      assertEquals(at, expectedEnd, actualEnd);
+      if (expectedEnd != TokenAutomaton.NO_MATCH) assertEquals(at, expectedToken, result[0]);
+    }
+  }
+
+  private static void collectTokens(String grammar, List<String> literals, List<String> regexps) {
+    int start = grammar.indexOf("tokens");
+    if (start < 0) return;
+    Matcher matcher = TOKEN.matcher(grammar);
+    matcher.region(grammar.indexOf('[', start) + 1, grammar.length());
+    while (matcher.find()) {
+      String value = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+      boolean regexp = value.startsWith("regexp:");
+      literals.add(regexp ? null : value);
+      regexps.add(regexp ? value.substring("regexp:".length()) : null);
+    }
+  }
+
+  private static String[] regexps(String... regexps) {
+    return regexps;
+  }
+
+  private static String randomText(String alphabet, int length) {
+    Random random = new Random(42);
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return sb.toString();
+  }
+}